@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.platform.benchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.eunoiaos.platform.internal.display.TwilightCalculator;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures computing the twilight of a year of days, one call at a time against a single
+ * batch call.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TwilightCalculatorBenchmark {
+    private static final int DAYS = 365;
+
+    // Mountain View
+    private static final double LATITUDE = 37.39;
+    private static final double LONGITUDE = -122.08;
+
+    // Solar days since 2000, starting in 2026
+    private static final long FIRST_DAY = 9497;
+
+    private static final long MAX_DIFFERENCE_MS = 5 * 60 * 1000;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final long[] mTimes = new long[DAYS];
+    private final long[] mSunrise = new long[DAYS];
+    private final long[] mSunset = new long[DAYS];
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < DAYS; i++) {
+            mTimes[i] = TwilightCalculator.getSolarTransit(FIRST_DAY + i, LONGITUDE);
+        }
+    }
+
+    @Test
+    public void singleCallYear() {
+        final TwilightCalculator calculator = new TwilightCalculator();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < DAYS; i++) {
+                calculator.calculateTwilight(mTimes[i], LATITUDE, LONGITUDE);
+                mSunrise[i] = calculator.mSunrise;
+                mSunset[i] = calculator.mSunset;
+            }
+        }
+    }
+
+    @Test
+    public void batchCallYear() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            TwilightCalculator.calculateTwilight(mTimes, LATITUDE, LONGITUDE, mSunrise, mSunset);
+        }
+    }
+
+    @Test
+    public void batchCallDay() {
+        final long[] time = new long[] { mTimes[0] };
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            TwilightCalculator.calculateTwilight(time, LATITUDE, LONGITUDE, mSunrise, mSunset);
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleCall() {
+        // Not timed, keeps the numbers above honest
+        final TwilightCalculator calculator = new TwilightCalculator();
+        TwilightCalculator.calculateTwilight(mTimes, LATITUDE, LONGITUDE, mSunrise, mSunset);
+        for (int i = 0; i < DAYS; i++) {
+            calculator.calculateTwilight(mTimes[i], LATITUDE, LONGITUDE);
+            // The single call counts days in single precision, which is off by up to minutes
+            assertEquals(calculator.mSunrise, mSunrise[i], MAX_DIFFERENCE_MS);
+            assertEquals(calculator.mSunset, mSunset[i], MAX_DIFFERENCE_MS);
+        }
+    }
+}
@@ -56,8 +56,8 @@ public abstract class EunoiaBaseFeature {
     }
 
     protected final boolean getBoolean(String setting, boolean defaultValue) {
-        return EunoiaSettings.System.getIntForUser(mContext.getContentResolver(),
-                setting, (defaultValue ? 1 : 0), UserHandle.USER_CURRENT) == 1;
+        return EunoiaSettings.System.getBooleanForUser(mContext.getContentResolver(),
+                setting, defaultValue, getCurrentUserId());
     }
 
     protected final void putBoolean(String setting, boolean value) {
@@ -67,7 +67,7 @@ public abstract class EunoiaBaseFeature {
 
     protected final int getInt(String setting, int defaultValue) {
         return EunoiaSettings.System.getIntForUser(mContext.getContentResolver(),
-                setting, defaultValue, UserHandle.USER_CURRENT);
+                setting, defaultValue, getCurrentUserId());
     }
 
     protected final void putInt(String setting, int value) {
@@ -85,6 +85,11 @@ public abstract class EunoiaBaseFeature {
                 setting, value, UserHandle.USER_CURRENT);
     }
 
+    private int getCurrentUserId() {
+        return mSettingsObserver != null
+                ? mSettingsObserver.getCurrentUserId() : UserHandle.USER_CURRENT;
+    }
+
     public void onDestroy() {
         mSettingsObserver.unregister();
     }
@@ -233,6 +233,38 @@ public class EunoiaHardwareService extends EunoiaSystemService {
             return mEunoiaHwImpl.set(feature, enable);
         }
 
+        @Override
+        public int getAll(int featureMask) {
+            mContext.enforceCallingOrSelfPermission(
+                    eunoiaos.platform.Manifest.permission.HARDWARE_ABSTRACTION_ACCESS, null);
+            int values = 0;
+            int features = featureMask & EunoiaHardwareManager.BOOLEAN_FEATURES
+                    & mEunoiaHwImpl.getSupportedFeatures();
+            for (; features != 0; features &= features - 1) {
+                final int feature = Integer.lowestOneBit(features);
+                if (mEunoiaHwImpl.get(feature)) {
+                    values |= feature;
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public int setAll(int featureMask, int valueMask) {
+            mContext.enforceCallingOrSelfPermission(
+                    eunoiaos.platform.Manifest.permission.HARDWARE_ABSTRACTION_ACCESS, null);
+            int result = 0;
+            int features = featureMask & EunoiaHardwareManager.BOOLEAN_FEATURES
+                    & mEunoiaHwImpl.getSupportedFeatures();
+            for (; features != 0; features &= features - 1) {
+                final int feature = Integer.lowestOneBit(features);
+                if (mEunoiaHwImpl.set(feature, (valueMask & feature) != 0)) {
+                    result |= feature;
+                }
+            }
+            return result;
+        }
+
         @Override
         public int[] getDisplayColorCalibration() {
             mContext.enforceCallingOrSelfPermission(
@@ -15,6 +15,7 @@
  */
 package com.eunoiaos.platform.internal.common;
 
+import android.app.ActivityManager;
 import android.app.ActivityManagerNative;
 import android.app.IUserSwitchObserver;
 import android.database.ContentObserver;
@@ -32,6 +33,8 @@ public abstract class UserContentObserver extends ContentObserver {
 
     private Runnable mUpdateRunnable;
 
+    private volatile int mCurrentUserId;
+
     private IUserSwitchObserver mUserSwitchObserver = new IUserSwitchObserver.Stub() {
         @Override
         public void onBeforeUserSwitching(int newUserId) throws RemoteException {
@@ -41,6 +44,7 @@ public abstract class UserContentObserver extends ContentObserver {
         }
         @Override
         public void onUserSwitchComplete(int newUserId) throws RemoteException {
+            mCurrentUserId = newUserId;
             mHandler.post(mUpdateRunnable);
         }
         @Override
@@ -60,6 +64,7 @@ public abstract class UserContentObserver extends ContentObserver {
     public UserContentObserver(Handler handler) {
         super(handler);
         mHandler = handler;
+        mCurrentUserId = ActivityManager.getCurrentUser();
         mUpdateRunnable = new Runnable() {
             @Override
             public void run() {
@@ -85,6 +90,13 @@ public abstract class UserContentObserver extends ContentObserver {
         }
     }
 
+    /**
+     * @return the id of the current user, as of the last user switch
+     */
+    public int getCurrentUserId() {
+        return mCurrentUserId;
+    }
+
     /**
      *  Called to notify of registered uri changes and user switches.
      *  Always invoked on the handler passed in at construction
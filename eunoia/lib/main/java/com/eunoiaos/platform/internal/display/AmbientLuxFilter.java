@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eunoiaos.platform.internal.display;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the readings of the ambient light sensor. Light sensors usually only report
+ * changes, so while no new readings arrive the newest one is assumed to still hold, and
+ * every filter converges towards it over time.
+ *
+ * Filters don't allocate while filtering. Callers must synchronize.
+ */
+public abstract class AmbientLuxFilter {
+
+    private static final String TAG = "AmbientLuxFilter";
+
+    public static final String AVERAGE = "average";
+    public static final String EMA = "ema";
+    public static final String MEDIAN = "median";
+    public static final String KALMAN = "kalman";
+
+    /**
+     * Create a filter by name, falling back to a moving average for unknown names.
+     *
+     * @param name one of {@link #AVERAGE}, {@link #EMA}, {@link #MEDIAN} or {@link #KALMAN}
+     * @param period the time span in ms the filter smooths over
+     * @param sensorRate the rate in ms the light sensor reports at
+     */
+    public static AmbientLuxFilter create(String name, int period, int sensorRate) {
+        // Room for a full window of samples at the requested rate, with headroom
+        final int capacity = 2 * (period / Math.max(sensorRate, 1) + 1);
+        if (EMA.equals(name)) {
+            return new ExponentialMovingAverage(period);
+        } else if (MEDIAN.equals(name)) {
+            return new TimedMedian(period, capacity);
+        } else if (KALMAN.equals(name)) {
+            return new Kalman(period, sensorRate);
+        } else if (!AVERAGE.equals(name)) {
+            Log.w(TAG, "Unknown filter " + name + ", using " + AVERAGE);
+        }
+        return new TimedMovingAverage(period, capacity);
+    }
+
+    /**
+     * Add a sensor reading taken at the given time. Readings may arrive late, in a batch, so
+     * a time before the newest one the filter has seen is taken as that newest time.
+     */
+    public abstract void add(long time, float lux);
+
+    /**
+     * @return the filtered lux value at the given time, or 0 without any readings
+     */
+    public abstract float getValue(long time);
+
+    /**
+     * Determine when the filtered value might reach the given threshold if no new readings
+     * arrive, so callers only need to check again then.
+     *
+     * @return the delay in ms, or -1 if the value can't reach the threshold without new
+     * readings
+     */
+    public abstract long getDelayUntil(long time, float threshold);
+
+    public abstract void clear();
+
+    /**
+     * Keeps the readings of a fixed duration sliding window in a circular buffer of
+     * primitives. The buffer only grows if the sensor reports faster than expected.
+     */
+    private abstract static class TimedRingBuffer extends AmbientLuxFilter {
+
+        protected long[] mTimestamps;
+        protected float[] mValues;
+
+        // Index of the oldest sample, and the number of samples
+        protected int mHead = 0;
+        protected int mSize = 0;
+
+        private final int mPeriod;
+
+        TimedRingBuffer(int period, int capacity) {
+            mPeriod = period;
+            mTimestamps = new long[capacity];
+            mValues = new float[capacity];
+        }
+
+        @Override
+        public void add(long time, float lux) {
+            if (mSize > 0) {
+                time = Math.max(time, mTimestamps[(mHead + mSize - 1) % mValues.length]);
+            }
+            expire(time);
+            if (lux == 0.0f && mSize == 0) {
+                return;
+            }
+            if (mSize == mValues.length) {
+                grow();
+            }
+            final int tail = (mHead + mSize) % mValues.length;
+            mTimestamps[tail] = time;
+            mValues[tail] = lux;
+            mSize++;
+            onAdded(lux);
+        }
+
+        @Override
+        public long getDelayUntil(long time, float threshold) {
+            expire(time);
+            // The value only changes when a sample expires, and the newest one never does
+            if (mSize <= 1) {
+                return -1;
+            }
+            return Math.max(mTimestamps[mHead] + mPeriod + 1 - time, 1);
+        }
+
+        @Override
+        public void clear() {
+            mHead = 0;
+            mSize = 0;
+            onCleared();
+        }
+
+        protected void expire(long time) {
+            while (mSize > 1 && ((time - mTimestamps[mHead]) > mPeriod)) {
+                final float lux = mValues[mHead];
+                mHead = (mHead + 1) % mValues.length;
+                mSize--;
+                onExpired(lux);
+            }
+        }
+
+        protected void onAdded(float lux) { }
+
+        protected void onExpired(float lux) { }
+
+        protected void onCleared() { }
+
+        protected void onGrown(int capacity) { }
+
+        private void grow() {
+            final int capacity = mValues.length * 2;
+            final long[] timestamps = new long[capacity];
+            final float[] values = new float[capacity];
+            for (int i = 0; i < mSize; i++) {
+                final int index = (mHead + i) % mValues.length;
+                timestamps[i] = mTimestamps[index];
+                values[i] = mValues[index];
+            }
+            mTimestamps = timestamps;
+            mValues = values;
+            mHead = 0;
+            onGrown(capacity);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < mSize; i++) {
+                final int index = (mHead + i) % mValues.length;
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append("(").append(mValues[index]).append(", ")
+                        .append(mTimestamps[index]).append(")");
+            }
+            return " length=" + mSize + " mRing=[" + sb.toString() + "]";
+        }
+    }
+
+    /**
+     * Calculates a simple moving average based on a fixed
+     * duration sliding window. This is useful for dampening
+     * erratic sensors and rolling thru transitional periods
+     * smoothly. A running total keeps it O(1) per sample.
+     */
+    private static class TimedMovingAverage extends TimedRingBuffer {
+
+        private double mTotal = 0.0;
+
+        TimedMovingAverage(int period, int capacity) {
+            super(period, capacity);
+        }
+
+        @Override
+        public float getValue(long time) {
+            expire(time);
+            return mSize == 0 ? 0.0f : (float) (mTotal / mSize);
+        }
+
+        @Override
+        protected void onAdded(float lux) {
+            mTotal += lux;
+        }
+
+        @Override
+        protected void onExpired(float lux) {
+            mTotal -= lux;
+            if (mSize == 1) {
+                // Don't let rounding errors of the running total accumulate
+                mTotal = mValues[mHead];
+            }
+        }
+
+        @Override
+        protected void onCleared() {
+            mTotal = 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return "average=" + (mSize == 0 ? 0.0f : (float) (mTotal / mSize)) +
+                    super.toString();
+        }
+    }
+
+    /**
+     * The median of a fixed duration sliding window, which ignores short spikes such as
+     * shadows and reflections entirely instead of averaging them in.
+     */
+    private static class TimedMedian extends TimedRingBuffer {
+
+        private float[] mSorted;
+
+        TimedMedian(int period, int capacity) {
+            super(period, capacity);
+            mSorted = new float[capacity];
+        }
+
+        @Override
+        public float getValue(long time) {
+            expire(time);
+            if (mSize == 0) {
+                return 0.0f;
+            }
+            for (int i = 0; i < mSize; i++) {
+                mSorted[i] = mValues[(mHead + i) % mValues.length];
+            }
+            Arrays.sort(mSorted, 0, mSize);
+            final int mid = mSize / 2;
+            return (mSize % 2) != 0 ? mSorted[mid] : (mSorted[mid - 1] + mSorted[mid]) / 2.0f;
+        }
+
+        @Override
+        protected void onGrown(int capacity) {
+            mSorted = new float[capacity];
+        }
+
+        @Override
+        public String toString() {
+            return "median" + super.toString();
+        }
+    }
+
+    /**
+     * An exponential moving average in continuous time, which decays towards the newest
+     * reading with a time constant of a third of the period. It reacts to changes right
+     * away, and keeps no history besides its current value.
+     */
+    private static class ExponentialMovingAverage extends AmbientLuxFilter {
+
+        private final float mTimeConstant;
+
+        private boolean mHasValue = false;
+        private float mValue;
+        private float mLatest;
+        private long mTime;
+
+        ExponentialMovingAverage(int period) {
+            mTimeConstant = Math.max(period / 3.0f, 1.0f);
+        }
+
+        @Override
+        public void add(long time, float lux) {
+            if (!mHasValue) {
+                if (lux == 0.0f) {
+                    return;
+                }
+                mValue = lux;
+                mHasValue = true;
+            } else {
+                time = Math.max(time, mTime);
+                mValue = getValue(time);
+            }
+            mLatest = lux;
+            mTime = time;
+        }
+
+        @Override
+        public float getValue(long time) {
+            if (!mHasValue) {
+                return 0.0f;
+            }
+            final double decay = Math.exp(-(time - mTime) / mTimeConstant);
+            return (float) (mLatest + (mValue - mLatest) * decay);
+        }
+
+        @Override
+        public long getDelayUntil(long time, float threshold) {
+            if (!mHasValue) {
+                return -1;
+            }
+            // Solve latest + (value - latest) * e^(-t / tau) = threshold for t
+            final float value = getValue(time);
+            final double ratio = (threshold - mLatest) / (value - mLatest);
+            if (!(ratio > 0.0 && ratio < 1.0)) {
+                return -1;
+            }
+            return Math.max((long) Math.ceil(-mTimeConstant * Math.log(ratio)), 1);
+        }
+
+        @Override
+        public void clear() {
+            mHasValue = false;
+        }
+
+        @Override
+        public String toString() {
+            return "ema=" + mValue + " latest=" + mLatest + " time=" + mTime;
+        }
+    }
+
+    /**
+     * A one dimensional Kalman filter which models the ambient light as constant with
+     * some drift. The noise of the sensor and the drift both scale with the brightness,
+     * since the sensors are roughly logarithmic. While the sensor is quiet, the newest
+     * reading is observed again at the sensor rate until the estimate converges.
+     */
+    private static class Kalman extends AmbientLuxFilter {
+
+        // Relative standard deviation of a single reading
+        private static final float MEASUREMENT_NOISE = 0.2f;
+        // Relative standard deviation of the drift over one period
+        private static final float PROCESS_NOISE = 0.5f;
+        // Relative distance to the newest reading which counts as converged
+        private static final float CONVERGED = 0.01f;
+
+        private final int mPeriod;
+        private final int mInterval;
+
+        private boolean mHasValue = false;
+        private float mEstimate;
+        private float mVariance;
+        private float mLatest;
+        private long mTime;
+
+        Kalman(int period, int sensorRate) {
+            mPeriod = Math.max(period, 1);
+            mInterval = Math.max(sensorRate, 1);
+        }
+
+        @Override
+        public void add(long time, float lux) {
+            if (!mHasValue) {
+                if (lux == 0.0f) {
+                    return;
+                }
+                mEstimate = lux;
+                mVariance = square(MEASUREMENT_NOISE * lux);
+                mHasValue = true;
+            } else {
+                // getValue() may have advanced the filter past a late reading already, and
+                // going back in time would shrink the variance below zero
+                time = Math.max(time, mTime);
+                update(time, lux);
+            }
+            mLatest = lux;
+            mTime = time;
+        }
+
+        @Override
+        public float getValue(long time) {
+            if (mHasValue && time - mTime >= mInterval && !isConverged()) {
+                update(time, mLatest);
+                mTime = time;
+            }
+            return mHasValue ? mEstimate : 0.0f;
+        }
+
+        @Override
+        public long getDelayUntil(long time, float threshold) {
+            if (!mHasValue || isConverged()) {
+                return -1;
+            }
+            return Math.max(mTime + mInterval - time, 1);
+        }
+
+        @Override
+        public void clear() {
+            mHasValue = false;
+        }
+
+        private void update(long time, float lux) {
+            final float scale = Math.max(mEstimate, 1.0f);
+            // Predict: the light may have drifted since the last update
+            mVariance += square(PROCESS_NOISE * scale) * (time - mTime) / mPeriod;
+            // Correct with the reading
+            final float noise = square(MEASUREMENT_NOISE * Math.max(lux, 1.0f));
+            final float gain = mVariance / (mVariance + noise);
+            mEstimate += gain * (lux - mEstimate);
+            mVariance *= (1.0f - gain);
+        }
+
+        private boolean isConverged() {
+            return Math.abs(mEstimate - mLatest) <= CONVERGED * Math.max(mLatest, 1.0f);
+        }
+
+        private static float square(float x) {
+            return x * x;
+        }
+
+        @Override
+        public String toString() {
+            return "kalman=" + mEstimate + " variance=" + mVariance + " latest=" + mLatest +
+                    " time=" + mTime;
+        }
+    }
+}
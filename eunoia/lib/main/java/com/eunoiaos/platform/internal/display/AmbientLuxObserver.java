@@ -23,11 +23,10 @@ import android.hardware.SensorManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.PrintWriter;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 public class AmbientLuxObserver {
 
@@ -39,11 +38,13 @@ public class AmbientLuxObserver {
 
     private final float mThresholdLux;
     private final float mHysteresisLux;
-    private final int mThresholdDuration;
 
     private boolean mLightSensorEnabled = false;
     private int mLightSensorRate;
 
+    // Max time in ms the sensor may hold readings in its FIFO, or 0 to not batch
+    private final int mMaxReportLatency;
+
     private float mAmbientLux = 0.0f;
 
     private static final int LOW = 0;
@@ -55,7 +56,8 @@ public class AmbientLuxObserver {
 
     private TransitionListener mCallback;
 
-    private final TimedMovingAverageRingBuffer mRingBuffer;
+    private final AmbientLuxFilter mFilter;
+    private float mLatestLux = 0.0f;
 
     public interface TransitionListener {
         public void onTransition(int state, float ambientLux);
@@ -66,19 +68,27 @@ public class AmbientLuxObserver {
         mLuxHandler = new AmbientLuxHandler(looper);
         mThresholdLux = thresholdLux;
         mHysteresisLux = hysteresisLux;
-        mThresholdDuration = thresholdDuration;
-        mRingBuffer = new TimedMovingAverageRingBuffer(thresholdDuration);
 
         mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
         mLightSensorRate = context.getResources().getInteger(
                 com.android.internal.R.integer.config_autoBrightnessLightSensorRate);
+
+        mFilter = AmbientLuxFilter.create(context.getResources().getString(
+                com.eunoiaos.platform.internal.R.string.config_ambientLuxFilter),
+                thresholdDuration, mLightSensorRate);
+
+        final int maxReportLatency = context.getResources().getInteger(
+                com.eunoiaos.platform.internal.R.integer.config_ambientLuxMaxReportLatency);
+        mMaxReportLatency = mLightSensor != null && mLightSensor.getFifoMaxEventCount() > 0
+                ? maxReportLatency : 0;
     }
 
     private class AmbientLuxHandler extends Handler {
 
         private static final int MSG_UPDATE_LUX = 0;
         private static final int MSG_TRANSITION = 1;
+        private static final int MSG_BATCH = 2;
 
         AmbientLuxHandler(Looper looper) {
             super(looper);
@@ -88,17 +98,22 @@ public class AmbientLuxObserver {
         public void handleMessage(Message msg) {
             int direction = 0;
             float lux = 0.0f;
+            // The filter runs on the clock of the sensor timestamps, which keeps counting in
+            // suspend
+            final long now = SystemClock.elapsedRealtime();
 
             synchronized (AmbientLuxObserver.this) {
                 switch (msg.what) {
                     case MSG_UPDATE_LUX:
-                        lux = (Float) msg.obj;
-                        mRingBuffer.add(lux);
+                        lux = Float.intBitsToFloat(msg.arg1);
+                        mFilter.add(now, lux);
+                        mLatestLux = lux;
 
                         // FALL THRU
 
+                    case MSG_BATCH:
                     case MSG_TRANSITION:
-                        mAmbientLux = mRingBuffer.getAverage();
+                        mAmbientLux = mFilter.getValue(now);
 
                         if (DEBUG) {
                             Log.d(TAG, "lux= " + lux + " mState=" + mState +
@@ -115,11 +130,18 @@ public class AmbientLuxObserver {
                             }
                         }
 
-                        // check again in case we didn't get any
-                        // more readings because the sensor settled
-                        if (mRingBuffer.size() > 1) {
-                            removeMessages(MSG_TRANSITION);
-                            sendEmptyMessageDelayed(MSG_TRANSITION, mThresholdDuration / 2);
+                        // check again in case we don't get any more readings
+                        // because the sensor settled, but only if the filter
+                        // drifting towards the newest reading can still flip
+                        // the state
+                        removeMessages(MSG_TRANSITION);
+                        final float next = mState == HIGH
+                                ? mThresholdLux - mHysteresisLux : mThresholdLux;
+                        if ((mLatestLux >= next ? HIGH : LOW) != mState) {
+                            final long delay = mFilter.getDelayUntil(now, next);
+                            if (delay >= 0) {
+                                sendEmptyMessageDelayed(MSG_TRANSITION, delay);
+                            }
                         }
                         break;
                 }
@@ -134,9 +156,23 @@ public class AmbientLuxObserver {
     private final SensorEventListener mListener = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent event) {
-            if (mLightSensorEnabled) {
+            if (!mLightSensorEnabled) {
+                return;
+            }
+            if (mMaxReportLatency > 0) {
+                // Batched readings are delivered in bursts on the lux handler. Add each one
+                // at the time it was taken, and evaluate the whole burst once afterwards.
+                synchronized (AmbientLuxObserver.this) {
+                    mFilter.add(event.timestamp / 1000000, event.values[0]);
+                    mLatestLux = event.values[0];
+                }
+                if (!mLuxHandler.hasMessages(AmbientLuxHandler.MSG_BATCH)) {
+                    mLuxHandler.sendEmptyMessage(AmbientLuxHandler.MSG_BATCH);
+                }
+            } else {
+                // Pass the lux value as raw bits to avoid boxing it
                 Message.obtain(mLuxHandler, AmbientLuxHandler.MSG_UPDATE_LUX,
-                               event.values[0]).sendToTarget();
+                               Float.floatToRawIntBits(event.values[0]), 0).sendToTarget();
             }
         }
 
@@ -159,101 +195,26 @@ public class AmbientLuxObserver {
         if (enable && !mLightSensorEnabled) {
             mLightSensorEnabled = true;
             mSensorManager.registerListener(mListener, mLightSensor,
-                    mLightSensorRate * 1000, mLuxHandler);
+                    mLightSensorRate * 1000, mMaxReportLatency * 1000, mLuxHandler);
         } else if (!enable && mLightSensorEnabled) {
             mSensorManager.unregisterListener(mListener);
             mLuxHandler.clear();
             mAmbientLux = 0.0f;
             mState = LOW;
             mLightSensorEnabled = false;
-            mRingBuffer.clear();
+            mLatestLux = 0.0f;
+            mFilter.clear();
         }
     }
 
-    public void dump(PrintWriter pw) {
+    public synchronized void dump(PrintWriter pw) {
         pw.println();
         pw.println("  AmbientLuxObserver State:");
         pw.println("    mLightSensorEnabled=" + mLightSensorEnabled);
+        pw.println("    mMaxReportLatency=" + mMaxReportLatency);
         pw.println("    mState=" + mState);
         pw.println("    mAmbientLux=" + mAmbientLux);
-        pw.println("    mRingBuffer=" + mRingBuffer.toString());
-    }
-
-    /**
-     * Calculates a simple moving average based on a fixed
-     * duration sliding window. This is useful for dampening
-     * erratic sensors and rolling thru transitional periods
-     * smoothly.
-     */
-    private static class TimedMovingAverageRingBuffer {
-
-        private final LinkedList<Sample> mRing = new LinkedList<Sample>();
-
-        private final int mPeriod;
-
-        private float mTotal = 0.0f;
-
-        private static class Sample {
-            public final long mTimestamp;
-            public final float mValue;
-            public Sample (long timestamp, float value) {
-                mTimestamp = timestamp;
-                mValue = value;
-            }
-
-            @Override
-            public String toString() {
-                return "(" + mValue + ", " + mTimestamp + ")";
-            }
-        }
-
-        public TimedMovingAverageRingBuffer(int period) {
-            mPeriod = period;
-        }
-
-        public synchronized void add(float sample) {
-            expire();
-            if (sample == 0.0f && mRing.size() == 0) {
-                return;
-            }
-            mRing.offer(new Sample(System.currentTimeMillis(), sample));
-            mTotal += sample;
-        }
-
-        public synchronized int size() {
-            return mRing.size();
-        }
-
-        public synchronized float getAverage() {
-            expire();
-            return mRing.size() == 0 ? 0.0f : (mTotal / mRing.size());
-        }
-
-        public synchronized void clear() {
-            mRing.clear();
-            mTotal = 0.0f;
-        }
-
-        private void expire() {
-            long now = System.currentTimeMillis();
-            while (mRing.size() > 1 &&
-                    ((now - mRing.peek().mTimestamp) > mPeriod)) {
-                mTotal -= mRing.pop().mValue;
-            }
-        }
-
-        @Override
-        public synchronized String toString() {
-            expire();
-            StringBuilder sb = new StringBuilder();
-            for (Iterator<Sample> i = mRing.iterator(); i.hasNext();) {
-                if (sb.length() > 0) {
-                    sb.append(", ");
-                }
-                sb.append(i.next());
-            }
-            return "average=" + getAverage() + " length=" + mRing.size() +
-                   " mRing=[" + sb.toString() + "]";
-        }
+        pw.println("    mLatestLux=" + mLatestLux);
+        pw.println("    mFilter=" + mFilter.toString());
     }
 }
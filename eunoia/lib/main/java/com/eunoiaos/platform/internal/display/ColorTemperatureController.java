@@ -16,8 +16,6 @@
  */
 package com.eunoiaos.platform.internal.display;
 
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
@@ -25,7 +23,6 @@ import android.text.format.DateUtils;
 import android.util.MathUtils;
 import android.util.Range;
 import android.util.Slog;
-import android.view.animation.AccelerateDecelerateInterpolator;
 
 import com.eunoiaos.platform.internal.display.TwilightTracker.TwilightState;
 
@@ -52,6 +49,13 @@ public class ColorTemperatureController extends LiveDisplayFeature {
     private final Range<Integer> mColorTemperatureRange;
     private final double[] mColorBalanceCurve;
 
+    // Precomputed color balance values or RGB multipliers for the temperature range, one
+    // entry every mTableStep Kelvin, interpolated in between
+    private final int mTableStep;
+    private final float[] mBalanceTable;
+    private final float[] mRGBTable;
+    private final float[] mRGB = new float[3];
+
     private final int mDefaultDayTemperature;
     private final int mDefaultNightTemperature;
 
@@ -59,8 +63,7 @@ public class ColorTemperatureController extends LiveDisplayFeature {
     private int mDayTemperature;
     private int mNightTemperature;
 
-    private AccelerateDecelerateInterpolator mInterpolator;
-    private ValueAnimator mAnimator;
+    private final DisplayAnimator mAnimator;
 
     private final EunoiaHardwareManager mHardware;
 
@@ -72,9 +75,11 @@ public class ColorTemperatureController extends LiveDisplayFeature {
             EunoiaSettings.System.getUriFor(EunoiaSettings.System.DISPLAY_TEMPERATURE_NIGHT);
 
     public ColorTemperatureController(Context context,
-            Handler handler, DisplayHardwareController displayHardware) {
+            Handler handler, DisplayHardwareController displayHardware,
+            DisplayAnimator animator) {
         super(context, handler);
         mDisplayHardware = displayHardware;
+        mAnimator = animator;
         mHardware = EunoiaHardwareManager.getInstance(mContext);
 
         mUseColorBalance = mHardware
@@ -100,7 +105,26 @@ public class ColorTemperatureController extends LiveDisplayFeature {
                 mDefaultDayTemperature,
                 mColorTemperatureRange.getUpper());
 
-        mInterpolator = new AccelerateDecelerateInterpolator();
+        mTableStep = Math.max(1, mContext.getResources().getInteger(
+                com.eunoiaos.platform.internal.R.integer.config_colorTemperatureTableStep));
+        final int entries = mUseTemperatureAdjustment ? getTableSize() : 0;
+        mBalanceTable = new float[mUseColorBalance ? entries : 0];
+        mRGBTable = new float[mUseColorBalance ? 0 : entries * 3];
+        for (int i = 0; i < entries; i++) {
+            final int temperature = Math.min(mColorTemperatureRange.getLower() + i * mTableStep,
+                    mColorTemperatureRange.getUpper());
+            if (mUseColorBalance) {
+                mBalanceTable[i] = computeColorBalance(temperature);
+            } else {
+                ColorUtils.temperatureToRGB(temperature, mRGB);
+                System.arraycopy(mRGB, 0, mRGBTable, i * 3, 3);
+            }
+        }
+    }
+
+    private int getTableSize() {
+        final int range = mColorTemperatureRange.getUpper() - mColorTemperatureRange.getLower();
+        return (range + mTableStep - 1) / mTableStep + 1;
     }
 
     @Override
@@ -135,8 +159,8 @@ public class ColorTemperatureController extends LiveDisplayFeature {
 
     @Override
     protected void onScreenStateChanged() {
-        if (mAnimator != null && mAnimator.isRunning() && !isScreenOn()) {
-            mAnimator.cancel();
+        if (!isScreenOn()) {
+            mAnimator.cancelColorBalance();
         } else {
             updateColorTemperature();
         }
@@ -216,8 +240,12 @@ public class ColorTemperatureController extends LiveDisplayFeature {
      */
     private synchronized void animateColorBalance(int balance) {
 
-        // always start with the current values in the hardware
-        int current = mHardware.getColorBalance();
+        // start where the last transition or write left off, the hardware is only read until
+        // the first one
+        int current = mAnimator.getColorBalance(Integer.MIN_VALUE);
+        if (current == Integer.MIN_VALUE) {
+            current = mHardware.getColorBalance();
+        }
 
         if (current == balance) {
             return;
@@ -231,36 +259,53 @@ public class ColorTemperatureController extends LiveDisplayFeature {
                     " target=" + balance + " duration=" + duration);
         }
 
-        if (mAnimator != null) {
-            mAnimator.cancel();
-            mAnimator.removeAllUpdateListeners();
-        }
-
-        mAnimator = ValueAnimator.ofInt(current, balance);
-        mAnimator.setDuration(duration);
-        mAnimator.setInterpolator(mInterpolator);
-        mAnimator.addUpdateListener(new AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(final ValueAnimator animation) {
-                synchronized (ColorTemperatureController.this) {
-                    if (isScreenOn()) {
-                        int value = (int) animation.getAnimatedValue();
-                        mHardware.setColorBalance(value);
-                    }
-                }
-            }
-        });
-        mAnimator.start();
+        mAnimator.animateColorBalance(current, balance, duration);
     }
 
     /*
      * Map the color temperature to a color balance value using a power curve. This assumes the
      * correct configuration at the device level!
      */
-    private int mapColorTemperatureToBalance(int temperature) {
+    private float computeColorBalance(int temperature) {
         double z = com.eunoiaos.internal.util.MathUtils.powerCurveToLinear(mColorBalanceCurve, temperature);
-        return Math.round(MathUtils.lerp((float)mColorBalanceRange.getLower(),
-                (float)mColorBalanceRange.getUpper(), (float)z));
+        return MathUtils.lerp((float)mColorBalanceRange.getLower(),
+                (float)mColorBalanceRange.getUpper(), (float)z);
+    }
+
+    private int mapColorTemperatureToBalance(int temperature) {
+        final int offset = temperature - mColorTemperatureRange.getLower();
+        final int i = offset / mTableStep;
+        final int rem = offset - i * mTableStep;
+        if (rem == 0) {
+            return Math.round(mBalanceTable[i]);
+        }
+        return Math.round(MathUtils.lerp(mBalanceTable[i], mBalanceTable[i + 1],
+                (float) rem / getTableSpan(i)));
+    }
+
+    /*
+     * Look up the RGB multipliers of the color temperature, without allocating.
+     */
+    private float[] mapColorTemperatureToRGB(int temperature, float[] out) {
+        final int offset = temperature - mColorTemperatureRange.getLower();
+        final int i = offset / mTableStep;
+        final int rem = offset - i * mTableStep;
+        final float a = rem == 0 ? 0.0f : (float) rem / getTableSpan(i);
+        for (int c = 0; c < 3; c++) {
+            final float lower = mRGBTable[i * 3 + c];
+            out[c] = rem == 0 ? lower : MathUtils.lerp(lower, mRGBTable[(i + 1) * 3 + c], a);
+        }
+        return out;
+    }
+
+    /*
+     * The distance in Kelvin between table entry i and the next one, which is shorter than
+     * mTableStep for the last entry if the step does not divide the range.
+     */
+    private int getTableSpan(int i) {
+        return Math.min(mTableStep,
+                mColorTemperatureRange.getUpper() - mColorTemperatureRange.getLower()
+                        - i * mTableStep);
     }
 
     private synchronized void setDisplayTemperature(int temperature) {
@@ -278,7 +323,7 @@ public class ColorTemperatureController extends LiveDisplayFeature {
             return;
         }
 
-        final float[] rgb = ColorUtils.temperatureToRGB(temperature);
+        final float[] rgb = mapColorTemperatureToRGB(temperature, mRGB);
         if (mDisplayHardware.setAdditionalAdjustment(rgb)) {
             if (DEBUG) {
                 Slog.d(TAG, "Adjust display temperature to " + temperature + "K");
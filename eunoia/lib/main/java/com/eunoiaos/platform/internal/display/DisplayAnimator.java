@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eunoiaos.platform.internal.display;
+
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.util.Slog;
+import android.view.Choreographer;
+import android.view.animation.AccelerateDecelerateInterpolator;
+
+/**
+ * Drives the display transitions of all LiveDisplay controllers from one vsync-paced loop
+ * on the LiveDisplay thread. Controllers hand in start and target values, and on every frame
+ * the current value of each running transition is flushed to the hardware through the
+ * {@link DisplayHardwareWriter} once, followed by at most one screen refresh. Nothing is
+ * allocated per frame.
+ */
+public class DisplayAnimator {
+
+    private static final String TAG = "LiveDisplay";
+
+    private static final long NANOS_PER_MS = 1000000;
+
+    private final DisplayHardwareWriter mWriter;
+    private final Handler mHandler;
+
+    private final AccelerateDecelerateInterpolator mBalanceInterpolator =
+            new AccelerateDecelerateInterpolator();
+
+    // All transition state is guarded by mLock, controllers may start them from any thread
+    private final Object mLock = new Object();
+
+    // Display color calibration, linear
+    private final int[] mCalibrationStart = new int[3];
+    private final int[] mCalibrationTarget = new int[3];
+    private long mCalibrationDuration;
+    private long mCalibrationStartTime;
+    private boolean mCalibrationRunning;
+
+    // Color balance, accelerating and decelerating
+    private int mBalanceStart;
+    private int mBalanceTarget;
+    private long mBalanceDuration;
+    private long mBalanceStartTime;
+    private boolean mBalanceRunning;
+
+    private boolean mFrameScheduled;
+
+    // Only used on the LiveDisplay thread
+    private Choreographer mChoreographer;
+    private final int[] mCalibration = new int[3];
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos / NANOS_PER_MS);
+        }
+    };
+
+    public DisplayAnimator(Handler handler, DisplayHardwareWriter writer) {
+        mHandler = handler;
+        mWriter = writer;
+    }
+
+    /**
+     * Move the display color calibration from one value to another. A transition which is
+     * still running is replaced.
+     */
+    void animateColorCalibration(int[] from, int[] to, long duration) {
+        synchronized (mLock) {
+            System.arraycopy(from, 0, mCalibrationStart, 0, 3);
+            System.arraycopy(to, 0, mCalibrationTarget, 0, 3);
+            mCalibrationDuration = duration;
+            mCalibrationStartTime = -1;
+            mCalibrationRunning = true;
+            scheduleFrameLocked();
+        }
+    }
+
+    /**
+     * Move the color balance from one value to another. A transition which is still running
+     * is replaced.
+     */
+    void animateColorBalance(int from, int to, long duration) {
+        synchronized (mLock) {
+            mBalanceStart = from;
+            mBalanceTarget = to;
+            mBalanceDuration = duration;
+            mBalanceStartTime = -1;
+            mBalanceRunning = true;
+            scheduleFrameLocked();
+        }
+    }
+
+    /**
+     * Get the display color calibration the last frame moved to, or the one which was
+     * written last if no transition runs.
+     *
+     * @return false if no calibration was written yet
+     */
+    boolean getColorCalibration(int[] rgb) {
+        return mWriter.getDisplayColorCalibration(rgb);
+    }
+
+    /**
+     * Get the color balance the last frame moved to, or the one which was written last if no
+     * transition runs.
+     *
+     * @return the color balance, or defaultValue if none was written yet
+     */
+    int getColorBalance(int defaultValue) {
+        return mWriter.getColorBalance(defaultValue);
+    }
+
+    /**
+     * Stop the color calibration transition where it is.
+     */
+    void cancelColorCalibration() {
+        synchronized (mLock) {
+            mCalibrationRunning = false;
+        }
+    }
+
+    /**
+     * Stop the color balance transition where it is.
+     */
+    void cancelColorBalance() {
+        synchronized (mLock) {
+            mBalanceRunning = false;
+        }
+    }
+
+    private void scheduleFrameLocked() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mHandler.post(mScheduleFrame);
+        }
+    }
+
+    private void onFrame(long now) {
+        boolean writeCalibration = false;
+        boolean writeBalance = false;
+        int balance = 0;
+
+        synchronized (mLock) {
+            if (mCalibrationRunning) {
+                if (mCalibrationStartTime < 0) {
+                    mCalibrationStartTime = now;
+                }
+                final float t = getFraction(now, mCalibrationStartTime, mCalibrationDuration);
+                for (int i = 0; i < 3; i++) {
+                    mCalibration[i] = mCalibrationStart[i] +
+                            (int) ((mCalibrationTarget[i] - mCalibrationStart[i]) * t);
+                }
+                mCalibrationRunning = t < 1.0f;
+                writeCalibration = true;
+            }
+
+            if (mBalanceRunning) {
+                if (mBalanceStartTime < 0) {
+                    mBalanceStartTime = now;
+                }
+                final float t = getFraction(now, mBalanceStartTime, mBalanceDuration);
+                balance = mBalanceStart + Math.round((mBalanceTarget - mBalanceStart) *
+                        mBalanceInterpolator.getInterpolation(t));
+                mBalanceRunning = t < 1.0f;
+                writeBalance = true;
+            }
+
+            if (mCalibrationRunning || mBalanceRunning) {
+                mChoreographer.postFrameCallback(mFrameCallback);
+            } else {
+                mFrameScheduled = false;
+            }
+        }
+
+        if (writeCalibration) {
+            mWriter.setDisplayColorCalibration(mCalibration);
+        }
+        if (writeBalance) {
+            mWriter.setColorBalance(balance);
+        }
+        if ((writeCalibration || writeBalance) && mWriter.flush()) {
+            screenRefresh();
+        }
+    }
+
+    private static float getFraction(long now, long startTime, long duration) {
+        if (duration <= 0) {
+            return 1.0f;
+        }
+        return Math.min((float) (now - startTime) / duration, 1.0f);
+    }
+
+    /**
+     * Tell SurfaceFlinger to repaint the screen. This is called after updating
+     * hardware registers for display calibration to have an immediate effect.
+     */
+    private void screenRefresh() {
+        try {
+            final IBinder flinger = ServiceManager.getService("SurfaceFlinger");
+            if (flinger != null) {
+                final Parcel data = Parcel.obtain();
+                data.writeInterfaceToken("android.ui.ISurfaceComposer");
+                flinger.transact(1004, data, null, 0);
+                data.recycle();
+            }
+        } catch (RemoteException ex) {
+            Slog.e(TAG, "Failed to refresh screen", ex);
+        }
+    }
+}
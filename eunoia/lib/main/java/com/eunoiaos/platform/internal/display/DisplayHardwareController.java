@@ -16,19 +16,11 @@
  */
 package com.eunoiaos.platform.internal.display;
 
-import android.animation.FloatArrayEvaluator;
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.IBinder;
-import android.os.Parcel;
-import android.os.RemoteException;
-import android.os.ServiceManager;
 import android.util.MathUtils;
 import android.util.Slog;
-import android.view.animation.LinearInterpolator;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -62,7 +54,8 @@ public class DisplayHardwareController extends LiveDisplayFeature {
     private final float[] mAdditionalAdjustment = getDefaultAdjustment();
     private final float[] mColorAdjustment = getDefaultAdjustment();
 
-    private ValueAnimator mAnimator;
+    private final DisplayHardwareWriter mWriter;
+    private final DisplayAnimator mAnimator;
 
     private final int mMaxColor;
 
@@ -80,8 +73,11 @@ public class DisplayHardwareController extends LiveDisplayFeature {
     private static final Uri DISPLAY_ANTI_FLICKER =
             EunoiaSettings.System.getUriFor(EunoiaSettings.System.DISPLAY_ANTI_FLICKER);
 
-    public DisplayHardwareController(Context context, Handler handler) {
+    public DisplayHardwareController(Context context, Handler handler,
+            DisplayHardwareWriter writer, DisplayAnimator animator) {
         super(context, handler);
+        mWriter = writer;
+        mAnimator = animator;
 
         mHardware = EunoiaHardwareManager.getInstance(mContext);
         mUseCABC = mHardware
@@ -215,9 +211,9 @@ public class DisplayHardwareController extends LiveDisplayFeature {
     @Override
     protected synchronized void onScreenStateChanged() {
         if (mUseColorAdjustment) {
-            if (mAnimator != null && mAnimator.isRunning() && !isScreenOn()) {
-                mAnimator.cancel();
-            } else if (isScreenOn()) {
+            if (!isScreenOn()) {
+                mAnimator.cancelColorCalibration();
+            } else {
                 updateColorAdjustment();
             }
         }
@@ -251,7 +247,7 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         if (!mUseAutoContrast) {
             return;
         }
-        mHardware.set(EunoiaHardwareManager.FEATURE_AUTO_CONTRAST, isAutoContrastEnabled());
+        mWriter.set(EunoiaHardwareManager.FEATURE_AUTO_CONTRAST, isAutoContrastEnabled());
     }
 
     /**
@@ -261,7 +257,7 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         if (!mUseColorEnhancement) {
             return;
         }
-        mHardware.set(EunoiaHardwareManager.FEATURE_COLOR_ENHANCEMENT,
+        mWriter.set(EunoiaHardwareManager.FEATURE_COLOR_ENHANCEMENT,
                 (!isLowPowerMode() || mDefaultColorEnhancement) && isColorEnhancementEnabled());
     }
 
@@ -272,7 +268,7 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         if (!mUseCABC) {
             return;
         }
-        mHardware.set(EunoiaHardwareManager.FEATURE_ADAPTIVE_BACKLIGHT, isCABCEnabled());
+        mWriter.set(EunoiaHardwareManager.FEATURE_ADAPTIVE_BACKLIGHT, isCABCEnabled());
     }
 
     private synchronized void updateColorAdjustment() {
@@ -303,7 +299,7 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         if (!mUseAntiFlicker) {
             return;
         }
-        mHardware.set(EunoiaHardwareManager.FEATURE_ANTI_FLICKER, isAntiFlickerEnabled());
+        mWriter.set(EunoiaHardwareManager.FEATURE_ANTI_FLICKER, isAntiFlickerEnabled());
     }
 
     /**
@@ -311,8 +307,12 @@ public class DisplayHardwareController extends LiveDisplayFeature {
      */
     private synchronized void animateDisplayColor(float[] targetColors) {
 
-        // always start with the current values in the hardware
-        int[] currentInts = mHardware.getDisplayColorCalibration();
+        // start where the last transition or write left off, the hardware is only read until
+        // the first one
+        int[] currentInts = new int[3];
+        if (!mAnimator.getColorCalibration(currentInts)) {
+            currentInts = mHardware.getDisplayColorCalibration();
+        }
         float[] currentColors = new float[] {
                 (float)currentInts[0] / (float)mMaxColor,
                 (float)currentInts[1] / (float)mMaxColor,
@@ -335,50 +335,10 @@ public class DisplayHardwareController extends LiveDisplayFeature {
                     " targetColors=" + Arrays.toString(targetColors) + " duration=" + duration);
         }
 
-        if (mAnimator != null) {
-            mAnimator.cancel();
-            mAnimator.removeAllUpdateListeners();
-        }
-
-        mAnimator = ValueAnimator.ofObject(
-                new FloatArrayEvaluator(new float[3]), currentColors, targetColors);
-        mAnimator.setDuration(duration);
-        mAnimator.setInterpolator(new LinearInterpolator());
-        mAnimator.addUpdateListener(new AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(final ValueAnimator animation) {
-                synchronized (DisplayHardwareController.this) {
-                    if (isScreenOn()) {
-                        float[] value = (float[]) animation.getAnimatedValue();
-                        mHardware.setDisplayColorCalibration(new int[] {
-                                (int) (value[0] * mMaxColor),
-                                (int) (value[1] * mMaxColor),
-                                (int) (value[2] * mMaxColor)
-                        });
-                        screenRefresh();
-                    }
-                }
-            }
-        });
-        mAnimator.start();
-    }
-
-    /**
-     * Tell SurfaceFlinger to repaint the screen. This is called after updating
-     * hardware registers for display calibration to have an immediate effect.
-     */
-    private void screenRefresh() {
-        try {
-            final IBinder flinger = ServiceManager.getService("SurfaceFlinger");
-            if (flinger != null) {
-                final Parcel data = Parcel.obtain();
-                data.writeInterfaceToken("android.ui.ISurfaceComposer");
-                flinger.transact(1004, data, null, 0);
-                data.recycle();
-            }
-        } catch (RemoteException ex) {
-            Slog.e(TAG, "Failed to refresh screen", ex);
-        }
+        mAnimator.animateColorCalibration(currentInts, new int[] {
+                (int) (targetColors[0] * mMaxColor),
+                (int) (targetColors[1] * mMaxColor),
+                (int) (targetColors[2] * mMaxColor) }, duration);
     }
 
     /**
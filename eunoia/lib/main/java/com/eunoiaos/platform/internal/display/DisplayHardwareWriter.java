@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eunoiaos.platform.internal.display;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Slog;
+
+import eunoiaos.hardware.EunoiaHardwareManager;
+import eunoiaos.hardware.HSIC;
+
+/**
+ * Coalesces the display hardware writes of the LiveDisplay controllers. Only the newest
+ * pending value of every feature is kept, and the pending values are flushed on the
+ * LiveDisplay thread at a bounded rate. Values which match what was last applied to the
+ * hardware are not written again.
+ */
+public class DisplayHardwareWriter {
+
+    private static final String TAG = "LiveDisplay";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    // Don't flush more than about 30 times per second
+    private static final long MIN_FLUSH_INTERVAL_MS = 33;
+
+    private final EunoiaHardwareManager mHardware;
+    private final Handler mHandler;
+
+    // Pending writes are guarded by mLock, controllers may queue them from any thread
+    private final Object mLock = new Object();
+
+    private int mPendingFeatures;
+    private int mPendingValues;
+    private boolean mCalibrationPending;
+    private final int[] mPendingCalibration = new int[3];
+    private boolean mBalancePending;
+    private int mPendingBalance;
+
+    // Whether mPendingCalibration and mPendingBalance were ever set, they are kept after a flush
+    private boolean mCalibrationRequested;
+    private boolean mBalanceRequested;
+    private HSIC mPendingPictureAdjustment;
+
+    private boolean mFlushScheduled;
+    private long mLastFlushTime;
+
+    // What was last applied to the hardware, only used on the LiveDisplay thread
+    private int mAppliedFeatures;
+    private int mAppliedValues;
+    private boolean mCalibrationApplied;
+    private final int[] mAppliedCalibration = new int[3];
+    private final int[] mCalibration = new int[3];
+    private boolean mBalanceApplied;
+    private int mAppliedBalance;
+    private HSIC mAppliedPictureAdjustment;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public DisplayHardwareWriter(Context context, Handler handler) {
+        mHardware = EunoiaHardwareManager.getInstance(context);
+        mHandler = handler;
+    }
+
+    /**
+     * Enable or disable a boolean feature, see {@link EunoiaHardwareManager#set}.
+     */
+    void set(int feature, boolean enable) {
+        synchronized (mLock) {
+            mPendingFeatures |= feature;
+            if (enable) {
+                mPendingValues |= feature;
+            } else {
+                mPendingValues &= ~feature;
+            }
+            scheduleFlushLocked();
+        }
+    }
+
+    void setDisplayColorCalibration(int[] rgb) {
+        synchronized (mLock) {
+            System.arraycopy(rgb, 0, mPendingCalibration, 0, 3);
+            mCalibrationPending = true;
+            mCalibrationRequested = true;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Get the display color calibration which was last requested, whether or not it was
+     * flushed yet. While the animator runs, this is its current value.
+     *
+     * @return false if no calibration was requested yet
+     */
+    boolean getDisplayColorCalibration(int[] rgb) {
+        synchronized (mLock) {
+            if (mCalibrationRequested) {
+                System.arraycopy(mPendingCalibration, 0, rgb, 0, 3);
+            }
+            return mCalibrationRequested;
+        }
+    }
+
+    void setColorBalance(int value) {
+        synchronized (mLock) {
+            mPendingBalance = value;
+            mBalancePending = true;
+            mBalanceRequested = true;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Get the color balance which was last requested, whether or not it was flushed yet.
+     * While the animator runs, this is its current value.
+     *
+     * @return the color balance, or defaultValue if none was requested yet
+     */
+    int getColorBalance(int defaultValue) {
+        synchronized (mLock) {
+            return mBalanceRequested ? mPendingBalance : defaultValue;
+        }
+    }
+
+    void setPictureAdjustment(HSIC hsic) {
+        synchronized (mLock) {
+            mPendingPictureAdjustment = hsic;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Forget what was applied to the hardware, so every feature is written again on its
+     * next change. Used when the display changes state, since the hardware may reset then.
+     * Only called on the LiveDisplay thread.
+     */
+    void invalidate() {
+        mAppliedFeatures = 0;
+        mCalibrationApplied = false;
+        mBalanceApplied = false;
+        mAppliedPictureAdjustment = null;
+    }
+
+    private void scheduleFlushLocked() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            final long delay = mLastFlushTime + MIN_FLUSH_INTERVAL_MS
+                    - SystemClock.uptimeMillis();
+            mHandler.postDelayed(mFlushRunnable, Math.max(delay, 0));
+        }
+    }
+
+    /**
+     * Write all pending values to the hardware right away. This is used by callers which
+     * are paced already, like the display animator. Only called on the LiveDisplay thread.
+     *
+     * @return true if the display color calibration was written, which needs a screen
+     * refresh to take effect
+     */
+    boolean flush() {
+        final int features;
+        final int values;
+        final boolean calibration;
+        final boolean balancePending;
+        final int balance;
+        final HSIC pictureAdjustment;
+
+        synchronized (mLock) {
+            features = mPendingFeatures;
+            values = mPendingValues;
+            calibration = mCalibrationPending;
+            if (calibration) {
+                System.arraycopy(mPendingCalibration, 0, mCalibration, 0, 3);
+            }
+            balancePending = mBalancePending;
+            balance = mPendingBalance;
+            pictureAdjustment = mPendingPictureAdjustment;
+
+            mPendingFeatures = 0;
+            mCalibrationPending = false;
+            mBalancePending = false;
+            mPendingPictureAdjustment = null;
+
+            if (mFlushScheduled) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mFlushScheduled = false;
+            }
+            mLastFlushTime = SystemClock.uptimeMillis();
+        }
+
+        final int unchanged = mAppliedFeatures & ~(values ^ mAppliedValues);
+        final int changed = features & ~unchanged;
+        if (changed != 0) {
+            final int written = mHardware.setAll(changed, values);
+            mAppliedFeatures = (mAppliedFeatures & ~changed) | written;
+            mAppliedValues = (mAppliedValues & ~changed) | (values & written);
+            if (DEBUG) {
+                Slog.d(TAG, "flush features=" + Integer.toHexString(changed) +
+                        " values=" + Integer.toHexString(values & changed) +
+                        " written=" + Integer.toHexString(written));
+            }
+        }
+
+        boolean calibrationWritten = false;
+        if (calibration && !(mCalibrationApplied &&
+                mCalibration[0] == mAppliedCalibration[0] &&
+                mCalibration[1] == mAppliedCalibration[1] &&
+                mCalibration[2] == mAppliedCalibration[2])) {
+            mCalibrationApplied = mHardware.setDisplayColorCalibration(mCalibration);
+            System.arraycopy(mCalibration, 0, mAppliedCalibration, 0, 3);
+            calibrationWritten = true;
+        }
+
+        if (balancePending && !(mBalanceApplied && balance == mAppliedBalance)) {
+            mBalanceApplied = mHardware.setColorBalance(balance);
+            mAppliedBalance = balance;
+        }
+
+        if (pictureAdjustment != null &&
+                !isSamePictureAdjustment(pictureAdjustment, mAppliedPictureAdjustment)) {
+            if (mHardware.setPictureAdjustment(pictureAdjustment)) {
+                mAppliedPictureAdjustment = pictureAdjustment;
+            } else {
+                mAppliedPictureAdjustment = null;
+                Slog.e(TAG, "Failed to set picture adjustment! " + pictureAdjustment.toString());
+            }
+        }
+
+        return calibrationWritten;
+    }
+
+    private static boolean isSamePictureAdjustment(HSIC a, HSIC b) {
+        return b != null &&
+                a.getHue() == b.getHue() &&
+                a.getSaturation() == b.getSaturation() &&
+                a.getIntensity() == b.getIntensity() &&
+                a.getContrast() == b.getContrast() &&
+                a.getSaturationThreshold() == b.getSaturationThreshold();
+    }
+}
@@ -90,6 +90,8 @@ public class LiveDisplayService extends EunoiaSystemService {
     private OutdoorModeController mOMC;
     private PictureAdjustmentController mPAC;
 
+    private DisplayHardwareWriter mWriter;
+
     private LiveDisplayConfig mConfig;
 
     static int MODE_CHANGED = 1;
@@ -152,16 +154,19 @@ public class LiveDisplayService extends EunoiaSystemService {
 
             mAwaitingNudge = getSunsetCounter() < 1;
 
-            mDHC = new DisplayHardwareController(mContext, mHandler);
+            mWriter = new DisplayHardwareWriter(mContext, mHandler);
+            final DisplayAnimator animator = new DisplayAnimator(mHandler, mWriter);
+
+            mDHC = new DisplayHardwareController(mContext, mHandler, mWriter, animator);
             mFeatures.add(mDHC);
 
-            mCTC = new ColorTemperatureController(mContext, mHandler, mDHC);
+            mCTC = new ColorTemperatureController(mContext, mHandler, mDHC, animator);
             mFeatures.add(mCTC);
 
-            mOMC = new OutdoorModeController(mContext, mHandler);
+            mOMC = new OutdoorModeController(mContext, mHandler, mWriter);
             mFeatures.add(mOMC);
 
-            mPAC = new PictureAdjustmentController(mContext, mHandler);
+            mPAC = new PictureAdjustmentController(mContext, mHandler, mWriter);
             mFeatures.add(mPAC);
 
             // Get capabilities, throw out any unused features
@@ -224,6 +229,10 @@ public class LiveDisplayService extends EunoiaSystemService {
         mHandler.post(new Runnable() {
             @Override
             public void run() {
+                if ((flags & DISPLAY_CHANGED) != 0 && mWriter != null) {
+                    // The hardware may have reset its state along with the display
+                    mWriter.invalidate();
+                }
                 for (int i = 0; i < mFeatures.size(); i++) {
                     mFeatures.get(i).update(flags, mState);
                 }
@@ -34,6 +34,7 @@ import eunoiaos.providers.EunoiaSettings;
 public class OutdoorModeController extends LiveDisplayFeature {
 
     private final EunoiaHardwareManager mHardware;
+    private final DisplayHardwareWriter mWriter;
     private AmbientLuxObserver mLuxObserver;
 
     // hardware capabilities
@@ -51,8 +52,10 @@ public class OutdoorModeController extends LiveDisplayFeature {
     // sliding window for sensor event smoothing
     private static final int SENSOR_WINDOW_MS = 3000;
 
-    public OutdoorModeController(Context context, Handler handler) {
+    public OutdoorModeController(Context context, Handler handler,
+            DisplayHardwareWriter writer) {
         super(context, handler);
+        mWriter = writer;
 
         mHardware = EunoiaHardwareManager.getInstance(mContext);
         mUseOutdoorMode = mHardware.isSupported(EunoiaHardwareManager.FEATURE_SUNLIGHT_ENHANCEMENT);
@@ -110,7 +113,7 @@ public class OutdoorModeController extends LiveDisplayFeature {
         // face if they turn it back on in normal conditions
         if (!isScreenOn() && getMode() != MODE_OUTDOOR) {
             mIsOutdoor = false;
-            mHardware.set(EunoiaHardwareManager.FEATURE_SUNLIGHT_ENHANCEMENT, false);
+            mWriter.set(EunoiaHardwareManager.FEATURE_SUNLIGHT_ENHANCEMENT, false);
         }
     }
 
@@ -208,7 +211,7 @@ public class OutdoorModeController extends LiveDisplayFeature {
                     }
                 }
             }
-            mHardware.set(EunoiaHardwareManager.FEATURE_SUNLIGHT_ENHANCEMENT, enabled);
+            mWriter.set(EunoiaHardwareManager.FEATURE_SUNLIGHT_ENHANCEMENT, enabled);
         }
     }
 
@@ -20,7 +20,6 @@ import android.net.Uri;
 import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Range;
-import android.util.Slog;
 import android.util.SparseArray;
 
 import java.io.PrintWriter;
@@ -39,13 +38,16 @@ public class PictureAdjustmentController extends LiveDisplayFeature {
     private static final String TAG = "LiveDisplay-PAC";
 
     private final EunoiaHardwareManager mHardware;
+    private final DisplayHardwareWriter mWriter;
     private final boolean mUsePictureAdjustment;
     private final boolean mHasDisplayModes;
 
     private List<Range<Float>> mRanges = new ArrayList<Range<Float>>();
 
-    public PictureAdjustmentController(Context context, Handler handler) {
+    public PictureAdjustmentController(Context context, Handler handler,
+            DisplayHardwareWriter writer) {
         super(context, handler);
+        mWriter = writer;
         mHardware = EunoiaHardwareManager.getInstance(context);
         mHasDisplayModes = mHardware.isSupported(EunoiaHardwareManager.FEATURE_DISPLAY_MODES);
 
@@ -96,9 +98,7 @@ public class PictureAdjustmentController extends LiveDisplayFeature {
         if (mUsePictureAdjustment && isScreenOn()) {
             final HSIC hsic = getPictureAdjustment();
             if (hsic != null) {
-                if (!mHardware.setPictureAdjustment(hsic)) {
-                    Slog.e(TAG, "Failed to set picture adjustment! " + hsic.toString());
-                }
+                mWriter.setPictureAdjustment(hsic);
             }
         }
     }
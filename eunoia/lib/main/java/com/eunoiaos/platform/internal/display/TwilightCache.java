@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eunoiaos.platform.internal.display;
+
+import android.os.Handler;
+import android.util.LongSparseArray;
+
+/**
+ * Caches the sunrise and sunset times of days, as returned by
+ * {@link TwilightCalculator#getSolarDay}, for a grid cell of latitude and longitude. The
+ * twilight is computed for the center of the cell, which moves it by well under a minute.
+ * The days ahead are precomputed in the background, so looking them up later is cheap.
+ * Moving to another cell drops the cache.
+ */
+public final class TwilightCache {
+
+    // About 11 km, half the distance location updates are requested for
+    private static final double GRID_DEGREES = 0.1;
+
+    // Days to precompute, starting with yesterday
+    private static final int PRECOMPUTE_DAYS = 9;
+
+    private final Object mLock = new Object();
+
+    private final Handler mBackgroundHandler;
+
+    // Scratch space for computing days in a batch, guarded by mLock
+    private final long[] mTimes = new long[PRECOMPUTE_DAYS];
+    private final long[] mSunrise = new long[PRECOMPUTE_DAYS];
+    private final long[] mSunset = new long[PRECOMPUTE_DAYS];
+    private final int[] mState = new int[PRECOMPUTE_DAYS];
+    private final long[] mTime = new long[1];
+
+    private long mLatitudeCell = Long.MIN_VALUE;
+    private long mLongitudeCell = Long.MIN_VALUE;
+    private final LongSparseArray<Day> mDays = new LongSparseArray<Day>();
+
+    /**
+     * The twilight of a single day.
+     */
+    public static final class Day {
+        /** Time of sunrise in milliseconds, or -1 if the day or night never ends */
+        public final long mSunrise;
+        /** Time of sunset in milliseconds, or -1 if the day or night never ends */
+        public final long mSunset;
+        /** Whether it is night all day, if the day or night never ends */
+        public final boolean mPolarNight;
+
+        Day(long sunrise, long sunset, boolean polarNight) {
+            mSunrise = sunrise;
+            mSunset = sunset;
+            mPolarNight = polarNight;
+        }
+
+        /**
+         * Determines whether it is night at a time within this day.
+         */
+        public boolean isNight(long time) {
+            if (mSunrise == -1 || mSunset == -1) {
+                return mPolarNight;
+            }
+            return !(mSunrise < time && mSunset > time);
+        }
+    }
+
+    /**
+     * @param backgroundHandler handler of the thread to precompute days on
+     */
+    public TwilightCache(Handler backgroundHandler) {
+        mBackgroundHandler = backgroundHandler;
+    }
+
+    /**
+     * Gets the twilight of a day at a location, computing it now if it isn't cached.
+     */
+    public Day get(long day, double latitude, double longitude) {
+        synchronized (mLock) {
+            return getLocked(day, latitude, longitude);
+        }
+    }
+
+    /**
+     * Precomputes the twilight of the days around the given one in the background, and drops
+     * the days before yesterday.
+     */
+    public void precompute(final long day, final double latitude, final double longitude) {
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    selectCellLocked(latitude, longitude);
+                    for (int i = 0; i < PRECOMPUTE_DAYS; i++) {
+                        mTimes[i] = TwilightCalculator.getSolarTransit(day - 1 + i,
+                                mLongitudeCell * GRID_DEGREES);
+                    }
+                    TwilightCalculator.calculateTwilight(mTimes, mLatitudeCell * GRID_DEGREES,
+                            mLongitudeCell * GRID_DEGREES, mSunrise, mSunset, mState);
+                    for (int i = 0; i < PRECOMPUTE_DAYS; i++) {
+                        if (mDays.get(day - 1 + i) == null) {
+                            mDays.put(day - 1 + i, new Day(mSunrise[i], mSunset[i],
+                                    mState[i] == TwilightCalculator.NIGHT));
+                        }
+                    }
+                    while (mDays.size() > 0 && mDays.keyAt(0) < day - 1) {
+                        mDays.removeAt(0);
+                    }
+                }
+            }
+        });
+    }
+
+    private Day getLocked(long day, double latitude, double longitude) {
+        selectCellLocked(latitude, longitude);
+
+        Day twilight = mDays.get(day);
+        if (twilight == null) {
+            mTime[0] = TwilightCalculator.getSolarTransit(day, mLongitudeCell * GRID_DEGREES);
+            TwilightCalculator.calculateTwilight(mTime, mLatitudeCell * GRID_DEGREES,
+                    mLongitudeCell * GRID_DEGREES, mSunrise, mSunset, mState);
+            twilight = new Day(mSunrise[0], mSunset[0],
+                    mState[0] == TwilightCalculator.NIGHT);
+            mDays.put(day, twilight);
+        }
+        return twilight;
+    }
+
+    private void selectCellLocked(double latitude, double longitude) {
+        final long latitudeCell = Math.round(latitude / GRID_DEGREES);
+        final long longitudeCell = Math.round(longitude / GRID_DEGREES);
+        if (latitudeCell != mLatitudeCell || longitudeCell != mLongitudeCell) {
+            mLatitudeCell = latitudeCell;
+            mLongitudeCell = longitudeCell;
+            mDays.clear();
+        }
+    }
+}
@@ -31,17 +31,24 @@ public class TwilightCalculator {
     private static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180.0f);
 
     // element for calculating solar transit.
-    private static final float J0 = 0.0009f;
+    private static final double J0_D = 0.0009;
+    private static final float J0 = (float) J0_D;
 
     // correction for civil twilight
-    private static final float ALTIDUTE_CORRECTION_CIVIL_TWILIGHT = -0.104719755f;
+    private static final double ALTIDUTE_CORRECTION_CIVIL_TWILIGHT_D = -0.104719755;
+    private static final float ALTIDUTE_CORRECTION_CIVIL_TWILIGHT =
+            (float) ALTIDUTE_CORRECTION_CIVIL_TWILIGHT_D;
 
     // coefficients for calculating Equation of Center.
-    private static final float C1 = 0.0334196f;
-    private static final float C2 = 0.000349066f;
-    private static final float C3 = 0.000005236f;
+    private static final double C1_D = 0.0334196;
+    private static final double C2_D = 0.000349066;
+    private static final double C3_D = 0.000005236;
+    private static final float C1 = (float) C1_D;
+    private static final float C2 = (float) C2_D;
+    private static final float C3 = (float) C3_D;
 
-    private static final float OBLIQUITY = 0.40927971f;
+    private static final double OBLIQUITY_D = 0.40927971;
+    private static final float OBLIQUITY = (float) OBLIQUITY_D;
 
     // Java time on Jan 1, 2000 12:00 UTC.
     private static final long UTC_2000 = 946728000000L;
@@ -61,6 +68,30 @@ public class TwilightCalculator {
     /** Current state */
     public int mState;
 
+    /**
+     * Determines the day, counted in days since 2000, of the solar transit nearest to the
+     * given time at the given longitude. This is the day {@link #calculateTwilight} computes
+     * the sunrise and sunset of.
+     *
+     * @param time time in milliseconds.
+     * @param longitude longitude in degrees.
+     */
+    public static long getSolarDay(long time, double longitude) {
+        final float daysSince2000 = (float) (time - UTC_2000) / DateUtils.DAY_IN_MILLIS;
+        return Math.round(daysSince2000 - J0 + longitude / 360);
+    }
+
+    /**
+     * Determines the time of the solar transit of a day as returned by {@link #getSolarDay}.
+     * Computing the twilight at this time yields the sunrise and sunset of that day.
+     *
+     * @param day day in days since 2000.
+     * @param longitude longitude in degrees.
+     */
+    public static long getSolarTransit(long day, double longitude) {
+        return UTC_2000 + Math.round((day + J0_D - longitude / 360) * DateUtils.DAY_IN_MILLIS);
+    }
+
     /**
      * calculates the civil twilight bases on time and geo-coordinates.
      *
@@ -120,4 +151,94 @@ public class TwilightCalculator {
         }
     }
 
+    /**
+     * calculates the civil twilight for several times at once, in double precision. Unlike
+     * {@link #calculateTwilight(long, double, double)} this keeps no state, so it is safe
+     * to call from any thread, and it doesn't allocate.
+     *
+     * @param times times in milliseconds.
+     * @param latitude latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param outSunrise receives the time of sunrise (civil twilight) in milliseconds for
+     *     every time, or -1 in the case the day or night never ends.
+     * @param outSunset receives the time of sunset (civil twilight) in milliseconds for
+     *     every time, or -1 in the case the day or night never ends.
+     */
+    public static void calculateTwilight(long[] times, double latitude, double longitude,
+            long[] outSunrise, long[] outSunset) {
+        calculateTwilight(times, latitude, longitude, outSunrise, outSunset, null);
+    }
+
+    /**
+     * calculates the civil twilight for several times at once, see
+     * {@link #calculateTwilight(long[], double, double, long[], long[])}.
+     *
+     * @param outState receives {@link #DAY} or {@link #NIGHT} for every time, or null.
+     */
+    public static void calculateTwilight(long[] times, double latitude, double longitude,
+            long[] outSunrise, long[] outSunset, int[] outState) {
+        final int count = times.length;
+        if (outSunrise.length < count || outSunset.length < count
+                || (outState != null && outState.length < count)) {
+            throw new IllegalArgumentException("Output arrays are shorter than times");
+        }
+
+        // everything which only depends on the location is computed once
+        final double arcLongitude = -longitude / 360;
+        final double latRad = Math.toRadians(latitude);
+        final double sinLat = Math.sin(latRad);
+        final double cosLat = Math.cos(latRad);
+        final double sinAltitude = Math.sin(ALTIDUTE_CORRECTION_CIVIL_TWILIGHT_D);
+        final double sinObliquity = Math.sin(OBLIQUITY_D);
+
+        for (int i = 0; i < count; i++) {
+            final long time = times[i];
+            final double daysSince2000 = (double) (time - UTC_2000) / DateUtils.DAY_IN_MILLIS;
+
+            // mean anomaly
+            final double meanAnomaly = 6.240059968 + daysSince2000 * 0.01720197;
+
+            // true anomaly
+            final double trueAnomaly = meanAnomaly + C1_D * Math.sin(meanAnomaly)
+                    + C2_D * Math.sin(2 * meanAnomaly) + C3_D * Math.sin(3 * meanAnomaly);
+
+            // ecliptic longitude
+            final double solarLng = trueAnomaly + 1.796593063 + Math.PI;
+
+            // solar transit in days since 2000
+            final double n = Math.round(daysSince2000 - J0_D - arcLongitude);
+            final double solarTransitJ2000 = n + J0_D + arcLongitude
+                    + 0.0053 * Math.sin(meanAnomaly) - 0.0069 * Math.sin(2 * solarLng);
+
+            // declination of sun, cos(asin(x)) is sqrt(1 - x^2)
+            final double sinDec = Math.sin(solarLng) * sinObliquity;
+            final double cosDec = Math.sqrt(1 - sinDec * sinDec);
+
+            final double cosHourAngle = (sinAltitude - sinLat * sinDec) / (cosLat * cosDec);
+
+            long sunrise = -1;
+            long sunset = -1;
+            int state;
+            // The day or night never ends for the given date and location, if this value is
+            // out of range.
+            if (cosHourAngle >= 1) {
+                state = NIGHT;
+            } else if (cosHourAngle <= -1) {
+                state = DAY;
+            } else {
+                final double hourAngle = Math.acos(cosHourAngle) / (2 * Math.PI);
+                sunset = Math.round((solarTransitJ2000 + hourAngle) * DateUtils.DAY_IN_MILLIS)
+                        + UTC_2000;
+                sunrise = Math.round((solarTransitJ2000 - hourAngle) * DateUtils.DAY_IN_MILLIS)
+                        + UTC_2000;
+                state = sunrise < time && sunset > time ? DAY : NIGHT;
+            }
+
+            outSunrise[i] = sunrise;
+            outSunset[i] = sunset;
+            if (outState != null) {
+                outState[i] = state;
+            }
+        }
+    }
 }
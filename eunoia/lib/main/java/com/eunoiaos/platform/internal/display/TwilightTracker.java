@@ -35,6 +35,8 @@ import android.text.format.DateUtils;
 import android.text.format.Time;
 import android.util.Slog;
 
+import com.android.internal.os.BackgroundThread;
+
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -172,7 +174,9 @@ public final class TwilightTracker {
         private long mLastNetworkRegisterTime = -MIN_LOCATION_UPDATE_MS;
         private long mLastUpdateInterval;
         private Location mLocation;
-        private final TwilightCalculator mTwilightCalculator = new TwilightCalculator();
+        private final TwilightCache mTwilightCache =
+                new TwilightCache(BackgroundThread.getHandler());
+        private long mNextUpdate;
 
         public void processNewLocation(Location location) {
             Message msg = obtainMessage(MSG_PROCESS_NEW_LOCATION, location);
@@ -352,23 +356,22 @@ public final class TwilightTracker {
             }
 
             final long now = System.currentTimeMillis();
-
-            // calculate yesterday's twilight
-            mTwilightCalculator.calculateTwilight(now - DateUtils.DAY_IN_MILLIS,
-                    mLocation.getLatitude(), mLocation.getLongitude());
-            final long yesterdaySunset = mTwilightCalculator.mSunset;
-
-            // calculate today's twilight
-            mTwilightCalculator.calculateTwilight(now,
-                    mLocation.getLatitude(), mLocation.getLongitude());
-            final boolean isNight = (mTwilightCalculator.mState == TwilightCalculator.NIGHT);
-            final long todaySunrise = mTwilightCalculator.mSunrise;
-            final long todaySunset = mTwilightCalculator.mSunset;
-
-            // calculate tomorrow's twilight
-            mTwilightCalculator.calculateTwilight(now + DateUtils.DAY_IN_MILLIS,
-                    mLocation.getLatitude(), mLocation.getLongitude());
-            final long tomorrowSunrise = mTwilightCalculator.mSunrise;
+            final double latitude = mLocation.getLatitude();
+            final double longitude = mLocation.getLongitude();
+            final long today = TwilightCalculator.getSolarDay(now, longitude);
+
+            // look up the twilight of yesterday, today and tomorrow
+            final long yesterdaySunset =
+                    mTwilightCache.get(today - 1, latitude, longitude).mSunset;
+            final TwilightCache.Day todayTwilight = mTwilightCache.get(today, latitude, longitude);
+            final boolean isNight = todayTwilight.isNight(now);
+            final long todaySunrise = todayTwilight.mSunrise;
+            final long todaySunset = todayTwilight.mSunset;
+            final long tomorrowSunrise =
+                    mTwilightCache.get(today + 1, latitude, longitude).mSunrise;
+
+            // have the coming days ready by the next update
+            mTwilightCache.precompute(today, latitude, longitude);
 
             // set twilight state
             TwilightState state = new TwilightState(isNight, yesterdaySunset,
@@ -400,6 +403,12 @@ public final class TwilightTracker {
                 Slog.d(TAG, "Next update in " + (nextUpdate - now) + " ms");
             }
 
+            // the alarm is still set if the update is unchanged and in the future
+            if (nextUpdate == mNextUpdate && nextUpdate > now) {
+                return;
+            }
+            mNextUpdate = nextUpdate;
+
             Intent updateIntent = new Intent(ACTION_UPDATE_TWILIGHT_STATE);
             PendingIntent pendingIntent = PendingIntent.getBroadcast(
                     mContext, 0, updateIntent, PendingIntent.FLAG_IMMUTABLE);
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings.benchmark;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.provider.Settings;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.util.ArrayMap;
+import android.util.MemoryIntArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import eunoiaos.providers.EunoiaSettings;
+
+import java.io.IOException;
+
+/**
+ * An in-process stand-in for the settings provider, answering the call() fast path used by
+ * {@link EunoiaSettings} from a map. Like the real provider, it hands out per-key generations
+ * in a {@link MemoryIntArray} and bumps the generation of a key on every write, so client
+ * caches see writes exactly as they do on the device, without any IPC.
+ * <p>
+ * The tables of {@link EunoiaSettings} hold on to the first provider they get, so every
+ * benchmark in the process has to read and write settings through {@link #getResolver}.
+ */
+public final class FakeSettingsProvider extends MockContentProvider {
+    private static final int MAX_KEYS = 1024;
+
+    private static FakeSettingsProvider sInstance;
+    private static MockContentResolver sResolver;
+
+    private final Object mLock = new Object();
+
+    private final MemoryIntArray mGenerations;
+
+    // The value and the index into mGenerations of every key, in all tables
+    @GuardedBy("mLock")
+    private final ArrayMap<String, String> mValues = new ArrayMap<String, String>();
+    @GuardedBy("mLock")
+    private final ArrayMap<String, Integer> mIndices = new ArrayMap<String, Integer>();
+
+    private FakeSettingsProvider(Context context) throws IOException {
+        super(context);
+        mGenerations = new MemoryIntArray(MAX_KEYS);
+    }
+
+    /**
+     * Returns the resolver serving {@link EunoiaSettings#AUTHORITY} from the fake provider.
+     */
+    public static synchronized MockContentResolver getResolver(Context context)
+            throws IOException {
+        if (sResolver == null) {
+            sInstance = new FakeSettingsProvider(context);
+            sResolver = new MockContentResolver(context);
+            sResolver.addProvider(EunoiaSettings.AUTHORITY, sInstance);
+        }
+        return sResolver;
+    }
+
+    /**
+     * Returns the fake provider behind {@link #getResolver}.
+     */
+    public static synchronized FakeSettingsProvider getInstance(Context context)
+            throws IOException {
+        getResolver(context);
+        return sInstance;
+    }
+
+    /**
+     * Bumps the generation of a key as a write would, without changing its value, so that
+     * the next read of the key by a client misses its cache.
+     */
+    public void invalidate(String name) throws IOException {
+        synchronized (mLock) {
+            final int index = getIndexLocked(name);
+            mGenerations.set(index, mGenerations.get(index) + 1);
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String request, Bundle args) {
+        if (method.startsWith("GET_MANY_")) {
+            final String[] names = args.getStringArray(EunoiaSettings.CALL_METHOD_NAMES_KEY);
+            final String[] values = new String[names.length];
+            final int[] indices = new int[names.length];
+            final int[] generations = new int[names.length];
+            synchronized (mLock) {
+                for (int i = 0; i < names.length; i++) {
+                    values[i] = mValues.get(names[i]);
+                    indices[i] = getIndexLocked(names[i]);
+                    generations[i] = getGenerationLocked(indices[i]);
+                }
+            }
+            final Bundle result = newResult(args);
+            result.putStringArray(EunoiaSettings.CALL_METHOD_VALUES_KEY, values);
+            result.putIntArray(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY, indices);
+            result.putIntArray(EunoiaSettings.CALL_METHOD_GENERATION_KEY, generations);
+            return result;
+        } else if (method.startsWith("GET_")) {
+            final Bundle result = newResult(args);
+            synchronized (mLock) {
+                final int index = getIndexLocked(request);
+                result.putString(Settings.NameValueTable.VALUE, mValues.get(request));
+                result.putInt(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY, index);
+                result.putInt(EunoiaSettings.CALL_METHOD_GENERATION_KEY,
+                        getGenerationLocked(index));
+            }
+            return result;
+        } else if (method.startsWith("PUT_")) {
+            final String value = args.getString(Settings.NameValueTable.VALUE);
+            synchronized (mLock) {
+                mValues.put(request, value);
+                final int index = getIndexLocked(request);
+                try {
+                    mGenerations.set(index, mGenerations.get(index) + 1);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return null;
+        }
+        throw new UnsupportedOperationException("Unsupported method: " + method);
+    }
+
+    private Bundle newResult(Bundle args) {
+        final Bundle result = new Bundle();
+        if (args != null && args.containsKey(EunoiaSettings.CALL_METHOD_TRACK_GENERATION_KEY)) {
+            result.putParcelable(EunoiaSettings.CALL_METHOD_TRACK_GENERATION_KEY, mGenerations);
+        }
+        return result;
+    }
+
+    private int getIndexLocked(String name) {
+        Integer index = mIndices.get(name);
+        if (index == null) {
+            if (mIndices.size() == MAX_KEYS) {
+                throw new IllegalStateException("Too many keys");
+            }
+            index = mIndices.size();
+            mIndices.put(name, index);
+        }
+        return index;
+    }
+
+    private int getGenerationLocked(int index) {
+        try {
+            return mGenerations.get(index);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
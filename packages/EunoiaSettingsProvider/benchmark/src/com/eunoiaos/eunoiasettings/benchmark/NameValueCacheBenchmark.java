@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings.benchmark;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.UserHandle;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import eunoiaos.providers.EunoiaSettings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the client side cache of {@link EunoiaSettings} against the in-process
+ * {@link FakeSettingsProvider}, so that only the cost of the client is measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NameValueCacheBenchmark {
+    private static final String STRING_KEY = "benchmark_string";
+    private static final String INT_KEY = "benchmark_int";
+    private static final String LONG_KEY = "benchmark_long";
+    private static final String FLOAT_KEY = "benchmark_float";
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private ContentResolver mResolver;
+    private FakeSettingsProvider mProvider;
+    private int mUserId;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResolver = FakeSettingsProvider.getResolver(context);
+        mProvider = FakeSettingsProvider.getInstance(context);
+        mUserId = UserHandle.myUserId();
+
+        EunoiaSettings.Global.putStringForUser(mResolver, STRING_KEY, "value", mUserId);
+        EunoiaSettings.Global.putIntForUser(mResolver, INT_KEY, 42, mUserId);
+        EunoiaSettings.Global.putLongForUser(mResolver, LONG_KEY, 1L << 40, mUserId);
+        EunoiaSettings.Global.putFloatForUser(mResolver, FLOAT_KEY, 0.5f, mUserId);
+    }
+
+    @Test
+    public void getStringForUserHit() {
+        EunoiaSettings.Global.getStringForUser(mResolver, STRING_KEY, mUserId);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.getStringForUser(mResolver, STRING_KEY, mUserId);
+        }
+    }
+
+    @Test
+    public void getStringForUserMiss() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            // Bumping the generation is a single write to shared memory, cheap enough to
+            // leave in the measurement instead of pausing the timer around it.
+            mProvider.invalidate(STRING_KEY);
+            EunoiaSettings.Global.getStringForUser(mResolver, STRING_KEY, mUserId);
+        }
+    }
+
+    @Test
+    public void getStringForUserOtherUser() {
+        // Reads of other users are never cached
+        final int otherUserId = mUserId + 1;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.getStringForUser(mResolver, STRING_KEY, otherUserId);
+        }
+    }
+
+    @Test
+    public void putThenGetStringForUser() {
+        final String[] values = new String[] { "value1", "value2" };
+        int i = 0;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.putStringForUser(mResolver, STRING_KEY, values[i ^= 1],
+                    mUserId);
+            EunoiaSettings.Global.getStringForUser(mResolver, STRING_KEY, mUserId);
+        }
+    }
+
+    @Test
+    public void getIntForUserHit() {
+        EunoiaSettings.Global.getIntForUser(mResolver, INT_KEY, 0, mUserId);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.getIntForUser(mResolver, INT_KEY, 0, mUserId);
+        }
+    }
+
+    @Test
+    public void getIntForUserMiss() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mProvider.invalidate(INT_KEY);
+            EunoiaSettings.Global.getIntForUser(mResolver, INT_KEY, 0, mUserId);
+        }
+    }
+
+    @Test
+    public void getBooleanForUserHit() {
+        EunoiaSettings.Global.getBooleanForUser(mResolver, INT_KEY, false, mUserId);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.getBooleanForUser(mResolver, INT_KEY, false, mUserId);
+        }
+    }
+
+    @Test
+    public void getLongForUserHit() {
+        EunoiaSettings.Global.getLongForUser(mResolver, LONG_KEY, 0L, mUserId);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.getLongForUser(mResolver, LONG_KEY, 0L, mUserId);
+        }
+    }
+
+    @Test
+    public void getFloatForUserHit() {
+        EunoiaSettings.Global.getFloatForUser(mResolver, FLOAT_KEY, 0f, mUserId);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.Global.getFloatForUser(mResolver, FLOAT_KEY, 0f, mUserId);
+        }
+    }
+
+    @Test
+    public void getFloatForUserMiss() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mProvider.invalidate(FLOAT_KEY);
+            EunoiaSettings.Global.getFloatForUser(mResolver, FLOAT_KEY, 0f, mUserId);
+        }
+    }
+}
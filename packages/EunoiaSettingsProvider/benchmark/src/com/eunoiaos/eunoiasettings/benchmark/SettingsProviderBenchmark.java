@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.provider.Settings;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.eunoiaos.eunoiasettings.EunoiaSettingsProvider;
+
+import eunoiaos.providers.EunoiaSettings;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the settings provider on the device through its binder interface. Only settings
+ * named benchmark_* are written, and they are deleted again after every benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SettingsProviderBenchmark {
+    private static final String KEY_PREFIX = "benchmark_";
+
+    private static final int BULK_INSERT_ROWS = 100;
+
+    // Keeps every bulk insert well below the binder transaction limit
+    private static final int INSERT_CHUNK_ROWS = 500;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        deleteBenchmarkRows();
+    }
+
+    @After
+    public void tearDown() {
+        deleteBenchmarkRows();
+    }
+
+    @Test
+    public void bulkInsertForUser() {
+        // Alternate between two sets of values, as rows that don't change are skipped
+        final ContentValues[][] values = new ContentValues[][] {
+                makeRows(BULK_INSERT_ROWS, "a"), makeRows(BULK_INSERT_ROWS, "b") };
+        int i = 0;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mResolver.bulkInsert(EunoiaSettings.Global.CONTENT_URI, values[i ^= 1]);
+        }
+    }
+
+    @Test
+    public void callHelperList100() {
+        measureList(100);
+    }
+
+    @Test
+    public void callHelperList1k() {
+        measureList(1000);
+    }
+
+    @Test
+    public void callHelperList10k() {
+        measureList(10000);
+    }
+
+    private void measureList(int rows) {
+        final ContentValues[] values = makeRows(rows, "value");
+        int inserted = 0;
+        for (int i = 0; i < rows; i += INSERT_CHUNK_ROWS) {
+            inserted += mResolver.bulkInsert(EunoiaSettings.Global.CONTENT_URI,
+                    Arrays.copyOfRange(values, i, Math.min(i + INSERT_CHUNK_ROWS, rows)));
+        }
+        assertEquals(rows, inserted);
+
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final Bundle result = mResolver.call(EunoiaSettings.Global.CONTENT_URI,
+                    EunoiaSettings.CALL_METHOD_LIST_GLOBAL, null, null);
+            state.pauseTiming();
+            assertTrue(result.getStringArrayList(EunoiaSettingsProvider.RESULT_SETTINGS_LIST)
+                    .size() >= rows);
+            state.resumeTiming();
+        }
+    }
+
+    private static ContentValues[] makeRows(int count, String value) {
+        final ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(Settings.NameValueTable.NAME, KEY_PREFIX + i);
+            rows[i].put(Settings.NameValueTable.VALUE, value + i);
+        }
+        return rows;
+    }
+
+    private void deleteBenchmarkRows() {
+        mResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                Settings.NameValueTable.NAME + " LIKE ?", new String[] { KEY_PREFIX + "%" });
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings.benchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import eunoiaos.providers.EunoiaSettings;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+
+/**
+ * Measures looking up and running the validators of every setting of a table, as the provider
+ * does for every write. A value of "1" is valid for most settings, and exercises the full
+ * check for the others.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ValidatorBenchmark {
+    private static final String VALUE = "1";
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void validateSystem() {
+        final String[] names = toArray(EunoiaSettings.System.VALIDATORS.keySet());
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String name : names) {
+                EunoiaSettings.System.getValidator(name).validate(VALUE);
+            }
+        }
+    }
+
+    @Test
+    public void validateSecure() {
+        final String[] names = toArray(EunoiaSettings.Secure.VALIDATORS.keySet());
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String name : names) {
+                EunoiaSettings.Secure.getValidator(name).validate(VALUE);
+            }
+        }
+    }
+
+    @Test
+    public void validateGlobal() {
+        final String[] names = toArray(EunoiaSettings.Global.VALIDATORS.keySet());
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String name : names) {
+                EunoiaSettings.Global.getValidator(name).validate(VALUE);
+            }
+        }
+    }
+
+    @Test
+    public void validateBatchSystem() {
+        final String[] names = toArray(EunoiaSettings.System.VALIDATORS.keySet());
+        final String[] values = new String[names.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = VALUE;
+        }
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.System.validateBatch(names, values);
+        }
+    }
+
+    @Test
+    public void getValidatorUnknown() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            EunoiaSettings.System.getValidator("benchmark_unknown");
+        }
+    }
+
+    private static String[] toArray(Set<String> names) {
+        return names.toArray(new String[names.size()]);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.LinkedHashSet;
+
+/**
+ * The ChangeNotifier delivers content change notifications for settings on its own thread. All
+ * changes of a uri for a user within the delay window are coalesced into one notification, and
+ * all uris of a user are sent in a single call, so a burst of writes, like a slider being
+ * dragged, wakes every observer once instead of once per write. Notifications are sent after
+ * the last change they cover, in the order in which their uris last changed, so observers
+ * always read the final value.
+ */
+final class ChangeNotifier {
+    private static final String TAG = "ChangeNotifier";
+    private static final boolean LOCAL_LOGV = false;
+
+    private final ContentResolver mResolver;
+    private final long mDelayMs;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+
+    // Keyed by the user to notify, which may be USER_ALL
+    @GuardedBy("mLock")
+    private SparseArray<LinkedHashSet<Uri>> mPending = new SparseArray<LinkedHashSet<Uri>>();
+
+    @GuardedBy("mLock")
+    private boolean mDispatchScheduled;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * @param resolver The resolver to send notifications through.
+     * @param delayMs How long to wait after the first of a series of changes before notifying.
+     */
+    ChangeNotifier(ContentResolver resolver, long delayMs) {
+        mResolver = resolver;
+        mDelayMs = Math.max(0, delayMs);
+        final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Schedules change notifications for some uris. Returns right away.
+     * @param uris The uris that changed.
+     * @param userId The user to notify, or USER_ALL.
+     */
+    void notifyChange(Uri[] uris, int userId) {
+        synchronized (mLock) {
+            LinkedHashSet<Uri> pending = mPending.get(userId);
+            if (pending == null) {
+                pending = new LinkedHashSet<Uri>();
+                mPending.put(userId, pending);
+            }
+            for (Uri uri : uris) {
+                // Move uris that changed again to the end, to keep the order of last changes
+                pending.remove(uri);
+                pending.add(uri);
+            }
+            if (!mDispatchScheduled) {
+                mDispatchScheduled = true;
+                mHandler.postDelayed(mDispatchRunnable, mDelayMs);
+            }
+        }
+    }
+
+    private void dispatch() {
+        final SparseArray<LinkedHashSet<Uri>> pending;
+        synchronized (mLock) {
+            pending = mPending;
+            mPending = new SparseArray<LinkedHashSet<Uri>>();
+            mDispatchScheduled = false;
+        }
+
+        for (int i = 0; i < pending.size(); i++) {
+            final int userId = pending.keyAt(i);
+            final LinkedHashSet<Uri> uris = pending.valueAt(i);
+            // One call per user, so observers of several uris are woken once
+            mResolver.notifyChange(uris.toArray(new Uri[uris.size()]), null,
+                    ContentResolver.NOTIFY_SYNC_TO_NETWORK, userId);
+            if (LOCAL_LOGV) Log.v(TAG, "notified " + userId + ": " + pending.valueAt(i));
+        }
+    }
+}
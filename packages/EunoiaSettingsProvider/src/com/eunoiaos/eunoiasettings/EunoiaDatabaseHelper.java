@@ -26,6 +26,7 @@ import android.content.pm.UserInfo;
 import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -38,9 +39,12 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.DisplayMetrics;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+
 import eunoiaos.providers.EunoiaSettings;
 
 import java.io.File;
@@ -81,10 +85,28 @@ public class EunoiaDatabaseHelper extends SQLiteOpenHelper{
 
     private static final String MCC_PROP_NAME = "ro.prebundled.mcc";
 
+    // The settings databases stay small, so truncate the write-ahead log after checkpoints
+    // rather than letting it grow to the size of the largest burst of writes it has seen
+    private static final long WAL_JOURNAL_SIZE_LIMIT = 64 * 1024;
+
+    private static final String UPSERT_SQL_FORMAT =
+            "INSERT OR REPLACE INTO %s(name,value) VALUES(?,?);";
+    private static final String DELETE_SQL_FORMAT = "DELETE FROM %s WHERE name=?;";
+
     private Context mContext;
     private int mUserHandle;
     private String mPublicSrcDir;
 
+    private final Object mStatementLock = new Object();
+
+    // Statements compiled once per table, keyed by table name
+    @GuardedBy("mStatementLock")
+    private final ArrayMap<String, SQLiteStatement> mUpsertStatements =
+            new ArrayMap<String, SQLiteStatement>();
+    @GuardedBy("mStatementLock")
+    private final ArrayMap<String, SQLiteStatement> mDeleteStatements =
+            new ArrayMap<String, SQLiteStatement>();
+
     /**
      * Gets the appropriate database path for a specific user
      * @param userId The database path for this user
@@ -113,6 +135,9 @@ public class EunoiaDatabaseHelper extends SQLiteOpenHelper{
         mContext = context;
         mUserHandle = userId;
 
+        // Let readers proceed while bursts of writes, e.g. from migration or restore, commit
+        setWriteAheadLoggingEnabled(true);
+
         try {
             String packageName = mContext.getPackageName();
             mPublicSrcDir = mContext.getPackageManager().getApplicationInfo(packageName, 0)
@@ -122,6 +147,89 @@ public class EunoiaDatabaseHelper extends SQLiteOpenHelper{
         }
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // PRAGMA journal_size_limit returns the new limit, so it has to run as a query
+        DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + WAL_JOURNAL_SIZE_LIMIT,
+                null);
+    }
+
+    @Override
+    public void close() {
+        // Not synchronized like super, statements are compiled with mStatementLock held
+        // before the helper itself is locked
+        synchronized (mStatementLock) {
+            closeStatementsLocked(mUpsertStatements);
+            closeStatementsLocked(mDeleteStatements);
+        }
+        super.close();
+    }
+
+    /**
+     * Inserts or replaces a setting using a statement compiled once per table. Joins the
+     * transaction of the calling thread, if any.
+     * @param tableName The name of the database table to write to.
+     * @param name The name of the setting to write.
+     * @param value The value of the setting to write, may be null.
+     */
+    void upsertSetting(String tableName, String name, String value) {
+        synchronized (mStatementLock) {
+            final SQLiteStatement stmt = getOrCompileStatementLocked(mUpsertStatements,
+                    UPSERT_SQL_FORMAT, tableName);
+            stmt.bindString(1, name);
+            if (value != null) {
+                stmt.bindString(2, value);
+            } else {
+                stmt.bindNull(2);
+            }
+            try {
+                stmt.executeInsert();
+            } finally {
+                stmt.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Deletes a setting using a statement compiled once per table. Joins the transaction of
+     * the calling thread, if any.
+     * @param tableName The name of the database table to delete from.
+     * @param name The name of the setting to delete.
+     * @return Whether the setting was present.
+     */
+    boolean deleteSetting(String tableName, String name) {
+        synchronized (mStatementLock) {
+            final SQLiteStatement stmt = getOrCompileStatementLocked(mDeleteStatements,
+                    DELETE_SQL_FORMAT, tableName);
+            stmt.bindString(1, name);
+            try {
+                return stmt.executeUpdateDelete() > 0;
+            } finally {
+                stmt.clearBindings();
+            }
+        }
+    }
+
+    @GuardedBy("mStatementLock")
+    private SQLiteStatement getOrCompileStatementLocked(ArrayMap<String, SQLiteStatement> cache,
+            String sqlFormat, String tableName) {
+        SQLiteStatement stmt = cache.get(tableName);
+        if (stmt == null) {
+            ensureTableIsValid(tableName);
+            stmt = getWritableDatabase().compileStatement(String.format(sqlFormat, tableName));
+            cache.put(tableName, stmt);
+        }
+        return stmt;
+    }
+
+    @GuardedBy("mStatementLock")
+    private static void closeStatementsLocked(ArrayMap<String, SQLiteStatement> cache) {
+        for (int i = 0; i < cache.size(); i++) {
+            cache.valueAt(i).close();
+        }
+        cache.clear();
+    }
+
     /**
      * Creates System, Secure, and Global tables in the specified {@link SQLiteDatabase} and loads
      * default values into the created tables.
@@ -36,20 +36,44 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructPollfd;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
 import eunoiaos.providers.EunoiaSettings;
+import eunoiaos.providers.SettingsStream;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import static android.system.OsConstants.EAGAIN;
+import static android.system.OsConstants.F_GETFL;
+import static android.system.OsConstants.F_SETFL;
+import static android.system.OsConstants.O_NONBLOCK;
+import static android.system.OsConstants.POLLOUT;
+
 /**
  * The EunoiaSettingsProvider serves as a {@link ContentProvider} for Eunoia specific settings
  */
@@ -62,7 +86,14 @@ public class EunoiaSettingsProvider extends ContentProvider {
     public static final String PREF_HAS_MIGRATED_EUNOIA_SETTINGS =
             "migrated_settings_to_eunoia_17_0";
 
-    private static final Bundle NULL_SETTING = Bundle.forPair("value", null);
+    // Bounds the number of users migrated in parallel
+    private static final int MAX_MIGRATION_THREADS = 4;
+
+    // Settings applied per transaction by the CALL_METHOD_IMPORT_* methods
+    private static final int IMPORT_CHUNK_SIZE = 128;
+
+    // How long an export waits for its reader to drain the pipe before giving up on it
+    private static final int EXPORT_STALL_TIMEOUT_MS = 10000;
 
     // Each defined user has their own settings
     protected final SparseArray<EunoiaDatabaseHelper> mDbHelpers = new SparseArray<EunoiaDatabaseHelper>();
@@ -78,6 +109,9 @@ public class EunoiaSettingsProvider extends ContentProvider {
     private static final String ITEM_MATCHER = "/*";
     private static final String NAME_SELECTION = Settings.NameValueTable.NAME + " = ?";
 
+    private static final Pattern NAME_SELECTION_PATTERN =
+            Pattern.compile("\\s*" + Settings.NameValueTable.NAME + "\\s*=\\s*\\?\\s*");
+
     // Must match definitions in fw/b
     // packages/SettingsProvider/src/com/android/providers/settings/SettingsProvider.java
     public static final String RESULT_ROWS_DELETED  = "result_rows_deleted";
@@ -104,11 +138,29 @@ public class EunoiaSettingsProvider extends ContentProvider {
     private Uri.Builder mUriBuilder;
     private SharedPreferences mSharedPrefs;
 
+    private final GenerationRegistry mGenerationRegistry = new GenerationRegistry();
+
+    private final SnapshotRegistry mSnapshotRegistry = new SnapshotRegistry();
+
+    // Keyed by user id
+    private final SparseArray<Object> mMigrationLocks = new SparseArray<Object>();
+
+    // Source of truth for the call() fast path, persisted to the databases in the background
+    private SettingsStore mSettingsStore;
+
+    private final ProviderStats mStats = new ProviderStats();
+
+    // Delivers change notifications off the binder threads, coalescing bursts of writes
+    private ChangeNotifier mChangeNotifier;
+
     @Override
     public boolean onCreate() {
         if (LOCAL_LOGV) Log.d(TAG, "Creating EunoiaSettingsProvider");
 
         mUserManager = UserManager.get(getContext());
+        mSettingsStore = new SettingsStore();
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                getContext().getResources().getInteger(R.integer.config_notifyChangeDelayMs));
 
         establishDbTracking(UserHandle.USER_SYSTEM);
 
@@ -120,6 +172,8 @@ public class EunoiaSettingsProvider extends ContentProvider {
 
         IntentFilter userFilter = new IntentFilter();
         userFilter.addAction(Intent.ACTION_USER_REMOVED);
+        userFilter.addAction(Intent.ACTION_USER_STOPPED);
+        userFilter.addAction(Intent.ACTION_SHUTDOWN);
         getContext().registerReceiver(new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -131,6 +185,11 @@ public class EunoiaSettingsProvider extends ContentProvider {
 
                 if (action.equals(Intent.ACTION_USER_REMOVED)) {
                     onUserRemoved(userId);
+                } else if (action.equals(Intent.ACTION_USER_STOPPED)) {
+                    // Make sure the writes of the user are on disk before its storage goes away
+                    mSettingsStore.flush(userId);
+                } else if (action.equals(Intent.ACTION_SHUTDOWN)) {
+                    mSettingsStore.flush(UserHandle.USER_ALL);
                 }
             }
         }, userFilter);
@@ -141,7 +200,8 @@ public class EunoiaSettingsProvider extends ContentProvider {
     // region Migration Methods
 
     /**
-     * Migrates Eunoia settings for all existing users if this has not been run before.
+     * Migrates Eunoia settings for all existing users if this has not been run before. Users are
+     * migrated in parallel on a bounded number of threads.
      */
     private void migrateEunoiaSettingsForExistingUsersIfNeeded() {
         boolean hasMigratedEunoiaSettings = mSharedPrefs.getBoolean(PREF_HAS_MIGRATED_EUNOIA_SETTINGS,
@@ -150,11 +210,37 @@ public class EunoiaSettingsProvider extends ContentProvider {
         if (!hasMigratedEunoiaSettings) {
             long startTime = System.currentTimeMillis();
 
-            for (UserInfo user : mUserManager.getUsers()) {
-                migrateEunoiaSettingsForUser(user.id);
+            final List<UserInfo> users = mUserManager.getUsers();
+            final ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(users.size(), MAX_MIGRATION_THREADS)));
+            final List<Future<?>> migrations = new ArrayList<Future<?>>(users.size());
+            for (UserInfo user : users) {
+                final int userId = user.id;
+                migrations.add(executor.submit(
+                        () -> migrateEunoiaSettingsForUser(userId, true)));
+            }
+            executor.shutdown();
+
+            boolean hasMigratedAllUsers = true;
+            for (Future<?> migration : migrations) {
+                try {
+                    migration.get();
+                } catch (ExecutionException e) {
+                    // The checkpoints of the user let the next attempt resume from here
+                    Log.e(TAG, "Migration of Eunoia settings failed", e.getCause());
+                    hasMigratedAllUsers = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    hasMigratedAllUsers = false;
+                    break;
+                }
             }
 
-            mSharedPrefs.edit().putBoolean(PREF_HAS_MIGRATED_EUNOIA_SETTINGS, true).commit();
+            if (hasMigratedAllUsers) {
+                mSharedPrefs.edit().putBoolean(PREF_HAS_MIGRATED_EUNOIA_SETTINGS, true).commit();
+                // Only needed to resume this migration, drop them so they can't go stale
+                clearMigrationCheckpoints(UserHandle.USER_ALL);
+            }
 
             // TODO: Add this as part of a boot message to the UI
             long timeDiffMillis = System.currentTimeMillis() - startTime;
@@ -163,77 +249,129 @@ public class EunoiaSettingsProvider extends ContentProvider {
     }
 
     /**
-     * Migrates Eunoia settings for a specific user.
+     * Migrates Eunoia settings for a specific user. When resumable, every migrated table is
+     * checkpointed, so a migration that was interrupted resumes with the first table that was
+     * not finished. Explicit requests always migrate every table.
      * @param userId The id of the user to run Eunoia settings migration for.
+     * @param resumable Whether to skip and checkpoint migrated tables.
      */
-    private void migrateEunoiaSettingsForUser(int userId) {
-        synchronized (this) {
+    private void migrateEunoiaSettingsForUser(int userId, boolean resumable) {
+        synchronized (getMigrationLock(userId)) {
             if (LOCAL_LOGV) Log.d(TAG, "Eunoia settings will be migrated for user id: " + userId);
 
             // Migrate system settings
-            int rowsMigrated = migrateEunoiaSettingsForTable(userId,
+            int rowsMigrated = migrateEunoiaSettingsForTableIfNeeded(userId, resumable,
                     EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM, EunoiaSettings.System.LEGACY_SYSTEM_SETTINGS);
             if (LOCAL_LOGV) Log.d(TAG, "Migrated " + rowsMigrated + " to Eunoia system table");
 
             // Migrate secure settings
-            rowsMigrated = migrateEunoiaSettingsForTable(userId,
+            rowsMigrated = migrateEunoiaSettingsForTableIfNeeded(userId, resumable,
                     EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE, EunoiaSettings.Secure.LEGACY_SECURE_SETTINGS);
             if (LOCAL_LOGV) Log.d(TAG, "Migrated " + rowsMigrated + " to Eunoia secure table");
 
             // Migrate global settings
-            rowsMigrated = migrateEunoiaSettingsForTable(userId,
+            rowsMigrated = migrateEunoiaSettingsForTableIfNeeded(userId, resumable,
                     EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL, EunoiaSettings.Global.LEGACY_GLOBAL_SETTINGS);
             if (LOCAL_LOGV) Log.d(TAG, "Migrated " + rowsMigrated + " to Eunoia global table");
         }
     }
 
     /**
-     * Migrates Eunoia settings for a specific table and user id.
+     * Returns the lock serializing migrations of a user, so that different users can be
+     * migrated at the same time.
+     * @param userId The id of the user.
+     * @return The migration lock of the user.
+     */
+    private Object getMigrationLock(int userId) {
+        synchronized (mMigrationLocks) {
+            Object lock = mMigrationLocks.get(userId);
+            if (lock == null) {
+                lock = new Object();
+                mMigrationLocks.put(userId, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Migrates Eunoia settings for a specific table and user id. When resumable, a table a
+     * previous migration already got through is skipped, and the migrated rows are on disk
+     * before the table is checkpointed.
      * @param userId The id of the user to run Eunoia settings migration for.
+     * @param resumable Whether to skip and checkpoint migrated tables.
      * @param tableName The name of the table to run Eunoia settings migration on.
      * @param settings An array of keys to migrate from {@link Settings} to {@link EunoiaSettings}
      * @return Number of rows migrated.
      */
-    private int migrateEunoiaSettingsForTable(int userId, String tableName, String[] settings) {
-        ContentResolver contentResolver = getContext().getContentResolver();
-        ContentValues[] contentValues = new ContentValues[settings.length];
+    private int migrateEunoiaSettingsForTableIfNeeded(int userId, boolean resumable,
+            String tableName, String[] settings) {
+        final String checkpoint = getMigrationCheckpoint(tableName, userId);
+        if (resumable && mSharedPrefs.getBoolean(checkpoint, false)) {
+            if (LOCAL_LOGV) Log.d(TAG, "Table " + tableName + " already migrated for " + userId);
+            return 0;
+        }
 
-        int migrateSettingsCount = 0;
-        for (String settingsKey : settings) {
-            String settingsValue = null;
+        final int rowsMigrated = migrateEunoiaSettingsForTable(userId, tableName, settings);
+        mSettingsStore.flush(getUserIdForTable(tableName, userId));
+        if (resumable) {
+            mSharedPrefs.edit().putBoolean(checkpoint, true).commit();
+        }
+        return rowsMigrated;
+    }
 
-            if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM)) {
-                settingsValue = Settings.System.getStringForUser(contentResolver, settingsKey,
-                        userId);
-            }
-            else if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE)) {
-                settingsValue = Settings.Secure.getStringForUser(contentResolver, settingsKey,
-                        userId);
-                if (settingsValue != null && settingsKey.equals(EunoiaSettings.Secure.STATS_COLLECTION)
-                        && EunoiaSettings.Secure.getStringForUser(contentResolver, settingsKey, userId)
-                        != null) {
-                    // incorrect migration from YOG4P -> YOG7D failed to remove
-                    // Settings.Secure.STATS_COLLECTION after migration; so it may exist in both
-                    // providers; so if it exists in the new database, prefer it.
-                    continue;
-                }
-            }
-            else if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL)) {
-                settingsValue = Settings.Global.getStringForUser(contentResolver, settingsKey,
-                        userId);
+    private static String getMigrationCheckpoint(String tableName, int userId) {
+        return PREF_HAS_MIGRATED_EUNOIA_SETTINGS + "_" + tableName + "_" + userId;
+    }
+
+    /**
+     * Removes the migration checkpoints of a user, so that a user id which is reused later is
+     * migrated again.
+     * @param userId The id of the user, or {@link UserHandle#USER_ALL} for every user.
+     */
+    private void clearMigrationCheckpoints(int userId) {
+        final String prefix = PREF_HAS_MIGRATED_EUNOIA_SETTINGS + "_";
+        final String suffix = "_" + userId;
+        final SharedPreferences.Editor editor = mSharedPrefs.edit();
+        for (String key : mSharedPrefs.getAll().keySet()) {
+            if (key.startsWith(prefix)
+                    && (userId == UserHandle.USER_ALL || key.endsWith(suffix))) {
+                editor.remove(key);
             }
+        }
+        editor.commit();
+    }
 
-            if (LOCAL_LOGV) Log.d(TAG, "Table: " + tableName + ", Key: " + settingsKey + ", Value: "
-                    + settingsValue);
+    /**
+     * Migrates Eunoia settings for a specific table and user id. The legacy table is read with a
+     * single query and the migrated settings are written as a single batch.
+     * @param userId The id of the user to run Eunoia settings migration for.
+     * @param tableName The name of the table to run Eunoia settings migration on.
+     * @param settings An array of keys to migrate from {@link Settings} to {@link EunoiaSettings}
+     * @return Number of rows migrated.
+     */
+    private int migrateEunoiaSettingsForTable(int userId, String tableName, String[] settings) {
+        final ArrayMap<String, String> legacyValues = readLegacySettings(userId, tableName,
+                settings);
+        final ContentValues[] contentValues = new ContentValues[legacyValues.size()];
 
-            // Don't trample defaults with null values. This is the only scenario where defaults
-            // take precedence over migration values.
-            if (settingsValue == null) {
-                if (LOCAL_LOGV) Log.d(TAG, "Skipping migrating " + settingsKey
-                        + " because of null value");
+        int migrateSettingsCount = 0;
+        for (int i = 0; i < legacyValues.size(); i++) {
+            final String settingsKey = legacyValues.keyAt(i);
+            final String settingsValue = legacyValues.valueAt(i);
+
+            if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE)
+                    && settingsKey.equals(EunoiaSettings.Secure.STATS_COLLECTION)
+                    && getOrEstablishSettingsStore(userId).getValue(tableName, userId,
+                            settingsKey) != null) {
+                // incorrect migration from YOG4P -> YOG7D failed to remove
+                // Settings.Secure.STATS_COLLECTION after migration; so it may exist in both
+                // providers; so if it exists in the new database, prefer it.
                 continue;
             }
 
+            if (LOCAL_LOGV) Log.d(TAG, "Table: " + tableName + ", Key: " + settingsKey + ", Value: "
+                    + settingsValue);
+
             ContentValues contentValue = new ContentValues();
             contentValue.put(Settings.NameValueTable.NAME, settingsKey);
             contentValue.put(Settings.NameValueTable.VALUE, settingsValue);
@@ -241,15 +379,80 @@ public class EunoiaSettingsProvider extends ContentProvider {
         }
 
         int rowsInserted = 0;
-        if (contentValues.length > 0) {
+        if (migrateSettingsCount > 0) {
             Uri uri = mUriBuilder.build();
             uri = uri.buildUpon().appendPath(tableName).build();
-            rowsInserted = bulkInsertForUser(userId, uri, contentValues);
+            rowsInserted = bulkInsertForUser(userId, uri,
+                    Arrays.copyOf(contentValues, migrateSettingsCount));
         }
 
         return rowsInserted;
     }
 
+    /**
+     * Reads the values of legacy settings of a user from {@link Settings} with a single query of
+     * the whole table. Settings which {@link Settings} redirects to another table are looked up
+     * one by one, so that they keep following the redirect.
+     * @param userId The id of the user to read the settings of.
+     * @param tableName The name of the Eunoia table the settings are migrated to.
+     * @param settings The keys to read.
+     * @return The non-null values of the keys.
+     */
+    private ArrayMap<String, String> readLegacySettings(int userId, String tableName,
+            String[] settings) {
+        final ContentResolver contentResolver = getContext().getContentResolver();
+        final ArraySet<String> keys = new ArraySet<String>(Arrays.asList(settings));
+        final ArraySet<String> movedKeys = new ArraySet<String>();
+        final Uri legacyUri;
+        if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM)) {
+            legacyUri = Settings.System.CONTENT_URI;
+            Settings.System.getMovedToSecureSettings(movedKeys);
+            Settings.System.getMovedToGlobalSettings(movedKeys);
+        } else if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE)) {
+            legacyUri = Settings.Secure.CONTENT_URI;
+            Settings.Secure.getMovedToGlobalSettings(movedKeys);
+        } else {
+            legacyUri = Settings.Global.CONTENT_URI;
+        }
+
+        final ArrayMap<String, String> values = new ArrayMap<String, String>();
+        final long oldId = Binder.clearCallingIdentity();
+        try (Cursor cursor = contentResolver.query(
+                ContentProvider.maybeAddUserId(legacyUri, userId),
+                new String[] { Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE },
+                null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                final String name = cursor.getString(0);
+                final String value = cursor.getString(1);
+                // Don't trample defaults with null values. This is the only scenario where
+                // defaults take precedence over migration values.
+                if (keys.contains(name) && !movedKeys.contains(name) && value != null) {
+                    values.put(name, value);
+                }
+            }
+        } finally {
+            Binder.restoreCallingIdentity(oldId);
+        }
+
+        for (String settingsKey : settings) {
+            if (!movedKeys.contains(settingsKey)) {
+                continue;
+            }
+            final String settingsValue;
+            if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM)) {
+                settingsValue = Settings.System.getStringForUser(contentResolver, settingsKey,
+                        userId);
+            } else {
+                settingsValue = Settings.Secure.getStringForUser(contentResolver, settingsKey,
+                        userId);
+            }
+            if (settingsValue != null) {
+                values.put(settingsKey, settingsValue);
+            }
+        }
+        return values;
+    }
+
     private List<String> delimitedStringToList(String s, String delimiter) {
         List<String> list = new ArrayList<String>();
         if (!TextUtils.isEmpty(s)) {
@@ -274,6 +477,10 @@ public class EunoiaSettingsProvider extends ContentProvider {
             // our helpers and other internal bookkeeping.
 
             mDbHelpers.delete(userId);
+            mSettingsStore.onUserRemoved(userId);
+            mGenerationRegistry.onUserRemoved(userId);
+            mSnapshotRegistry.onUserRemoved(userId);
+            clearMigrationCheckpoints(userId);
 
             if (LOCAL_LOGV) Log.d(TAG, "User " + userId + " is removed");
         }
@@ -298,25 +505,68 @@ public class EunoiaSettingsProvider extends ContentProvider {
             }
         }
 
+        final long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return dispatchCall(method, request, args, callingUserId);
+        } finally {
+            mStats.recordCall(method, request, args, Binder.getCallingUid(),
+                    SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private Bundle dispatchCall(String method, String request, Bundle args, int callingUserId) {
         switch (method) {
             // Migrate methods
            case EunoiaSettings.CALL_METHOD_MIGRATE_SETTINGS:
                 migrateEunoiaSettingsForExistingUsersIfNeeded();
                 return null;
            case EunoiaSettings.CALL_METHOD_MIGRATE_SETTINGS_FOR_USER:
-                migrateEunoiaSettingsForUser(callingUserId);
+                migrateEunoiaSettingsForUser(callingUserId, false);
                 return null;
 
+            // Stats method
+            case EunoiaSettings.CALL_METHOD_STATS:
+                getContext().enforceCallingOrSelfPermission(android.Manifest.permission.DUMP,
+                        "Requires DUMP permission");
+                return mStats.toBundle();
+
             // Get methods
             case EunoiaSettings.CALL_METHOD_GET_SYSTEM:
                 return lookupSingleValue(callingUserId, EunoiaSettings.System.CONTENT_URI,
-                        request);
+                        request, args);
             case EunoiaSettings.CALL_METHOD_GET_SECURE:
                 return lookupSingleValue(callingUserId, EunoiaSettings.Secure.CONTENT_URI,
-                        request);
+                        request, args);
             case EunoiaSettings.CALL_METHOD_GET_GLOBAL:
                 return lookupSingleValue(callingUserId, EunoiaSettings.Global.CONTENT_URI,
-                        request);
+                        request, args);
+
+            // Get many methods
+            case EunoiaSettings.CALL_METHOD_GET_MANY_SYSTEM:
+                return lookupMultipleValues(callingUserId, EunoiaSettings.System.CONTENT_URI,
+                        args);
+            case EunoiaSettings.CALL_METHOD_GET_MANY_SECURE:
+                return lookupMultipleValues(callingUserId, EunoiaSettings.Secure.CONTENT_URI,
+                        args);
+            case EunoiaSettings.CALL_METHOD_GET_MANY_GLOBAL:
+                return lookupMultipleValues(callingUserId, EunoiaSettings.Global.CONTENT_URI,
+                        args);
+
+            // Get all methods
+            case EunoiaSettings.CALL_METHOD_GET_ALL_SYSTEM:
+                return callHelperGetAll(callingUserId, EunoiaSettings.System.CONTENT_URI);
+            case EunoiaSettings.CALL_METHOD_GET_ALL_SECURE:
+                return callHelperGetAll(callingUserId, EunoiaSettings.Secure.CONTENT_URI);
+            case EunoiaSettings.CALL_METHOD_GET_ALL_GLOBAL:
+                return callHelperGetAll(callingUserId, EunoiaSettings.Global.CONTENT_URI);
+
+            // Get snapshot methods
+            case EunoiaSettings.CALL_METHOD_GET_SNAPSHOT_SYSTEM:
+                return callHelperGetSnapshot(callingUserId, EunoiaSettings.System.CONTENT_URI);
+            case EunoiaSettings.CALL_METHOD_GET_SNAPSHOT_SECURE:
+                return callHelperGetSnapshot(callingUserId, EunoiaSettings.Secure.CONTENT_URI);
+            case EunoiaSettings.CALL_METHOD_GET_SNAPSHOT_GLOBAL:
+                return callHelperGetSnapshot(callingUserId, EunoiaSettings.Global.CONTENT_URI);
 
             // Put methods
             case EunoiaSettings.CALL_METHOD_PUT_SYSTEM:
@@ -334,6 +584,22 @@ public class EunoiaSettingsProvider extends ContentProvider {
                 callHelperPut(callingUserId, EunoiaSettings.Global.CONTENT_URI, request, args);
                 return null;
 
+            // Put many methods
+            case EunoiaSettings.CALL_METHOD_PUT_MANY_SYSTEM:
+                enforceWritePermission(eunoiaos.platform.Manifest.permission.WRITE_SETTINGS);
+                callHelperPutMany(callingUserId, EunoiaSettings.System.CONTENT_URI, args);
+                return null;
+            case EunoiaSettings.CALL_METHOD_PUT_MANY_SECURE:
+                enforceWritePermission(
+                        eunoiaos.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
+                callHelperPutMany(callingUserId, EunoiaSettings.Secure.CONTENT_URI, args);
+                return null;
+            case EunoiaSettings.CALL_METHOD_PUT_MANY_GLOBAL:
+                enforceWritePermission(
+                        eunoiaos.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
+                callHelperPutMany(callingUserId, EunoiaSettings.Global.CONTENT_URI, args);
+                return null;
+
             // List methods
             case EunoiaSettings.CALL_METHOD_LIST_SYSTEM:
                 return callHelperList(callingUserId, EunoiaSettings.System.CONTENT_URI);
@@ -357,6 +623,30 @@ public class EunoiaSettingsProvider extends ContentProvider {
                         eunoiaos.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
                 return callHelperDelete(callingUserId, EunoiaSettings.Global.CONTENT_URI,
                         request);
+
+            // Export methods
+            case EunoiaSettings.CALL_METHOD_EXPORT_SYSTEM:
+                enforceExportPermission();
+                return callHelperExport(callingUserId, EunoiaSettings.System.CONTENT_URI, args);
+            case EunoiaSettings.CALL_METHOD_EXPORT_SECURE:
+                enforceExportPermission();
+                return callHelperExport(callingUserId, EunoiaSettings.Secure.CONTENT_URI, args);
+            case EunoiaSettings.CALL_METHOD_EXPORT_GLOBAL:
+                enforceExportPermission();
+                return callHelperExport(callingUserId, EunoiaSettings.Global.CONTENT_URI, args);
+
+            // Import methods
+            case EunoiaSettings.CALL_METHOD_IMPORT_SYSTEM:
+                enforceWritePermission(eunoiaos.platform.Manifest.permission.WRITE_SETTINGS);
+                return callHelperImport(callingUserId, EunoiaSettings.System.CONTENT_URI, args);
+            case EunoiaSettings.CALL_METHOD_IMPORT_SECURE:
+                enforceWritePermission(
+                        eunoiaos.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
+                return callHelperImport(callingUserId, EunoiaSettings.Secure.CONTENT_URI, args);
+            case EunoiaSettings.CALL_METHOD_IMPORT_GLOBAL:
+                enforceWritePermission(
+                        eunoiaos.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
+                return callHelperImport(callingUserId, EunoiaSettings.Global.CONTENT_URI, args);
         }
 
         return null;
@@ -371,6 +661,14 @@ public class EunoiaSettingsProvider extends ContentProvider {
         }
     }
 
+    private void enforceExportPermission() {
+        if (getContext().checkCallingOrSelfPermission(android.Manifest.permission.BACKUP)
+                != PackageManager.PERMISSION_GRANTED) {
+            getContext().enforceCallingOrSelfPermission(android.Manifest.permission.DUMP,
+                    "Exporting settings requires BACKUP or DUMP permission");
+        }
+    }
+
     // Helper for call() CALL_METHOD_DELETE_* methods
     private Bundle callHelperDelete(int callingUserId, Uri contentUri, String key) {
         final int rowsDeleted = deleteForUser(callingUserId, contentUri, NAME_SELECTION,
@@ -398,6 +696,176 @@ public class EunoiaSettingsProvider extends ContentProvider {
         return ret;
     }
 
+    // Helper for call() CALL_METHOD_EXPORT_* methods
+    private Bundle callHelperExport(int callingUserId, Uri contentUri, Bundle args) {
+        final ParcelFileDescriptor out = args != null ? args.getParcelable(
+                EunoiaSettings.CALL_METHOD_STREAM_KEY, ParcelFileDescriptor.class) : null;
+        if (out == null) {
+            throw new IllegalArgumentException("Stream cannot be null");
+        }
+
+        final String tableName = getTableNameFromUri(contentUri);
+        final int tableUserId = getUserIdForTable(tableName, callingUserId);
+        // A copy of the table only holds references to the strings already in memory
+        final ArrayMap<String, String> all =
+                getOrEstablishSettingsStore(tableUserId).getAllValues(tableName, tableUserId);
+
+        // The pipe only holds so much, so write on a thread of this export while the caller
+        // reads. A reader that stops draining the pipe only holds up its own export.
+        new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try (SettingsStream.Writer writer = new SettingsStream.Writer(
+                    new TimedPipeOutputStream(out))) {
+                for (int i = 0; i < all.size(); i++) {
+                    writer.write(all.keyAt(i), all.valueAt(i));
+                }
+                writer.finish();
+                if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + all.size() + " row(s) exported");
+            } catch (IOException e) {
+                // The reader sees the stream break off before its end
+                Log.w(TAG, "Error exporting " + tableName, e);
+            }
+        }, "EunoiaSettingsExport").start();
+        return null;
+    }
+
+    // Writes to a pipe without blocking, and fails once the reader leaves it full for
+    // EXPORT_STALL_TIMEOUT_MS. Closing the stream closes the pipe.
+    private static final class TimedPipeOutputStream extends OutputStream {
+        private final ParcelFileDescriptor mPfd;
+        private final FileDescriptor mFd;
+
+        TimedPipeOutputStream(ParcelFileDescriptor pfd) throws IOException {
+            mPfd = pfd;
+            mFd = pfd.getFileDescriptor();
+            try {
+                Os.fcntlInt(mFd, F_SETFL, Os.fcntlVoid(mFd, F_GETFL) | O_NONBLOCK);
+            } catch (ErrnoException e) {
+                pfd.close();
+                throw e.rethrowAsIOException();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                while (len > 0) {
+                    final int written;
+                    try {
+                        written = Os.write(mFd, b, off, len);
+                    } catch (ErrnoException e) {
+                        if (e.errno != EAGAIN) {
+                            throw e;
+                        }
+                        awaitWritable();
+                        continue;
+                    }
+                    off += written;
+                    len -= written;
+                }
+            } catch (ErrnoException e) {
+                throw e.rethrowAsIOException();
+            }
+        }
+
+        private void awaitWritable() throws ErrnoException, IOException {
+            final StructPollfd pollFd = new StructPollfd();
+            pollFd.fd = mFd;
+            pollFd.events = (short) POLLOUT;
+            if (Os.poll(new StructPollfd[] { pollFd }, EXPORT_STALL_TIMEOUT_MS) == 0) {
+                throw new IOException("Reader stalled for " + EXPORT_STALL_TIMEOUT_MS + " ms");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mPfd.close();
+        }
+    }
+
+    // Helper for call() CALL_METHOD_IMPORT_* methods
+    private Bundle callHelperImport(int callingUserId, Uri contentUri, Bundle args) {
+        final ParcelFileDescriptor in = args != null ? args.getParcelable(
+                EunoiaSettings.CALL_METHOD_STREAM_KEY, ParcelFileDescriptor.class) : null;
+        if (in == null) {
+            throw new IllegalArgumentException("Stream cannot be null");
+        }
+
+        final String tableName = getTableNameFromUri(contentUri);
+        final String[] names = new String[IMPORT_CHUNK_SIZE];
+        final String[] values = new String[IMPORT_CHUNK_SIZE];
+        int count = 0;
+        int imported = 0;
+        try (SettingsStream.Reader reader = new SettingsStream.Reader(
+                new ParcelFileDescriptor.AutoCloseInputStream(in))) {
+            while (reader.next()) {
+                if (!isValidSettingNameValue(tableName, reader.getName(), reader.getValue())) {
+                    Log.w(TAG, "Skipping invalid setting " + reader.getName()
+                            + " importing " + tableName);
+                    continue;
+                }
+                names[count] = reader.getName();
+                values[count] = reader.getValue();
+                if (++count == IMPORT_CHUNK_SIZE) {
+                    putManyForUser(callingUserId, contentUri, names, values, new String[0]);
+                    imported += count;
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                putManyForUser(callingUserId, contentUri, Arrays.copyOf(names, count),
+                        Arrays.copyOf(values, count), new String[0]);
+                imported += count;
+            }
+        } catch (IOException e) {
+            // Chunks applied so far are kept, as they would be by a restore one at a time
+            Log.w(TAG, "Error importing " + tableName + " after " + imported + " row(s)", e);
+            return null;
+        }
+        if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + imported + " row(s) imported");
+
+        final Bundle ret = new Bundle();
+        ret.putInt(EunoiaSettings.CALL_METHOD_IMPORTED_COUNT_KEY, imported);
+        return ret;
+    }
+
+    // Helper for call() CALL_METHOD_GET_ALL_* methods
+    private Bundle callHelperGetAll(int callingUserId, Uri contentUri) {
+        final String tableName = getTableNameFromUri(contentUri);
+        final int tableUserId = getUserIdForTable(tableName, callingUserId);
+        final ArrayMap<String, String> all =
+                getOrEstablishSettingsStore(tableUserId).getAllValues(tableName, tableUserId);
+        final String[] names = new String[all.size()];
+        final String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = all.keyAt(i);
+            values[i] = all.valueAt(i);
+        }
+        final Bundle ret = new Bundle();
+        ret.putStringArray(EunoiaSettings.CALL_METHOD_NAMES_KEY, names);
+        ret.putStringArray(EunoiaSettings.CALL_METHOD_VALUES_KEY, values);
+        return ret;
+    }
+
+    // Helper for call() CALL_METHOD_GET_SNAPSHOT_* methods
+    private Bundle callHelperGetSnapshot(int callingUserId, Uri contentUri) {
+        final String tableName = getTableNameFromUri(contentUri);
+        final int tableUserId = getUserIdForTable(tableName, callingUserId);
+        final ParcelFileDescriptor snapshot = mSnapshotRegistry.getSnapshot(
+                getOrEstablishSettingsStore(tableUserId), tableName, tableUserId);
+        if (snapshot == null) {
+            return null;
+        }
+        final Bundle ret = new Bundle();
+        ret.putParcelable(EunoiaSettings.CALL_METHOD_SNAPSHOT_KEY, snapshot);
+        return ret;
+    }
+
     // Helper for call() CALL_METHOD_PUT_* methods
     private void callHelperPut(int callingUserId, Uri contentUri, String key, Bundle args) {
         // New value is in the args bundle under the key named by
@@ -411,35 +879,98 @@ public class EunoiaSettingsProvider extends ContentProvider {
         insertForUser(callingUserId, contentUri, values);
     }
 
+    // Helper for call() CALL_METHOD_PUT_MANY_* methods
+    private void callHelperPutMany(int callingUserId, Uri contentUri, Bundle args) {
+        if (args == null) {
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        final String[] names = args.getStringArray(EunoiaSettings.CALL_METHOD_NAMES_KEY);
+        final String[] values = args.getStringArray(EunoiaSettings.CALL_METHOD_VALUES_KEY);
+        final String[] deletedNames =
+                args.getStringArray(EunoiaSettings.CALL_METHOD_DELETED_NAMES_KEY);
+
+        putManyForUser(callingUserId, contentUri,
+                names != null ? names : new String[0],
+                values != null ? values : new String[0],
+                deletedNames != null ? deletedNames : new String[0]);
+    }
+
     /**
      * Looks up a single value for a specific user, uri, and key.
      * @param userId The id of the user to perform the lookup for.
      * @param uri The uri for which table to perform the lookup in.
      * @param key The key to perform the lookup with.
-     * @return A single value stored in a {@link Bundle}.
+     * @param args The call() arguments, checked for a generation tracking request.
+     * @return A single value stored in a {@link Bundle}, along with its generation data.
      */
-    private Bundle lookupSingleValue(int userId, Uri uri, String key) {
-        Cursor cursor = null;
+    private Bundle lookupSingleValue(int userId, Uri uri, String key, Bundle args) {
+        final String tableName = getTableNameFromUri(uri);
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        final SettingsStore settingsStore;
         try {
-            cursor = queryForUser(userId, uri, new String[]{ Settings.NameValueTable.VALUE },
-                    Settings.NameValueTable.NAME + " = ?", new String[]{ key }, null);
+            settingsStore = getOrEstablishSettingsStore(tableUserId);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "settings lookup error", e);
+            return null;
+        }
 
-            if (cursor != null && cursor.getCount() == 1) {
-                cursor.moveToFirst();
-                String value = cursor.getString(0);
-                return value == null ? NULL_SETTING : Bundle.forPair(Settings.NameValueTable.VALUE,
-                        value);
-            }
+        final Bundle result = new Bundle();
+        final boolean existed = settingsStore.getValue(tableName, tableUserId, key) != null;
+        mGenerationRegistry.addGenerationData(result, tableName, tableUserId, key, existed,
+                args != null && args.containsKey(EunoiaSettings.CALL_METHOD_TRACK_GENERATION_KEY));
+        final String value = settingsStore.getValue(tableName, tableUserId, key);
+        if ((value != null) != existed) {
+            // Created or deleted in between, so the generation is of the wrong slot
+            result.remove(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY);
+            result.remove(EunoiaSettings.CALL_METHOD_GENERATION_KEY);
+        }
+        result.putString(Settings.NameValueTable.VALUE, value);
+        return result;
+    }
+
+    /**
+     * Looks up several values for a specific user and uri with as few queries as possible.
+     * @param userId The id of the user to perform the lookup for.
+     * @param uri The uri for which table to perform the lookup in.
+     * @param args The call() arguments, holding the keys to perform the lookup with.
+     * @return The values in the order of the requested keys, along with their generation data,
+     *     stored in a {@link Bundle}.
+     */
+    private Bundle lookupMultipleValues(int userId, Uri uri, Bundle args) {
+        final String[] names = args == null
+                ? null : args.getStringArray(EunoiaSettings.CALL_METHOD_NAMES_KEY);
+        if (names == null) {
+            return null;
+        }
+
+        final String tableName = getTableNameFromUri(uri);
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        final SettingsStore settingsStore;
+        try {
+            settingsStore = getOrEstablishSettingsStore(tableUserId);
         } catch (SQLiteException e) {
             Log.w(TAG, "settings lookup error", e);
             return null;
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
         }
 
-        return NULL_SETTING;
+        final Bundle result = new Bundle();
+        final String[] previousValues = settingsStore.getValues(tableName, tableUserId, names);
+        final boolean[] existed = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+            existed[i] = previousValues[i] != null;
+        }
+        mGenerationRegistry.addGenerationData(result, tableName, tableUserId, names, existed,
+                args.containsKey(EunoiaSettings.CALL_METHOD_TRACK_GENERATION_KEY));
+        final String[] values = settingsStore.getValues(tableName, tableUserId, names);
+        final int[] indices = result.getIntArray(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY);
+        for (int i = 0; indices != null && i < names.length; i++) {
+            if ((values[i] != null) != existed[i]) {
+                // Created or deleted in between, so the generation is of the wrong slot
+                indices[i] = -1;
+            }
+        }
+        result.putStringArray(EunoiaSettings.CALL_METHOD_VALUES_KEY, values);
+        return result;
     }
 
     @Override
@@ -469,7 +1000,10 @@ public class EunoiaSettingsProvider extends ContentProvider {
         int code = sUriMatcher.match(uri);
         String tableName = getTableNameFromUriMatchCode(code);
 
-        EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName, userId));
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
+        // Raw queries go to the database, which must have caught up with the settings store
+        getOrEstablishSettingsStore(tableUserId).flush(tableUserId);
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
@@ -522,38 +1056,84 @@ public class EunoiaSettingsProvider extends ContentProvider {
             throw new IllegalArgumentException("ContentValues cannot be null");
         }
 
-        int numRowsAffected = 0;
-
         String tableName = getTableNameFromUri(uri);
         checkWritePermissions(tableName);
 
-        EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName, userId));
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-
-        db.beginTransaction();
-        try {
-            for (ContentValues value : values) {
-                if (value == null) {
-                    continue;
-                }
+        final ArrayList<String> names = new ArrayList<String>(values.length);
+        final ArrayList<String> newValues = new ArrayList<String>(values.length);
+        for (ContentValues value : values) {
+            if (value == null) {
+                continue;
+            }
+            names.add(value.getAsString(Settings.NameValueTable.NAME));
+            newValues.add(value.getAsString(Settings.NameValueTable.VALUE));
+        }
 
-                long rowId = db.insert(tableName, null, value);
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        final ArrayList<String> changedNames = new ArrayList<String>(names.size());
+        getOrEstablishSettingsStore(tableUserId).putValues(tableName, tableUserId,
+                names.toArray(new String[names.size()]),
+                newValues.toArray(new String[newValues.size()]), new String[0], changedNames);
 
-                if (rowId >= 0) {
-                    numRowsAffected++;
-                } else {
-                    return 0;
-                }
+        final int numRowsAffected = changedNames.size();
+        if (numRowsAffected > 0) {
+            for (String name : changedNames) {
+                mGenerationRegistry.incrementGeneration(tableName, tableUserId, name);
             }
+            notifyChange(uri, tableName, userId);
+            if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) inserted");
+        }
 
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
+        return numRowsAffected;
+    }
+
+    /**
+     * Performs several inserts and deletes for a specific user at once. All values
+     * are validated up front, so that an invalid value fails the whole batch. The table version
+     * is bumped and observers are notified once, with the uris of all settings that changed.
+     * @param userId The user id to perform the writes for.
+     * @param uri The content:// URI of the table to write to.
+     * @param names The names of the settings to insert.
+     * @param values The values of the settings to insert, in the order of the names.
+     * @param deletedNames The names of the settings to delete.
+     * @return Number of rows inserted or deleted.
+     */
+    private int putManyForUser(int userId, Uri uri, String[] names, String[] values,
+            String[] deletedNames) {
+        if (uri == null) {
+            throw new IllegalArgumentException("Uri cannot be null");
+        }
+
+        if (names.length != values.length) {
+            throw new IllegalArgumentException("Got " + names.length + " names but "
+                    + values.length + " values");
+        }
+
+        String tableName = getTableNameFromUri(uri);
+        checkWritePermissions(tableName);
+
+        final int invalidIndex = validateSettingsBatch(tableName, names, values);
+        if (invalidIndex >= 0) {
+            // Throws with the reason the pair is invalid
+            validateSettingNameValue(tableName, names[invalidIndex], values[invalidIndex]);
         }
 
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        final ArrayList<String> changedNames =
+                new ArrayList<String>(names.length + deletedNames.length);
+        getOrEstablishSettingsStore(tableUserId).putValues(tableName, tableUserId, names,
+                values, deletedNames, changedNames);
+
+        final int numRowsAffected = changedNames.size();
         if (numRowsAffected > 0) {
-            notifyChange(uri, tableName, userId);
-            if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) inserted");
+            final Uri[] changedUris = new Uri[numRowsAffected];
+            for (int i = 0; i < numRowsAffected; i++) {
+                final String name = changedNames.get(i);
+                mGenerationRegistry.incrementGeneration(tableName, tableUserId, name);
+                changedUris[i] = Uri.withAppendedPath(uri, name);
+            }
+            notifyChange(changedUris, tableName, userId);
+            if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) changed");
         }
 
         return numRowsAffected;
@@ -584,29 +1164,20 @@ public class EunoiaSettingsProvider extends ContentProvider {
         String tableName = getTableNameFromUri(uri);
         checkWritePermissions(tableName);
 
-        EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName, userId));
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        final SettingsStore settingsStore = getOrEstablishSettingsStore(tableUserId);
 
         // Validate value if inserting int System table
         final String name = values.getAsString(Settings.NameValueTable.NAME);
         final String value = values.getAsString(Settings.NameValueTable.VALUE);
-        if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL.equals(tableName)) {
-            validateGlobalSettingNameValue(name, value);
-        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM.equals(tableName)) {
-            validateSystemSettingNameValue(name, value);
-        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE.equals(tableName)) {
-            validateSecureSettingValue(name, value);
-        }
+        validateSettingNameValue(tableName, name, value);
 
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        long rowId = db.insert(tableName, null, values);
+        settingsStore.putValue(tableName, tableUserId, name, value);
 
-        Uri returnUri = null;
-        if (rowId > -1) {
-            returnUri = Uri.withAppendedPath(uri, name);
-            notifyChange(returnUri, tableName, userId);
-            if (LOCAL_LOGV) Log.d(TAG, "Inserted row id: " + rowId + " into tableName: " +
-                    tableName);
-        }
+        final Uri returnUri = Uri.withAppendedPath(uri, name);
+        mGenerationRegistry.incrementGeneration(tableName, tableUserId, name);
+        notifyChange(returnUri, tableName, userId);
+        if (LOCAL_LOGV) Log.d(TAG, "Inserted " + name + " into tableName: " + tableName);
 
         return returnUri;
     }
@@ -630,13 +1201,26 @@ public class EunoiaSettingsProvider extends ContentProvider {
             String tableName = getTableNameFromUri(uri);
             checkWritePermissions(tableName);
 
-            EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName,
-                    callingUserId));
+            final int tableUserId = getUserIdForTable(tableName, callingUserId);
+            final SettingsStore settingsStore = getOrEstablishSettingsStore(tableUserId);
 
-            SQLiteDatabase db = dbHelper.getWritableDatabase();
-            numRowsAffected = db.delete(tableName, selection, selectionArgs);
+            if (selectionArgs.length == 1
+                    && NAME_SELECTION_PATTERN.matcher(selection).matches()) {
+                numRowsAffected = settingsStore.deleteValue(tableName, tableUserId,
+                        selectionArgs[0]) ? 1 : 0;
+            } else {
+                // Arbitrary selections can only be evaluated by the database itself
+                settingsStore.flush(tableUserId);
+                SQLiteDatabase db = getOrEstablishDatabase(tableUserId).getWritableDatabase();
+                numRowsAffected = db.delete(tableName, selection, selectionArgs);
+                if (numRowsAffected > 0) {
+                    settingsStore.reload(tableName, tableUserId);
+                }
+            }
 
             if (numRowsAffected > 0) {
+                incrementGenerationsForSelection(tableName, callingUserId, selection,
+                        selectionArgs);
                 notifyChange(uri, tableName, callingUserId);
                 if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) deleted");
             }
@@ -666,22 +1250,21 @@ public class EunoiaSettingsProvider extends ContentProvider {
         // Validate value if updating System table
         final String name = values.getAsString(Settings.NameValueTable.NAME);
         final String value = values.getAsString(Settings.NameValueTable.VALUE);
-        if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL.equals(tableName)) {
-            validateGlobalSettingNameValue(name, value);
-        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM.equals(tableName)) {
-            validateSystemSettingNameValue(name, value);
-        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE.equals(tableName)) {
-            validateSecureSettingValue(name, value);
-        }
+        validateSettingNameValue(tableName, name, value);
 
         int callingUserId = UserHandle.getCallingUserId();
-        EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName,
-                callingUserId));
+        final int tableUserId = getUserIdForTable(tableName, callingUserId);
+        EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
 
+        // Updates are rare enough to simply go to the database and reload the table after
+        final SettingsStore settingsStore = getOrEstablishSettingsStore(tableUserId);
+        settingsStore.flush(tableUserId);
         SQLiteDatabase db = dbHelper.getWritableDatabase();
         int numRowsAffected = db.update(tableName, values, selection, selectionArgs);
 
         if (numRowsAffected > 0) {
+            settingsStore.reload(tableName, tableUserId);
+            incrementGenerationsForSelection(tableName, callingUserId, selection, selectionArgs);
             notifyChange(uri, tableName, callingUserId);
             if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) updated");
         }
@@ -689,6 +1272,16 @@ public class EunoiaSettingsProvider extends ContentProvider {
         return numRowsAffected;
     }
 
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (getContext().checkCallingOrSelfPermission(android.Manifest.permission.DUMP)
+                != PackageManager.PERMISSION_GRANTED) {
+            pw.println("Permission Denial: can't dump " + TAG);
+            return;
+        }
+        mStats.dump(pw);
+    }
+
     // endregion Content Provider Methods
 
     /**
@@ -752,6 +1345,22 @@ public class EunoiaSettingsProvider extends ContentProvider {
         // manages concurrency itself, and it's important that we not run the db
         // initialization with any of our own locks held, so we're fine.
         dbHelper.getWritableDatabase();
+
+        // Serve reads of this user from memory from now on
+        mSettingsStore.loadIfNeeded(userId, dbHelper);
+    }
+
+    /**
+     * Makes sure the settings of a user are loaded into the {@link SettingsStore}, establishing
+     * the database of the user if needed.
+     * @param userId The user owning the tables, after mapping Global to the system user.
+     * @return The {@link SettingsStore}.
+     */
+    private SettingsStore getOrEstablishSettingsStore(int userId) {
+        final EunoiaDatabaseHelper dbHelper = getOrEstablishDatabase(userId);
+        // A racing establishDbTracking() may not have gotten to loading the user yet
+        mSettingsStore.loadIfNeeded(userId, dbHelper);
+        return mSettingsStore;
     }
 
     /**
@@ -847,6 +1456,25 @@ public class EunoiaSettingsProvider extends ContentProvider {
                 UserHandle.USER_SYSTEM : userId;
     }
 
+    /**
+     * Invalidates client cached values touched by a selection based write. A selection on a
+     * single name only invalidates that setting, anything else invalidates the whole table.
+     * @param tableName The table that was written to.
+     * @param userId The id of the user that performed the write.
+     * @param selection The selection of the write.
+     * @param selectionArgs The arguments of the selection.
+     */
+    private void incrementGenerationsForSelection(String tableName, int userId, String selection,
+            String[] selectionArgs) {
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        if (selection != null && selectionArgs != null && selectionArgs.length == 1
+                && NAME_SELECTION_PATTERN.matcher(selection).matches()) {
+            mGenerationRegistry.incrementGeneration(tableName, tableUserId, selectionArgs[0]);
+        } else {
+            mGenerationRegistry.incrementGenerations(tableName, tableUserId);
+        }
+    }
+
     /**
      * Modify setting version for an updated table before notifying of change. The
      * {@link EunoiaSettings} class uses these to provide client-side caches.
@@ -854,6 +1482,16 @@ public class EunoiaSettingsProvider extends ContentProvider {
      * @param userId
      */
     private void notifyChange(Uri uri, String tableName, int userId) {
+        notifyChange(new Uri[] { uri }, tableName, userId);
+    }
+
+    /**
+     * Modify setting version for an updated table once before notifying of all changes with
+     * a single notification.
+     * @param uris to send notifications for, all in the same table
+     * @param userId
+     */
+    private void notifyChange(Uri[] uris, String tableName, int userId) {
         String property = null;
         final boolean isGlobal = tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL);
         if (tableName.equals(EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM)) {
@@ -870,18 +1508,50 @@ public class EunoiaSettingsProvider extends ContentProvider {
             SystemProperties.set(property, Long.toString(version));
         }
 
+        mSnapshotRegistry.onTableChanged(tableName, getUserIdForTable(tableName, userId));
+
+        // The version is bumped right away, as client caches rely on it to see this write.
+        // Observers are notified shortly after, together with any further changes.
         final int notifyTarget = isGlobal ? UserHandle.USER_ALL : userId;
-        final long oldId = Binder.clearCallingIdentity();
+        mChangeNotifier.notifyChange(uris, notifyTarget);
+        if (LOCAL_LOGV) Log.v(TAG, "notifying for " + notifyTarget + ": " + Arrays.toString(uris));
+    }
+
+    private void validateSettingNameValue(String tableName, String name, String value) {
+        if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL.equals(tableName)) {
+            validateGlobalSettingNameValue(name, value);
+        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM.equals(tableName)) {
+            validateSystemSettingNameValue(name, value);
+        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE.equals(tableName)) {
+            validateSecureSettingValue(name, value);
+        }
+    }
+
+    /**
+     * @return the index of the first invalid name/value pair, or -1 if all are valid
+     */
+    private int validateSettingsBatch(String tableName, String[] names, String[] values) {
+        if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL.equals(tableName)) {
+            return EunoiaSettings.Global.validateBatch(names, values);
+        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM.equals(tableName)) {
+            return EunoiaSettings.System.validateBatch(names, values);
+        } else if (EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE.equals(tableName)) {
+            return EunoiaSettings.Secure.validateBatch(names, values);
+        }
+        return -1;
+    }
+
+    private boolean isValidSettingNameValue(String tableName, String name, String value) {
         try {
-            getContext().getContentResolver().notifyChange(uri, null, true, notifyTarget);
-        } finally {
-            Binder.restoreCallingIdentity(oldId);
+            validateSettingNameValue(tableName, name, value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
-        if (LOCAL_LOGV) Log.v(TAG, "notifying for " + notifyTarget + ": " + uri);
     }
 
     private void validateGlobalSettingNameValue(String name, String value) {
-        EunoiaSettings.Validator validator = EunoiaSettings.Global.VALIDATORS.get(name);
+        EunoiaSettings.Validator validator = EunoiaSettings.Global.getValidator(name);
 
         // Not all global settings have validators, but if a validator exists, the validate method
         // should return true
@@ -892,7 +1562,7 @@ public class EunoiaSettingsProvider extends ContentProvider {
     }
 
     private void validateSystemSettingNameValue(String name, String value) {
-        EunoiaSettings.Validator validator = EunoiaSettings.System.VALIDATORS.get(name);
+        EunoiaSettings.Validator validator = EunoiaSettings.System.getValidator(name);
         if (validator == null) {
             throw new IllegalArgumentException("Invalid setting: " + name);
         }
@@ -904,7 +1574,7 @@ public class EunoiaSettingsProvider extends ContentProvider {
     }
 
     private void validateSecureSettingValue(String name, String value) {
-        EunoiaSettings.Validator validator = EunoiaSettings.Secure.VALIDATORS.get(name);
+        EunoiaSettings.Validator validator = EunoiaSettings.Secure.getValidator(name);
 
         // Not all secure settings have validators, but if a validator exists, the validate method
         // should return true
@@ -913,6 +1583,4 @@ public class EunoiaSettingsProvider extends ContentProvider {
                     + " for setting: " + name);
         }
     }
-
-    // TODO Add caching
 }
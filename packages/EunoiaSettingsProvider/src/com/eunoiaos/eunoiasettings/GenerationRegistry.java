@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings;
+
+import android.os.Bundle;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.MemoryIntArray;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import eunoiaos.providers.EunoiaSettings;
+
+import java.io.IOException;
+
+/**
+ * The GenerationRegistry keeps a generation number for every existing setting that was handed
+ * out through the call() fast path. The numbers of a table live in a {@link MemoryIntArray} which
+ * is shared read-only with {@link EunoiaSettings} clients, so that their caches can tell whether
+ * a single value is still current without a round trip to the provider. Settings that do not
+ * exist all share one generation per table, which every write to the table bumps, so that
+ * lookups of arbitrary names cannot use up the slots.
+ */
+final class GenerationRegistry {
+    private static final String TAG = "GenerationRegistry";
+    private static final boolean LOCAL_LOGV = false;
+
+    // The slot shared by all settings of a table that do not exist
+    private static final int NON_EXISTENT_INDEX = 0;
+
+    private final Object mLock = new Object();
+
+    // Keyed by makeKey(tableName, userId)
+    @GuardedBy("mLock")
+    private final SparseArray<Backing> mBackings = new SparseArray<Backing>();
+
+    private static final class Backing {
+        final MemoryIntArray mArray;
+        final ArrayMap<String, Integer> mIndices = new ArrayMap<String, Integer>();
+
+        Backing(MemoryIntArray array) {
+            mArray = array;
+        }
+    }
+
+    /**
+     * Adds the index and current generation of a setting to a call() result. Must be called
+     * before the value itself is read, so that a racing write can only leave the client with
+     * an outdated generation and never with an outdated value.
+     * @param result The bundle to add the generation data to.
+     * @param tableName The table the setting lives in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param name The name of the setting.
+     * @param exists Whether the setting exists.
+     * @param trackGeneration Whether the client asked for the generation array itself.
+     */
+    void addGenerationData(Bundle result, String tableName, int userId, String name,
+            boolean exists, boolean trackGeneration) {
+        synchronized (mLock) {
+            final Backing backing = getOrCreateBackingLocked(tableName, userId);
+            if (backing == null) {
+                return;
+            }
+            final int index =
+                    exists ? getOrCreateIndexLocked(backing, name) : NON_EXISTENT_INDEX;
+            if (index < 0) {
+                // Out of slots; the client falls back to the table version for this setting
+                return;
+            }
+            try {
+                result.putInt(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY, index);
+                result.putInt(EunoiaSettings.CALL_METHOD_GENERATION_KEY,
+                        backing.mArray.get(index));
+                if (trackGeneration) {
+                    result.putParcelable(EunoiaSettings.CALL_METHOD_TRACK_GENERATION_KEY,
+                            backing.mArray);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading generation of " + name, e);
+                result.remove(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY);
+                result.remove(EunoiaSettings.CALL_METHOD_GENERATION_KEY);
+            }
+        }
+    }
+
+    /**
+     * Adds the indices and current generations of several settings to a call() result, as
+     * parallel arrays. Settings which could not be given a slot get an index of -1. Must be
+     * called before the values themselves are read.
+     * @param result The bundle to add the generation data to.
+     * @param tableName The table the settings live in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param names The names of the settings.
+     * @param exists Whether each of the settings exists, in the order of the names.
+     * @param trackGeneration Whether the client asked for the generation array itself.
+     */
+    void addGenerationData(Bundle result, String tableName, int userId, String[] names,
+            boolean[] exists, boolean trackGeneration) {
+        synchronized (mLock) {
+            final Backing backing = getOrCreateBackingLocked(tableName, userId);
+            if (backing == null) {
+                return;
+            }
+            final int[] indices = new int[names.length];
+            final int[] generations = new int[names.length];
+            try {
+                for (int i = 0; i < names.length; i++) {
+                    indices[i] = exists[i]
+                            ? getOrCreateIndexLocked(backing, names[i]) : NON_EXISTENT_INDEX;
+                    generations[i] = indices[i] >= 0 ? backing.mArray.get(indices[i]) : 0;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading generations of " + tableName, e);
+                return;
+            }
+            result.putIntArray(EunoiaSettings.CALL_METHOD_GENERATION_INDEX_KEY, indices);
+            result.putIntArray(EunoiaSettings.CALL_METHOD_GENERATION_KEY, generations);
+            if (trackGeneration) {
+                result.putParcelable(EunoiaSettings.CALL_METHOD_TRACK_GENERATION_KEY,
+                        backing.mArray);
+            }
+        }
+    }
+
+    /**
+     * Invalidates client cached values of a single setting. As the write may have created the
+     * setting, the cached absence of all settings of the table is invalidated as well.
+     * @param tableName The table the setting lives in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param name The name of the setting that changed.
+     */
+    void incrementGeneration(String tableName, int userId, String name) {
+        synchronized (mLock) {
+            final Backing backing = mBackings.get(makeKey(tableName, userId));
+            if (backing == null) {
+                return;
+            }
+            final Integer index = backing.mIndices.get(name);
+            if (index != null) {
+                incrementLocked(backing, index);
+            }
+            incrementLocked(backing, NON_EXISTENT_INDEX);
+        }
+    }
+
+    /**
+     * Invalidates client cached values of every setting in a table. Used when a write cannot be
+     * attributed to a single setting, e.g. a delete with an arbitrary selection.
+     * @param tableName The table that changed.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     */
+    void incrementGenerations(String tableName, int userId) {
+        synchronized (mLock) {
+            final Backing backing = mBackings.get(makeKey(tableName, userId));
+            if (backing == null) {
+                return;
+            }
+            for (int i = backing.mIndices.size() - 1; i >= 0; i--) {
+                incrementLocked(backing, backing.mIndices.valueAt(i));
+            }
+            incrementLocked(backing, NON_EXISTENT_INDEX);
+        }
+    }
+
+    /**
+     * Releases the generation arrays of a removed user.
+     * @param userId The id of the user that is removed.
+     */
+    void onUserRemoved(int userId) {
+        synchronized (mLock) {
+            for (int i = mBackings.size() - 1; i >= 0; i--) {
+                if (getUserIdFromKey(mBackings.keyAt(i)) == userId) {
+                    closeQuietly(mBackings.valueAt(i).mArray);
+                    mBackings.removeAt(i);
+                }
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private Backing getOrCreateBackingLocked(String tableName, int userId) {
+        final int key = makeKey(tableName, userId);
+        Backing backing = mBackings.get(key);
+        if (backing == null) {
+            try {
+                backing = new Backing(new MemoryIntArray(MemoryIntArray.getMaxSize()));
+                mBackings.put(key, backing);
+                if (LOCAL_LOGV) {
+                    Log.v(TAG, "Created generation array for " + tableName + " of " + userId);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error creating generation array for " + tableName, e);
+            }
+        }
+        return backing;
+    }
+
+    @GuardedBy("mLock")
+    private static int getOrCreateIndexLocked(Backing backing, String name) {
+        final Integer index = backing.mIndices.get(name);
+        if (index != null) {
+            return index;
+        }
+        // The shared slot comes first
+        final int newIndex = backing.mIndices.size() + 1;
+        if (newIndex >= backing.mArray.size()) {
+            return -1;
+        }
+        backing.mIndices.put(name, newIndex);
+        return newIndex;
+    }
+
+    @GuardedBy("mLock")
+    private static void incrementLocked(Backing backing, int index) {
+        try {
+            backing.mArray.set(index, backing.mArray.get(index) + 1);
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating generation at " + index, e);
+        }
+    }
+
+    private static int makeKey(String tableName, int userId) {
+        final int type;
+        switch (tableName) {
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM:
+                type = 0;
+                break;
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE:
+                type = 1;
+                break;
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL:
+                type = 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid table: " + tableName);
+        }
+        return (userId << 2) | type;
+    }
+
+    private static int getUserIdFromKey(int key) {
+        return key >>> 2;
+    }
+
+    private static void closeQuietly(MemoryIntArray array) {
+        try {
+            array.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import com.eunoiaos.eunoiasettings.EunoiaDatabaseHelper.EunoiaTableNames;
+
+import eunoiaos.providers.EunoiaSettings;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Usage statistics of the call() interface of {@link EunoiaSettingsProvider}: how often each
+ * method and table is used, how long requests take, which keys and uids are the busiest and
+ * how well the caches of {@link EunoiaSettings} clients do. Memory use is bounded no matter
+ * what clients ask for. Thread-safe.
+ */
+final class ProviderStats {
+    private static final int OP_GET = 0;
+    private static final int OP_PUT = 1;
+    private static final int OP_LIST = 2;
+    private static final int OP_DELETE = 3;
+    private static final String[] OP_NAMES = new String[] { "get", "put", "list", "delete" };
+
+    private static final String[] TABLE_NAMES = new String[] {
+            EunoiaTableNames.TABLE_SYSTEM,
+            EunoiaTableNames.TABLE_SECURE,
+            EunoiaTableNames.TABLE_GLOBAL
+    };
+
+    // How many keys and uids dump() lists
+    private static final int TOP_COUNT = 10;
+
+    // How many keys are tracked at once to find the busiest ones
+    private static final int TRACKED_KEYS = 64;
+
+    /** Table and operation of every call() method that works on a table. */
+    private static final ArrayMap<String, MethodInfo> METHODS = new ArrayMap<>();
+    static {
+        addMethods(0,
+                EunoiaSettings.CALL_METHOD_GET_SYSTEM,
+                EunoiaSettings.CALL_METHOD_GET_MANY_SYSTEM,
+                EunoiaSettings.CALL_METHOD_GET_ALL_SYSTEM,
+                EunoiaSettings.CALL_METHOD_GET_SNAPSHOT_SYSTEM,
+                EunoiaSettings.CALL_METHOD_PUT_SYSTEM,
+                EunoiaSettings.CALL_METHOD_PUT_MANY_SYSTEM,
+                EunoiaSettings.CALL_METHOD_LIST_SYSTEM,
+                EunoiaSettings.CALL_METHOD_DELETE_SYSTEM,
+                EunoiaSettings.CALL_METHOD_EXPORT_SYSTEM,
+                EunoiaSettings.CALL_METHOD_IMPORT_SYSTEM);
+        addMethods(1,
+                EunoiaSettings.CALL_METHOD_GET_SECURE,
+                EunoiaSettings.CALL_METHOD_GET_MANY_SECURE,
+                EunoiaSettings.CALL_METHOD_GET_ALL_SECURE,
+                EunoiaSettings.CALL_METHOD_GET_SNAPSHOT_SECURE,
+                EunoiaSettings.CALL_METHOD_PUT_SECURE,
+                EunoiaSettings.CALL_METHOD_PUT_MANY_SECURE,
+                EunoiaSettings.CALL_METHOD_LIST_SECURE,
+                EunoiaSettings.CALL_METHOD_DELETE_SECURE,
+                EunoiaSettings.CALL_METHOD_EXPORT_SECURE,
+                EunoiaSettings.CALL_METHOD_IMPORT_SECURE);
+        addMethods(2,
+                EunoiaSettings.CALL_METHOD_GET_GLOBAL,
+                EunoiaSettings.CALL_METHOD_GET_MANY_GLOBAL,
+                EunoiaSettings.CALL_METHOD_GET_ALL_GLOBAL,
+                EunoiaSettings.CALL_METHOD_GET_SNAPSHOT_GLOBAL,
+                EunoiaSettings.CALL_METHOD_PUT_GLOBAL,
+                EunoiaSettings.CALL_METHOD_PUT_MANY_GLOBAL,
+                EunoiaSettings.CALL_METHOD_LIST_GLOBAL,
+                EunoiaSettings.CALL_METHOD_DELETE_GLOBAL,
+                EunoiaSettings.CALL_METHOD_EXPORT_GLOBAL,
+                EunoiaSettings.CALL_METHOD_IMPORT_GLOBAL);
+    }
+
+    private static final class MethodInfo {
+        final int mTable;
+        final int mOp;
+        final boolean mMany;
+
+        MethodInfo(int table, int op, boolean many) {
+            mTable = table;
+            mOp = op;
+            mMany = many;
+        }
+    }
+
+    private static void addMethods(int table, String get, String getMany, String getAll,
+            String getSnapshot, String put, String putMany, String list, String delete,
+            String exportAll, String importAll) {
+        METHODS.put(get, new MethodInfo(table, OP_GET, false));
+        METHODS.put(getMany, new MethodInfo(table, OP_GET, true));
+        METHODS.put(getAll, new MethodInfo(table, OP_GET, false));
+        METHODS.put(getSnapshot, new MethodInfo(table, OP_GET, false));
+        METHODS.put(put, new MethodInfo(table, OP_PUT, false));
+        METHODS.put(putMany, new MethodInfo(table, OP_PUT, true));
+        METHODS.put(list, new MethodInfo(table, OP_LIST, false));
+        METHODS.put(delete, new MethodInfo(table, OP_DELETE, false));
+        METHODS.put(exportAll, new MethodInfo(table, OP_LIST, false));
+        METHODS.put(importAll, new MethodInfo(table, OP_PUT, false));
+    }
+
+    private final Object mLock = new Object();
+
+    private final long mStartTime = SystemClock.elapsedRealtime();
+
+    // Indexed like METHODS, with calls of any other method counted at the end
+    @GuardedBy("mLock")
+    private final long[] mMethodCounts = new long[METHODS.size() + 1];
+
+    // Indexed like TABLE_NAMES
+    @GuardedBy("mLock")
+    private final long[] mTableCounts = new long[TABLE_NAMES.length];
+
+    // Indexed by operation
+    @GuardedBy("mLock")
+    private final LatencyHistogram[] mLatencies = new LatencyHistogram[] {
+            new LatencyHistogram(), new LatencyHistogram(),
+            new LatencyHistogram(), new LatencyHistogram()
+    };
+
+    @GuardedBy("mLock")
+    private final HeavyHitters mKeys = new HeavyHitters(TRACKED_KEYS);
+
+    // Uids are few enough to count exactly
+    @GuardedBy("mLock")
+    private final SparseLongArray mUidCounts = new SparseLongArray();
+
+    // Cache hits and misses reported by the clients of each uid
+    @GuardedBy("mLock")
+    private final SparseArray<long[]> mClientCacheStats = new SparseArray<long[]>();
+
+    /**
+     * Records a finished call() request.
+     * @param method The call() method.
+     * @param request The request argument of the call, naming the key for single key methods.
+     * @param args The extras of the call.
+     * @param uid The uid of the caller.
+     * @param durationNanos How long the request took.
+     */
+    void recordCall(String method, String request, Bundle args, int uid, long durationNanos) {
+        final int index = METHODS.indexOfKey(method);
+        final MethodInfo info = index >= 0 ? METHODS.valueAt(index) : null;
+
+        synchronized (mLock) {
+            mMethodCounts[index >= 0 ? index : METHODS.size()]++;
+            mUidCounts.put(uid, mUidCounts.get(uid) + 1);
+            if (args != null && args.containsKey(EunoiaSettings.CALL_METHOD_CACHE_HITS_KEY)) {
+                long[] cacheStats = mClientCacheStats.get(uid);
+                if (cacheStats == null) {
+                    cacheStats = new long[2];
+                    mClientCacheStats.put(uid, cacheStats);
+                }
+                cacheStats[0] += args.getLong(EunoiaSettings.CALL_METHOD_CACHE_HITS_KEY);
+                cacheStats[1] += args.getLong(EunoiaSettings.CALL_METHOD_CACHE_MISSES_KEY);
+            }
+            if (info == null) {
+                return;
+            }
+
+            mTableCounts[info.mTable]++;
+            mLatencies[info.mOp].record(durationNanos / 1000);
+            if (!info.mMany) {
+                if (request != null) {
+                    mKeys.add(request);
+                }
+            } else if (args != null) {
+                addKeys(args.getStringArray(EunoiaSettings.CALL_METHOD_NAMES_KEY));
+                addKeys(args.getStringArray(EunoiaSettings.CALL_METHOD_DELETED_NAMES_KEY));
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void addKeys(String[] names) {
+        if (names != null) {
+            for (String name : names) {
+                mKeys.add(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics in the format of the CALL_METHOD_STATS call() method.
+     */
+    Bundle toBundle() {
+        final Bundle result = new Bundle();
+        synchronized (mLock) {
+            final Bundle methods = new Bundle();
+            for (int i = 0; i < METHODS.size(); i++) {
+                methods.putLong(METHODS.keyAt(i), mMethodCounts[i]);
+            }
+            result.putBundle(EunoiaSettings.CALL_METHOD_STATS_METHODS_KEY, methods);
+
+            final Bundle tables = new Bundle();
+            for (int i = 0; i < TABLE_NAMES.length; i++) {
+                tables.putLong(TABLE_NAMES[i], mTableCounts[i]);
+            }
+            result.putBundle(EunoiaSettings.CALL_METHOD_STATS_TABLES_KEY, tables);
+
+            final Bundle latencies = new Bundle();
+            for (int i = 0; i < OP_NAMES.length; i++) {
+                final LatencyHistogram histogram = mLatencies[i];
+                latencies.putLongArray(OP_NAMES[i], new long[] {
+                        histogram.getCount(),
+                        histogram.getPercentile(50),
+                        histogram.getPercentile(90),
+                        histogram.getPercentile(99),
+                        histogram.getMax() });
+            }
+            result.putBundle(EunoiaSettings.CALL_METHOD_STATS_LATENCY_KEY, latencies);
+
+            final Bundle keys = new Bundle();
+            for (int slot : mKeys.getTop(TOP_COUNT)) {
+                keys.putLong(mKeys.getName(slot), mKeys.getCount(slot));
+            }
+            result.putBundle(EunoiaSettings.CALL_METHOD_STATS_TOP_KEYS_KEY, keys);
+
+            final Bundle uids = new Bundle();
+            for (int i : getTopUidIndices()) {
+                uids.putLong(Integer.toString(mUidCounts.keyAt(i)), mUidCounts.valueAt(i));
+            }
+            result.putBundle(EunoiaSettings.CALL_METHOD_STATS_TOP_UIDS_KEY, uids);
+
+            final Bundle cache = new Bundle();
+            for (int i = 0; i < mClientCacheStats.size(); i++) {
+                cache.putLongArray(Integer.toString(mClientCacheStats.keyAt(i)),
+                        mClientCacheStats.valueAt(i).clone());
+            }
+            result.putBundle(EunoiaSettings.CALL_METHOD_STATS_CACHE_KEY, cache);
+        }
+        return result;
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("Call statistics over the last "
+                    + (SystemClock.elapsedRealtime() - mStartTime) / 1000 + "s:");
+
+            pw.println("  Methods:");
+            for (int i = 0; i < METHODS.size(); i++) {
+                if (mMethodCounts[i] > 0) {
+                    pw.println("    " + METHODS.keyAt(i) + ": " + mMethodCounts[i]);
+                }
+            }
+            if (mMethodCounts[METHODS.size()] > 0) {
+                pw.println("    (other): " + mMethodCounts[METHODS.size()]);
+            }
+
+            pw.println("  Tables:");
+            for (int i = 0; i < TABLE_NAMES.length; i++) {
+                pw.println("    " + TABLE_NAMES[i] + ": " + mTableCounts[i]);
+            }
+
+            pw.println("  Latency (us):");
+            for (int i = 0; i < OP_NAMES.length; i++) {
+                final LatencyHistogram histogram = mLatencies[i];
+                pw.println("    " + OP_NAMES[i] + ": count=" + histogram.getCount()
+                        + " p50=" + histogram.getPercentile(50)
+                        + " p90=" + histogram.getPercentile(90)
+                        + " p99=" + histogram.getPercentile(99)
+                        + " max=" + histogram.getMax());
+            }
+
+            pw.println("  Top keys (approximate):");
+            for (int slot : mKeys.getTop(TOP_COUNT)) {
+                pw.println("    " + mKeys.getName(slot) + ": " + mKeys.getCount(slot)
+                        + " (+/- " + mKeys.getError(slot) + ")");
+            }
+
+            pw.println("  Top uids:");
+            for (int i : getTopUidIndices()) {
+                pw.println("    " + mUidCounts.keyAt(i) + ": " + mUidCounts.valueAt(i));
+            }
+
+            pw.println("  Client caches:");
+            for (int i = 0; i < mClientCacheStats.size(); i++) {
+                final long[] cacheStats = mClientCacheStats.valueAt(i);
+                final long total = cacheStats[0] + cacheStats[1];
+                pw.println("    " + mClientCacheStats.keyAt(i) + ": hits=" + cacheStats[0]
+                        + " misses=" + cacheStats[1] + " hit ratio="
+                        + (total > 0 ? (100 * cacheStats[0] / total) + "%" : "-"));
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private int[] getTopUidIndices() {
+        final int count = mUidCounts.size();
+        final long[] counts = new long[count];
+        for (int i = 0; i < count; i++) {
+            counts[i] = mUidCounts.valueAt(i);
+        }
+        return getTopIndices(counts, count, TOP_COUNT);
+    }
+
+    /**
+     * Returns the indices of the largest of the first {@code size} counts, largest first.
+     */
+    private static int[] getTopIndices(long[] counts, int size, int top) {
+        final int[] result = new int[Math.min(size, top)];
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] <= 0) {
+                continue;
+            }
+            // Insertion into the short sorted result
+            int j = Math.min(found, result.length - 1);
+            if (found == result.length && counts[i] <= counts[result[j]]) {
+                continue;
+            }
+            while (j > 0 && counts[result[j - 1]] < counts[i]) {
+                result[j] = result[j - 1];
+                j--;
+            }
+            result[j] = i;
+            if (found < result.length) {
+                found++;
+            }
+        }
+        return found == result.length ? result : Arrays.copyOf(result, found);
+    }
+
+    /**
+     * A log-linear histogram of latencies in microseconds in the manner of HdrHistogram. Values
+     * are grouped by their highest set bit and split linearly below it into
+     * {@link #SUB_BUCKETS} buckets, which bounds the error of every reported value to
+     * 1/{@link #SUB_BUCKETS} of it at a fixed size. Not thread-safe.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        // Values of 2^(MAX_SHIFT + SUB_BUCKET_BITS + 1) microseconds and more, about a
+        // minute, land in the last bucket
+        private static final int MAX_SHIFT = 22;
+
+        private final long[] mCounts = new long[((MAX_SHIFT + 2) << SUB_BUCKET_BITS)];
+        private long mCount;
+        private long mMax;
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mCounts[indexOf(value)]++;
+            mCount++;
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getMax() {
+            return mMax;
+        }
+
+        /**
+         * Returns the highest value equivalent to the bucket holding the given percentile.
+         */
+        long getPercentile(int percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            final long target = Math.max(1, (mCount * percentile + 99) / 100);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= target) {
+                    return Math.min(highestValueOf(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        static int indexOf(long value) {
+            final int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+            final int shift = Math.max(0, msb - SUB_BUCKET_BITS);
+            if (shift > MAX_SHIFT) {
+                return ((MAX_SHIFT + 2) << SUB_BUCKET_BITS) - 1;
+            }
+            // Values below 2 * SUB_BUCKETS map to themselves; above, the shifted value has its
+            // highest bit at SUB_BUCKET_BITS and the shift selects the group.
+            return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+        }
+
+        static long highestValueOf(int index) {
+            final int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+            final long mantissa = index - (shift << SUB_BUCKET_BITS);
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Finds the most frequent names in a stream with the Space-Saving algorithm: at most
+     * {@code capacity} names are counted, and a new name takes over the slot of the least
+     * frequent one along with its count, which then bounds the error of the new count. Every
+     * name more frequent than 1/capacity of the stream is guaranteed to be tracked. Not
+     * thread-safe.
+     */
+    static final class HeavyHitters {
+        private final String[] mNames;
+        private final long[] mCounts;
+        private final long[] mErrors;
+        // Slot of each tracked name; slots are below 128, so boxing them never allocates
+        private final ArrayMap<String, Integer> mSlots;
+        private int mSize;
+
+        HeavyHitters(int capacity) {
+            mNames = new String[capacity];
+            mCounts = new long[capacity];
+            mErrors = new long[capacity];
+            mSlots = new ArrayMap<String, Integer>(capacity);
+        }
+
+        void add(String name) {
+            final Integer slot = mSlots.get(name);
+            if (slot != null) {
+                mCounts[slot]++;
+                return;
+            }
+            if (mSize < mNames.length) {
+                mNames[mSize] = name;
+                mCounts[mSize] = 1;
+                mErrors[mSize] = 0;
+                mSlots.put(name, mSize);
+                mSize++;
+                return;
+            }
+            int min = 0;
+            for (int i = 1; i < mSize; i++) {
+                if (mCounts[i] < mCounts[min]) {
+                    min = i;
+                }
+            }
+            mSlots.remove(mNames[min]);
+            mNames[min] = name;
+            mErrors[min] = mCounts[min];
+            mCounts[min]++;
+            mSlots.put(name, min);
+        }
+
+        /** Returns the slots of the most frequent names, most frequent first. */
+        int[] getTop(int top) {
+            return getTopIndices(mCounts, mSize, top);
+        }
+
+        String getName(int slot) {
+            return mNames[slot];
+        }
+
+        long getCount(int slot) {
+            return mCounts[slot];
+        }
+
+        long getError(int slot) {
+            return mErrors[slot];
+        }
+    }
+}
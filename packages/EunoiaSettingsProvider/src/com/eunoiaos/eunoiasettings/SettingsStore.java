@@ -0,0 +1,463 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.List;
+
+/**
+ * The SettingsStore holds every table of every loaded user in memory and is the source of truth
+ * for reads through the call() fast path. Writes are applied to memory right away and persisted
+ * to the user's {@link EunoiaDatabaseHelper} in batches on a background thread. Anything that
+ * needs the database itself to be current, like a raw query, shutdown or a user stopping, has to
+ * call {@link #flush} first.
+ */
+final class SettingsStore {
+    private static final String TAG = "SettingsStore";
+    private static final boolean LOCAL_LOGV = false;
+
+    // Coalesce writes arriving within this window into a single transaction per table
+    private static final long WRITE_DELAY_MS = 200;
+
+    // Back off before retrying a batch that failed to persist, e.g. while the disk is full
+    private static final long RETRY_DELAY_MS = 5000;
+
+    private static final String[] NAME_VALUE_PROJECTION = new String[] {
+            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE };
+
+    // Marks a pending delete, as null is a valid value to write
+    private static final Object DELETED = new Object();
+
+    private final Object mLock = new Object();
+
+    // Serializes persisting, so that batches reach the database in the order they were taken
+    private final Object mWriteLock = new Object();
+
+    // Keyed by makeKey(tableName, userId)
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayMap<String, String>> mTables =
+            new SparseArray<ArrayMap<String, String>>();
+
+    // Keyed by makeKey(tableName, userId), the latest pending value or DELETED per name
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayMap<String, Object>> mPendingWrites =
+            new SparseArray<ArrayMap<String, Object>>();
+
+    @GuardedBy("mLock")
+    private final SparseArray<EunoiaDatabaseHelper> mDbHelpers =
+            new SparseArray<EunoiaDatabaseHelper>();
+
+    @GuardedBy("mLock")
+    private boolean mPersistScheduled;
+
+    private final Handler mHandler;
+
+    private final Runnable mPersistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            persist(UserHandle.USER_ALL);
+        }
+    };
+
+    SettingsStore() {
+        final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Loads all tables of a user into memory, unless they already are.
+     * @param userId The id of the user to load the tables of.
+     * @param dbHelper The database of the user, also used to persist later writes.
+     */
+    void loadIfNeeded(int userId, EunoiaDatabaseHelper dbHelper) {
+        synchronized (mLock) {
+            if (mDbHelpers.get(userId) == dbHelper) {
+                return;
+            }
+            final SQLiteDatabase db = dbHelper.getReadableDatabase();
+            loadTableLocked(db, EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM, userId);
+            loadTableLocked(db, EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE, userId);
+            if (userId == UserHandle.USER_SYSTEM) {
+                loadTableLocked(db, EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL, userId);
+            }
+            mDbHelpers.put(userId, dbHelper);
+        }
+    }
+
+    /**
+     * Reloads a table from the database, after it was written to directly. Pending writes of
+     * the user must have been flushed before the database was written to. Writes that arrived
+     * since are still pending, and are applied on top of the reloaded table, as they will be
+     * persisted on top of the database later.
+     * @param tableName The table to reload.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     */
+    void reload(String tableName, int userId) {
+        // Wait for a batch that is being persisted, so that it is part of what is loaded
+        synchronized (mWriteLock) {
+            synchronized (mLock) {
+                final EunoiaDatabaseHelper dbHelper = mDbHelpers.get(userId);
+                if (dbHelper == null) {
+                    return;
+                }
+                final int key = makeKey(tableName, userId);
+                loadTableLocked(dbHelper.getReadableDatabase(), tableName, userId);
+                final ArrayMap<String, Object> pending = mPendingWrites.get(key);
+                if (pending != null) {
+                    final ArrayMap<String, String> table = mTables.get(key);
+                    for (int i = 0; i < pending.size(); i++) {
+                        final Object value = pending.valueAt(i);
+                        if (value == DELETED) {
+                            table.remove(pending.keyAt(i));
+                        } else {
+                            table.put(pending.keyAt(i), (String) value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tableName The table the setting lives in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param name The name of the setting.
+     * @return The value of the setting, or null if it is not present.
+     */
+    String getValue(String tableName, int userId, String name) {
+        synchronized (mLock) {
+            final ArrayMap<String, String> table = mTables.get(makeKey(tableName, userId));
+            return table != null ? table.get(name) : null;
+        }
+    }
+
+    /**
+     * @param tableName The table the settings live in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param names The names of the settings.
+     * @return The values of the settings in the order of the names, null where not present.
+     */
+    String[] getValues(String tableName, int userId, String[] names) {
+        final String[] values = new String[names.length];
+        synchronized (mLock) {
+            final ArrayMap<String, String> table = mTables.get(makeKey(tableName, userId));
+            if (table != null) {
+                for (int i = 0; i < names.length; i++) {
+                    values[i] = table.get(names[i]);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param tableName The table to copy.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @return A copy of all settings in the table.
+     */
+    ArrayMap<String, String> getAllValues(String tableName, int userId) {
+        synchronized (mLock) {
+            final ArrayMap<String, String> table = mTables.get(makeKey(tableName, userId));
+            return table != null
+                    ? new ArrayMap<String, String>(table) : new ArrayMap<String, String>();
+        }
+    }
+
+    /**
+     * Writes a setting to memory and schedules persisting it.
+     * @param tableName The table the setting lives in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param name The name of the setting.
+     * @param value The new value of the setting.
+     */
+    void putValue(String tableName, int userId, String name, String value) {
+        synchronized (mLock) {
+            final int key = makeKey(tableName, userId);
+            getOrCreateTableLocked(key).put(name, value);
+            getOrCreatePendingLocked(key).put(name, value);
+            schedulePersistLocked();
+        }
+    }
+
+    /**
+     * Writes several settings to memory at once and schedules persisting them. Names without a
+     * value are deleted. Readers see either none or all of the changes.
+     * @param tableName The table the settings live in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param names The names of the settings to write.
+     * @param values The new values of the settings, in the order of the names.
+     * @param deletedNames The names of the settings to delete.
+     * @param changedNames Receives the names of all settings that changed.
+     */
+    void putValues(String tableName, int userId, String[] names, String[] values,
+            String[] deletedNames, List<String> changedNames) {
+        synchronized (mLock) {
+            final int key = makeKey(tableName, userId);
+            final ArrayMap<String, String> table = getOrCreateTableLocked(key);
+            final ArrayMap<String, Object> pending = getOrCreatePendingLocked(key);
+            for (int i = 0; i < names.length; i++) {
+                table.put(names[i], values[i]);
+                pending.put(names[i], values[i]);
+                changedNames.add(names[i]);
+            }
+            for (String name : deletedNames) {
+                if (table.containsKey(name)) {
+                    table.remove(name);
+                    pending.put(name, DELETED);
+                    changedNames.add(name);
+                }
+            }
+            schedulePersistLocked();
+        }
+    }
+
+    /**
+     * Deletes a setting from memory and schedules persisting that.
+     * @param tableName The table the setting lives in.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @param name The name of the setting.
+     * @return Whether the setting was present.
+     */
+    boolean deleteValue(String tableName, int userId, String name) {
+        synchronized (mLock) {
+            final int key = makeKey(tableName, userId);
+            final ArrayMap<String, String> table = mTables.get(key);
+            if (table == null || !table.containsKey(name)) {
+                return false;
+            }
+            table.remove(name);
+            getOrCreatePendingLocked(key).put(name, DELETED);
+            schedulePersistLocked();
+            return true;
+        }
+    }
+
+    /**
+     * Persists all pending writes of a user and waits until they are committed to disk. Writes
+     * that fail to commit stay pending and are retried later.
+     * @param userId The id of the user, or {@link UserHandle#USER_ALL} for every user.
+     */
+    void flush(int userId) {
+        persist(userId);
+    }
+
+    /**
+     * Drops the tables and pending writes of a removed user.
+     * @param userId The id of the user that is removed.
+     */
+    void onUserRemoved(int userId) {
+        synchronized (mLock) {
+            for (int i = mTables.size() - 1; i >= 0; i--) {
+                if (getUserIdFromKey(mTables.keyAt(i)) == userId) {
+                    mTables.removeAt(i);
+                }
+            }
+            for (int i = mPendingWrites.size() - 1; i >= 0; i--) {
+                if (getUserIdFromKey(mPendingWrites.keyAt(i)) == userId) {
+                    mPendingWrites.removeAt(i);
+                }
+            }
+            mDbHelpers.delete(userId);
+        }
+    }
+
+    private void persist(int userId) {
+        synchronized (mWriteLock) {
+            final SparseArray<ArrayMap<String, Object>> batches =
+                    new SparseArray<ArrayMap<String, Object>>();
+            final SparseArray<EunoiaDatabaseHelper> dbHelpers =
+                    new SparseArray<EunoiaDatabaseHelper>();
+            synchronized (mLock) {
+                for (int i = mPendingWrites.size() - 1; i >= 0; i--) {
+                    final int key = mPendingWrites.keyAt(i);
+                    final int keyUserId = getUserIdFromKey(key);
+                    if (userId != UserHandle.USER_ALL && keyUserId != userId) {
+                        continue;
+                    }
+                    batches.put(key, mPendingWrites.valueAt(i));
+                    dbHelpers.put(key, mDbHelpers.get(keyUserId));
+                    mPendingWrites.removeAt(i);
+                }
+                if (mPendingWrites.size() == 0 && mPersistScheduled) {
+                    mHandler.removeCallbacks(mPersistRunnable);
+                    mPersistScheduled = false;
+                }
+            }
+
+            for (int i = 0; i < batches.size(); i++) {
+                final EunoiaDatabaseHelper dbHelper = dbHelpers.valueAt(i);
+                if (dbHelper != null && !writeBatch(dbHelper,
+                        getTableNameFromKey(batches.keyAt(i)), batches.valueAt(i))) {
+                    requeue(batches.keyAt(i), dbHelper, batches.valueAt(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a batch that failed to persist back into the pending writes, behind any write to the
+     * same settings that arrived in the meantime, and schedules retrying it.
+     */
+    private void requeue(int key, EunoiaDatabaseHelper dbHelper, ArrayMap<String, Object> batch) {
+        synchronized (mLock) {
+            if (mDbHelpers.get(getUserIdFromKey(key)) != dbHelper) {
+                // The user was removed meanwhile
+                return;
+            }
+            final ArrayMap<String, Object> pending = getOrCreatePendingLocked(key);
+            for (int i = 0; i < batch.size(); i++) {
+                if (!pending.containsKey(batch.keyAt(i))) {
+                    pending.put(batch.keyAt(i), batch.valueAt(i));
+                }
+            }
+            schedulePersistLocked(RETRY_DELAY_MS);
+        }
+    }
+
+    /**
+     * @return Whether the batch was committed.
+     */
+    private static boolean writeBatch(EunoiaDatabaseHelper dbHelper, String tableName,
+            ArrayMap<String, Object> batch) {
+        try {
+            final SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    final String name = batch.keyAt(i);
+                    final Object value = batch.valueAt(i);
+                    if (value == DELETED) {
+                        dbHelper.deleteSetting(tableName, name);
+                    } else {
+                        dbHelper.upsertSetting(tableName, name, (String) value);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (LOCAL_LOGV) Log.v(TAG, tableName + ": persisted " + batch.size() + " write(s)");
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Error persisting " + batch.size() + " write(s) to " + tableName
+                    + ", will retry", e);
+            return false;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void loadTableLocked(SQLiteDatabase db, String tableName, int userId) {
+        final ArrayMap<String, String> table = new ArrayMap<String, String>();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(tableName, NAME_VALUE_PROJECTION, null, null, null, null, null);
+            table.ensureCapacity(cursor.getCount());
+            while (cursor.moveToNext()) {
+                table.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        mTables.put(makeKey(tableName, userId), table);
+        if (LOCAL_LOGV) {
+            Log.v(TAG, "Loaded " + table.size() + " setting(s) from " + tableName + " of "
+                    + userId);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private ArrayMap<String, String> getOrCreateTableLocked(int key) {
+        ArrayMap<String, String> table = mTables.get(key);
+        if (table == null) {
+            table = new ArrayMap<String, String>();
+            mTables.put(key, table);
+        }
+        return table;
+    }
+
+    @GuardedBy("mLock")
+    private ArrayMap<String, Object> getOrCreatePendingLocked(int key) {
+        ArrayMap<String, Object> pending = mPendingWrites.get(key);
+        if (pending == null) {
+            pending = new ArrayMap<String, Object>();
+            mPendingWrites.put(key, pending);
+        }
+        return pending;
+    }
+
+    @GuardedBy("mLock")
+    private void schedulePersistLocked() {
+        schedulePersistLocked(WRITE_DELAY_MS);
+    }
+
+    @GuardedBy("mLock")
+    private void schedulePersistLocked(long delayMs) {
+        if (!mPersistScheduled) {
+            mPersistScheduled = true;
+            mHandler.postDelayed(mPersistRunnable, delayMs);
+        }
+    }
+
+    private static int makeKey(String tableName, int userId) {
+        final int type;
+        switch (tableName) {
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM:
+                type = 0;
+                break;
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE:
+                type = 1;
+                break;
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL:
+                type = 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid table: " + tableName);
+        }
+        return (userId << 2) | type;
+    }
+
+    private static int getUserIdFromKey(int key) {
+        return key >>> 2;
+    }
+
+    private static String getTableNameFromKey(int key) {
+        switch (key & 3) {
+            case 0:
+                return EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM;
+            case 1:
+                return EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE;
+            default:
+                return EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.eunoiaos.eunoiasettings;
+
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import eunoiaos.providers.SettingsSnapshot;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The SnapshotRegistry publishes tables as {@link SettingsSnapshot}s for clients to read
+ * without IPC. A snapshot is built on the first request after its table changed, so bursts of
+ * writes cost one sequence bump each and a single rebuild.
+ */
+final class SnapshotRegistry {
+    private static final String TAG = "SnapshotRegistry";
+    private static final boolean LOCAL_LOGV = false;
+
+    private final Object mLock = new Object();
+
+    // Keyed by makeKey(tableName, userId)
+    @GuardedBy("mLock")
+    private final SparseIntArray mSequences = new SparseIntArray();
+
+    // Keyed by makeKey(tableName, userId), the latest snapshot handed out
+    @GuardedBy("mLock")
+    private final SparseArray<SettingsSnapshot> mSnapshots = new SparseArray<SettingsSnapshot>();
+
+    /**
+     * Returns the shared memory of a current snapshot of a table, building one if needed. The
+     * descriptor is a duplicate owned by the caller, so that it stays valid while the result
+     * is sent even if the snapshot is replaced meanwhile.
+     * @param settingsStore The store holding the table.
+     * @param tableName The table to get a snapshot of.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     * @return A descriptor of the shared memory, or null if it could not be created.
+     */
+    ParcelFileDescriptor getSnapshot(SettingsStore settingsStore, String tableName,
+            int userId) {
+        final int key = makeKey(tableName, userId);
+        synchronized (mLock) {
+            SettingsSnapshot snapshot = mSnapshots.get(key);
+            if (snapshot != null && snapshot.isCurrent()) {
+                return dup(snapshot);
+            }
+
+            // Writes land in the store before they bump the sequence, so values read after
+            // sampling it are at least that recent; any later write marks them stale.
+            final int sequence = mSequences.get(key);
+            final ArrayMap<String, String> all = settingsStore.getAllValues(tableName, userId);
+            final String[] names = new String[all.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = all.keyAt(i);
+            }
+            Arrays.sort(names);
+            final String[] values = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                values[i] = all.get(names[i]);
+            }
+
+            try {
+                final SettingsSnapshot newSnapshot = SettingsSnapshot.create(
+                        tableName + "_" + userId, names, values, sequence);
+                if (snapshot != null) {
+                    // Clients keep their own mappings of it
+                    snapshot.close();
+                }
+                mSnapshots.put(key, newSnapshot);
+                if (LOCAL_LOGV) {
+                    Log.v(TAG, "Built snapshot of " + tableName + " of " + userId + " with "
+                            + names.length + " settings at " + sequence);
+                }
+                return dup(newSnapshot);
+            } catch (ErrnoException e) {
+                Log.e(TAG, "Error creating snapshot of " + tableName, e);
+                return null;
+            }
+        }
+    }
+
+    private static ParcelFileDescriptor dup(SettingsSnapshot snapshot) {
+        try {
+            return ParcelFileDescriptor.dup(snapshot.getSharedMemory().getFileDescriptor());
+        } catch (IOException e) {
+            Log.e(TAG, "Error duplicating snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Marks the snapshot of a table as stale after a write. Must be called after the store
+     * was updated and before the write returns to the caller.
+     * @param tableName The table that changed.
+     * @param userId The user owning the table, after mapping Global to the system user.
+     */
+    void onTableChanged(String tableName, int userId) {
+        final int key = makeKey(tableName, userId);
+        synchronized (mLock) {
+            final int sequence = mSequences.get(key) + 1;
+            mSequences.put(key, sequence);
+            final SettingsSnapshot snapshot = mSnapshots.get(key);
+            if (snapshot != null) {
+                snapshot.setTableSequence(sequence);
+            }
+        }
+    }
+
+    /**
+     * Releases the snapshots of a removed user.
+     * @param userId The id of the user that is removed.
+     */
+    void onUserRemoved(int userId) {
+        synchronized (mLock) {
+            for (int i = mSnapshots.size() - 1; i >= 0; i--) {
+                if (getUserIdFromKey(mSnapshots.keyAt(i)) == userId) {
+                    // Mark it stale for clients still holding it, then let it go
+                    mSnapshots.valueAt(i).setTableSequence(
+                            mSequences.get(mSnapshots.keyAt(i)) + 1);
+                    mSnapshots.valueAt(i).close();
+                    mSnapshots.removeAt(i);
+                }
+            }
+            for (int i = mSequences.size() - 1; i >= 0; i--) {
+                if (getUserIdFromKey(mSequences.keyAt(i)) == userId) {
+                    mSequences.removeAt(i);
+                }
+            }
+        }
+    }
+
+    private static int makeKey(String tableName, int userId) {
+        final int type;
+        switch (tableName) {
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SYSTEM:
+                type = 0;
+                break;
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_SECURE:
+                type = 1;
+                break;
+            case EunoiaDatabaseHelper.EunoiaTableNames.TABLE_GLOBAL:
+                type = 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid table: " + tableName);
+        }
+        return (userId << 2) | type;
+    }
+
+    private static int getUserIdFromKey(int key) {
+        return key >>> 2;
+    }
+}
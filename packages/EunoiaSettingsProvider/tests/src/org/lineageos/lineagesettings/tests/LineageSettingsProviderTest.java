@@ -22,6 +22,8 @@ import android.content.Context;
 import android.content.pm.UserInfo;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
@@ -31,7 +33,9 @@ import android.test.suitebuilder.annotation.SmallTest;
 import android.text.TextUtils;
 
 import eunoiaos.providers.EunoiaSettings;
+import eunoiaos.providers.SettingsStream;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -186,6 +190,104 @@ import java.util.Map;
          testInsertUpdateDeleteForUri(EunoiaSettings.Global.CONTENT_URI);
      }
 
+     @MediumTest
+     public void testResolverWritesVisibleToCallPath() {
+         final Uri uri = EunoiaSettings.Global.CONTENT_URI;
+         final String key = "key";
+
+         // writes through call() must be visible to raw queries
+         assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "value1"));
+         Cursor queryCursor = mContentResolver.query(uri, PROJECTIONS,
+                 Settings.NameValueTable.NAME + " = ?", new String[]{ key }, null);
+         try {
+             assertEquals(1, queryCursor.getCount());
+             assertExpectedKeyValuePair(queryCursor, key, "value1");
+         } finally {
+             queryCursor.close();
+         }
+
+         // and writes through the resolver must be visible to call()
+         ContentValues contentValue = new ContentValues();
+         contentValue.put(Settings.NameValueTable.VALUE, "value2");
+         assertEquals(1, mContentResolver.update(uri, contentValue,
+                 Settings.NameValueTable.NAME + " = ?", new String[]{ key }));
+         assertEquals("value2", EunoiaSettings.Global.getString(mContentResolver, key));
+
+         assertEquals(1, mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                 new String[]{ key }));
+         assertNull(EunoiaSettings.Global.getString(mContentResolver, key));
+     }
+
+     @MediumTest
+     public void testStatsCountCalls() {
+         final String key = "key";
+         assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "value1"));
+
+         Bundle before = mContentResolver.call(EunoiaSettings.Global.CONTENT_URI,
+                 EunoiaSettings.CALL_METHOD_STATS, null, null);
+         assertNotNull(before);
+         final long puts = before.getBundle(EunoiaSettings.CALL_METHOD_STATS_METHODS_KEY)
+                 .getLong(EunoiaSettings.CALL_METHOD_PUT_GLOBAL);
+         assertTrue(puts >= 1);
+
+         assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "value2"));
+         Bundle after = mContentResolver.call(EunoiaSettings.Global.CONTENT_URI,
+                 EunoiaSettings.CALL_METHOD_STATS, null, null);
+         // Other processes may write Global settings meanwhile, so only a lower bound holds
+         assertTrue(after.getBundle(EunoiaSettings.CALL_METHOD_STATS_METHODS_KEY)
+                 .getLong(EunoiaSettings.CALL_METHOD_PUT_GLOBAL) >= puts + 1);
+
+         // count, p50, p90, p99 and max of the put latencies
+         long[] latency = after.getBundle(EunoiaSettings.CALL_METHOD_STATS_LATENCY_KEY)
+                 .getLongArray("put");
+         assertEquals(5, latency.length);
+         assertTrue(latency[0] >= puts + 1);
+         assertTrue(latency[1] <= latency[3] && latency[3] <= latency[4]);
+
+         mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                 Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+     }
+
+     @MediumTest
+     public void testExportImportGlobal() throws Exception {
+         final String key = "export_import_key";
+         final int userId = UserHandle.myUserId();
+         assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "exported"));
+
+         // Export and find our setting
+         String exported = null;
+         ParcelFileDescriptor out = EunoiaSettings.Global.exportForUser(mContentResolver, userId);
+         assertNotNull(out);
+         try (SettingsStream.Reader reader = new SettingsStream.Reader(
+                 new ParcelFileDescriptor.AutoCloseInputStream(out))) {
+             while (reader.next()) {
+                 if (key.equals(reader.getName())) {
+                     exported = reader.getValue();
+                 }
+             }
+         }
+         assertEquals("exported", exported);
+
+         // Import a changed value, writing while the provider reads
+         final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+         final Thread writerThread = new Thread(() -> {
+             try (SettingsStream.Writer writer = new SettingsStream.Writer(
+                     new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]))) {
+                 writer.write(key, "imported");
+                 writer.finish();
+             } catch (IOException e) {
+                 // The import fails and the assertions below catch it
+             }
+         });
+         writerThread.start();
+         assertEquals(1, EunoiaSettings.Global.importForUser(mContentResolver, pipe[0], userId));
+         writerThread.join();
+         assertEquals("imported", EunoiaSettings.Global.getString(mContentResolver, key));
+
+         mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                 Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+     }
+
      private void testInsertUpdateDeleteForUri(Uri uri) {
          String key = "key";
          String value1 = "value1";
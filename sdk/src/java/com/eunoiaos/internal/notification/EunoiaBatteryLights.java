@@ -16,6 +16,7 @@
 
 package com.eunoiaos.internal.notification;
 
+import android.app.ActivityManager;
 import android.app.NotificationManager;
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
@@ -32,10 +33,24 @@ import android.util.Slog;
 
 import eunoiaos.providers.EunoiaSettings;
 
+import java.util.Map;
+
 public final class EunoiaBatteryLights {
     private final String TAG = "EunoiaBatteryLights";
     private final boolean DEBUG = false;
 
+    // Settings read on every update, fetched with a single request.
+    private static final String[] SETTINGS = new String[] {
+            EunoiaSettings.System.BATTERY_LIGHT_ENABLED,
+            EunoiaSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED,
+            EunoiaSettings.System.BATTERY_LIGHT_PULSE,
+            EunoiaSettings.System.BATTERY_LIGHT_LOW_COLOR,
+            EunoiaSettings.System.BATTERY_LIGHT_MEDIUM_COLOR,
+            EunoiaSettings.System.BATTERY_LIGHT_FULL_COLOR,
+            EunoiaSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL,
+            EunoiaSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+    };
+
     // Battery light capabilities.
     private final boolean mHasBatteryLed;
     private final boolean mMultiColorBatteryLed;
@@ -208,8 +223,14 @@ public final class EunoiaBatteryLights {
     }
 
     class SettingsObserver extends ContentObserver {
+        private final Handler mHandler;
+
+        // Only used on the handler thread
+        private int mCurrentUserId;
+
         SettingsObserver(Handler handler) {
             super(handler);
+            mHandler = handler;
         }
 
         void observe() {
@@ -254,6 +275,17 @@ public final class EunoiaBatteryLights {
                         UserHandle.USER_ALL);
             }
 
+            // Track the current user, and re-read its settings on a switch
+            mCurrentUserId = ActivityManager.getCurrentUser();
+            mContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    mCurrentUserId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                            mCurrentUserId);
+                    update();
+                }
+            }, new IntentFilter(Intent.ACTION_USER_SWITCHED), null, mHandler);
+
             update();
         }
 
@@ -265,46 +297,42 @@ public final class EunoiaBatteryLights {
         private void update() {
             ContentResolver resolver = mContext.getContentResolver();
             Resources res = mContext.getResources();
+            Map<String, String> values = EunoiaSettings.System.getStringsForUser(resolver,
+                    SETTINGS, mCurrentUserId);
 
             // Battery light enabled
-            mLightEnabled = EunoiaSettings.System.getIntForUser(resolver,
-                    EunoiaSettings.System.BATTERY_LIGHT_ENABLED,
-                    1, UserHandle.USER_CURRENT) != 0;
+            mLightEnabled = EunoiaSettings.getInt(values,
+                    EunoiaSettings.System.BATTERY_LIGHT_ENABLED, 1) != 0;
 
             // Battery light disabled if fully charged
-            mLightFullChargeDisabled = EunoiaSettings.System.getIntForUser(resolver,
-                    EunoiaSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED,
-                    1, UserHandle.USER_CURRENT) != 0;
+            mLightFullChargeDisabled = EunoiaSettings.getInt(values,
+                    EunoiaSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED, 1) != 0;
 
             // Low battery pulse
-            mLedPulseEnabled = EunoiaSettings.System.getIntForUser(resolver,
-                    EunoiaSettings.System.BATTERY_LIGHT_PULSE,
-                    1, UserHandle.USER_CURRENT) != 0;
+            mLedPulseEnabled = EunoiaSettings.getInt(values,
+                    EunoiaSettings.System.BATTERY_LIGHT_PULSE, 1) != 0;
 
             // Light colors
-            mBatteryLowARGB = EunoiaSettings.System.getIntForUser(resolver,
+            mBatteryLowARGB = EunoiaSettings.getInt(values,
                     EunoiaSettings.System.BATTERY_LIGHT_LOW_COLOR, res.getInteger(
-                    com.android.internal.R.integer.config_notificationsBatteryLowARGB),
-                    UserHandle.USER_CURRENT);
-            mBatteryMediumARGB = EunoiaSettings.System.getIntForUser(resolver,
+                    com.android.internal.R.integer.config_notificationsBatteryLowARGB));
+            mBatteryMediumARGB = EunoiaSettings.getInt(values,
                     EunoiaSettings.System.BATTERY_LIGHT_MEDIUM_COLOR, res.getInteger(
-                    com.android.internal.R.integer.config_notificationsBatteryMediumARGB),
-                    UserHandle.USER_CURRENT);
-            mBatteryFullARGB = EunoiaSettings.System.getIntForUser(resolver,
+                    com.android.internal.R.integer.config_notificationsBatteryMediumARGB));
+            mBatteryFullARGB = EunoiaSettings.getInt(values,
                     EunoiaSettings.System.BATTERY_LIGHT_FULL_COLOR, res.getInteger(
-                    com.android.internal.R.integer.config_notificationsBatteryFullARGB),
-                    UserHandle.USER_CURRENT);
+                    com.android.internal.R.integer.config_notificationsBatteryFullARGB));
 
             // Adustable battery LED brightness.
             if (mCanAdjustBrightness) {
                 // Battery brightness level
-                mBatteryBrightnessLevel = EunoiaSettings.System.getIntForUser(resolver,
+                mBatteryBrightnessLevel = EunoiaSettings.getInt(values,
                         EunoiaSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM);
                 // Battery brightness level in Do Not Disturb mode
-                mBatteryBrightnessZenLevel = EunoiaSettings.System.getIntForUser(resolver,
+                mBatteryBrightnessZenLevel = EunoiaSettings.getInt(values,
                         EunoiaSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM);
             }
 
             mLedUpdater.update();
@@ -20,10 +20,14 @@ package com.eunoiaos.internal.notification;
 import static android.service.notification.NotificationListenerService.SUPPRESSED_EFFECT_SCREEN_OFF;
 import static android.service.notification.NotificationListenerService.SUPPRESSED_EFFECT_SCREEN_ON;
 
+import android.app.ActivityManager;
 import android.app.KeyguardManager;
 import android.app.Notification;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.ContentResolver;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
@@ -46,6 +50,20 @@ public final class EunoiaNotificationLights {
     private static final String TAG = "EunoiaNotificationLights";
     private static final boolean DEBUG = false;
 
+    // Settings read on every update, fetched with a single request.
+    private static final String[] SETTINGS = new String[] {
+            EunoiaSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_ON,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_OFF,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_SCREEN_ON,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL,
+            EunoiaSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+            EunoiaSettings.System.ZEN_ALLOW_LIGHTS,
+    };
+
     // Light capabilities
     // Whether the notification light is RGB adjustable.
     private boolean mMultiColorNotificationLed;
@@ -365,8 +383,14 @@ public final class EunoiaNotificationLights {
     }
 
     class SettingsObserver extends ContentObserver {
+        private final Handler mHandler;
+
+        // Only used on the handler thread
+        private int mCurrentUserId;
+
         SettingsObserver(Handler handler) {
             super(handler);
+            mHandler = handler;
         }
 
         void observe() {
@@ -410,6 +434,17 @@ public final class EunoiaNotificationLights {
                     EunoiaSettings.System.ZEN_ALLOW_LIGHTS), false, this,
                     UserHandle.USER_ALL);
 
+            // Track the current user, and re-read its settings on a switch
+            mCurrentUserId = ActivityManager.getCurrentUser();
+            mContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    mCurrentUserId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                            mCurrentUserId);
+                    update();
+                }
+            }, new IntentFilter(Intent.ACTION_USER_SWITCHED), null, mHandler);
+
             update();
         }
 
@@ -427,59 +462,57 @@ public final class EunoiaNotificationLights {
                     Settings.System.NOTIFICATION_LIGHT_PULSE,
                     0, UserHandle.USER_CURRENT) != 0;
 
+            Map<String, String> values = EunoiaSettings.System.getStringsForUser(resolver,
+                    SETTINGS, mCurrentUserId);
+
             // Automatically pick a color for LED if not set
-            mAutoGenerateNotificationColor = EunoiaSettings.System.getIntForUser(resolver,
-                    EunoiaSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO,
-                    1, UserHandle.USER_CURRENT) != 0;
+            mAutoGenerateNotificationColor = EunoiaSettings.getInt(values,
+                    EunoiaSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO, 1) != 0;
 
             // LED default color
-            mDefaultNotificationColor = EunoiaSettings.System.getIntForUser(resolver,
+            mDefaultNotificationColor = EunoiaSettings.getInt(values,
                     EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR,
-                    mDefaultNotificationColor, UserHandle.USER_CURRENT);
+                    mDefaultNotificationColor);
 
             // LED default on MS
-            mDefaultNotificationLedOn = EunoiaSettings.System.getIntForUser(resolver,
+            mDefaultNotificationLedOn = EunoiaSettings.getInt(values,
                     EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_ON,
-                    mDefaultNotificationLedOn, UserHandle.USER_CURRENT);
+                    mDefaultNotificationLedOn);
 
             // LED default off MS
-            mDefaultNotificationLedOff = EunoiaSettings.System.getIntForUser(resolver,
+            mDefaultNotificationLedOff = EunoiaSettings.getInt(values,
                     EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_OFF,
-                    mDefaultNotificationLedOff, UserHandle.USER_CURRENT);
+                    mDefaultNotificationLedOff);
 
             // LED generated notification colors
             mGeneratedPackageLedColors.clear();
 
             // LED custom notification colors
             mNotificationPulseCustomLedValues.clear();
-            if (EunoiaSettings.System.getIntForUser(resolver,
-                    EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE, 0,
-                    UserHandle.USER_CURRENT) != 0) {
-                parseNotificationPulseCustomValuesString(EunoiaSettings.System.getStringForUser(
-                        resolver, EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES,
-                        UserHandle.USER_CURRENT));
+            if (EunoiaSettings.getInt(values,
+                    EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE, 0) != 0) {
+                parseNotificationPulseCustomValuesString(values.get(
+                        EunoiaSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES));
             }
 
             // Notification lights with screen on
-            mScreenOnEnabled = (EunoiaSettings.System.getIntForUser(resolver,
-                    EunoiaSettings.System.NOTIFICATION_LIGHT_SCREEN_ON, 0,
-                    UserHandle.USER_CURRENT) != 0);
+            mScreenOnEnabled = (EunoiaSettings.getInt(values,
+                    EunoiaSettings.System.NOTIFICATION_LIGHT_SCREEN_ON, 0) != 0);
 
             // Adustable notification LED brightness.
             if (mCanAdjustBrightness) {
                 // Normal brightness.
-                mNotificationLedBrightnessLevel = EunoiaSettings.System.getIntForUser(resolver,
+                mNotificationLedBrightnessLevel = EunoiaSettings.getInt(values,
                         EunoiaSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM);
                 // Brightness in Do Not Disturb mode.
-                mNotificationLedBrightnessLevelZen = EunoiaSettings.System.getIntForUser(
-                        resolver, EunoiaSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                mNotificationLedBrightnessLevelZen = EunoiaSettings.getInt(values,
+                        EunoiaSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM);
             }
 
-            mZenAllowLights = EunoiaSettings.System.getIntForUser(resolver,
-                        EunoiaSettings.System.ZEN_ALLOW_LIGHTS,
-                        1, UserHandle.USER_CURRENT) != 0;
+            mZenAllowLights = EunoiaSettings.getInt(values,
+                        EunoiaSettings.System.ZEN_ALLOW_LIGHTS, 1) != 0;
 
             mLedUpdater.update();
         }
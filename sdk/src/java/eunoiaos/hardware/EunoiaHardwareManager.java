@@ -47,10 +47,8 @@ import vendor.lineage.touch.V1_0.IKeySwapper;
 import vendor.lineage.touch.V1_0.IStylusMode;
 import vendor.lineage.touch.V1_0.ITouchscreenGesture;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -172,19 +170,46 @@ public final class EunoiaHardwareManager {
     @VisibleForTesting
     public static final int FEATURE_ANTI_FLICKER = 0x200000;
 
-    private static final List<Integer> BOOLEAN_FEATURES = Arrays.asList(
-        FEATURE_ADAPTIVE_BACKLIGHT,
-        FEATURE_ANTI_FLICKER,
-        FEATURE_AUTO_CONTRAST,
-        FEATURE_COLOR_ENHANCEMENT,
-        FEATURE_HIGH_TOUCH_POLLING_RATE,
-        FEATURE_HIGH_TOUCH_SENSITIVITY,
-        FEATURE_KEY_DISABLE,
-        FEATURE_KEY_SWAP,
-        FEATURE_SUNLIGHT_ENHANCEMENT,
-        FEATURE_TOUCH_HOVERING,
-        FEATURE_READING_ENHANCEMENT
-    );
+    /**
+     * Features which have simple enable/disable controls
+     *
+     * @hide
+     */
+    public static final int BOOLEAN_FEATURES =
+            FEATURE_ADAPTIVE_BACKLIGHT
+            | FEATURE_ANTI_FLICKER
+            | FEATURE_AUTO_CONTRAST
+            | FEATURE_COLOR_ENHANCEMENT
+            | FEATURE_HIGH_TOUCH_POLLING_RATE
+            | FEATURE_HIGH_TOUCH_SENSITIVITY
+            | FEATURE_KEY_DISABLE
+            | FEATURE_KEY_SWAP
+            | FEATURE_SUNLIGHT_ENHANCEMENT
+            | FEATURE_TOUCH_HOVERING
+            | FEATURE_READING_ENHANCEMENT;
+
+    // Feature constant names, as used by preference constraints, to their feature bits
+    private static final ArrayMap<String, Integer> FEATURE_NAMES =
+            new ArrayMap<String, Integer>(17);
+    static {
+        FEATURE_NAMES.put("FEATURE_ADAPTIVE_BACKLIGHT", FEATURE_ADAPTIVE_BACKLIGHT);
+        FEATURE_NAMES.put("FEATURE_COLOR_ENHANCEMENT", FEATURE_COLOR_ENHANCEMENT);
+        FEATURE_NAMES.put("FEATURE_DISPLAY_COLOR_CALIBRATION", FEATURE_DISPLAY_COLOR_CALIBRATION);
+        FEATURE_NAMES.put("FEATURE_HIGH_TOUCH_POLLING_RATE", FEATURE_HIGH_TOUCH_POLLING_RATE);
+        FEATURE_NAMES.put("FEATURE_HIGH_TOUCH_SENSITIVITY", FEATURE_HIGH_TOUCH_SENSITIVITY);
+        FEATURE_NAMES.put("FEATURE_KEY_DISABLE", FEATURE_KEY_DISABLE);
+        FEATURE_NAMES.put("FEATURE_KEY_SWAP", FEATURE_KEY_SWAP);
+        FEATURE_NAMES.put("FEATURE_SUNLIGHT_ENHANCEMENT", FEATURE_SUNLIGHT_ENHANCEMENT);
+        FEATURE_NAMES.put("FEATURE_VIBRATOR", FEATURE_VIBRATOR);
+        FEATURE_NAMES.put("FEATURE_TOUCH_HOVERING", FEATURE_TOUCH_HOVERING);
+        FEATURE_NAMES.put("FEATURE_AUTO_CONTRAST", FEATURE_AUTO_CONTRAST);
+        FEATURE_NAMES.put("FEATURE_DISPLAY_MODES", FEATURE_DISPLAY_MODES);
+        FEATURE_NAMES.put("FEATURE_READING_ENHANCEMENT", FEATURE_READING_ENHANCEMENT);
+        FEATURE_NAMES.put("FEATURE_COLOR_BALANCE", FEATURE_COLOR_BALANCE);
+        FEATURE_NAMES.put("FEATURE_PICTURE_ADJUSTMENT", FEATURE_PICTURE_ADJUSTMENT);
+        FEATURE_NAMES.put("FEATURE_TOUCHSCREEN_GESTURES", FEATURE_TOUCHSCREEN_GESTURES);
+        FEATURE_NAMES.put("FEATURE_ANTI_FLICKER", FEATURE_ANTI_FLICKER);
+    }
 
     private static IEunoiaHardwareService sService;
     private static EunoiaHardwareManager sEunoiaHardwareManagerInstance;
@@ -194,8 +219,32 @@ public final class EunoiaHardwareManager {
     private final ArrayMap<String, String> mDisplayModeMappings = new ArrayMap<String, String>();
     private final boolean mFilterDisplayModes;
 
+    // Features that may be backed by a HIDL hal
+    private static final int HIDL_FEATURES =
+            FEATURE_ADAPTIVE_BACKLIGHT
+            | FEATURE_ANTI_FLICKER
+            | FEATURE_AUTO_CONTRAST
+            | FEATURE_COLOR_BALANCE
+            | FEATURE_COLOR_ENHANCEMENT
+            | FEATURE_DISPLAY_COLOR_CALIBRATION
+            | FEATURE_DISPLAY_MODES
+            | FEATURE_PICTURE_ADJUSTMENT
+            | FEATURE_READING_ENHANCEMENT
+            | FEATURE_SUNLIGHT_ENHANCEMENT
+            | FEATURE_HIGH_TOUCH_POLLING_RATE
+            | FEATURE_HIGH_TOUCH_SENSITIVITY
+            | FEATURE_KEY_DISABLE
+            | FEATURE_KEY_SWAP
+            | FEATURE_TOUCH_HOVERING
+            | FEATURE_TOUCHSCREEN_GESTURES;
+
     // HIDL hals
-    private HashMap<Integer, IBase> mHIDLMap = new HashMap<Integer, IBase>();
+    private final HardwareCapabilities mHIDLCapabilities =
+            new HardwareCapabilities(HIDL_FEATURES, EunoiaHardwareManager::getHIDLService);
+
+    // Features of the hardware service, which are fixed once it is up
+    private volatile boolean mHWC2FeaturesKnown;
+    private volatile int mHWC2Features;
 
     /**
      * @hide to prevent subclassing from outside of the framework
@@ -235,7 +284,7 @@ public final class EunoiaHardwareManager {
      * @param context
      * @return {@link EunoiaHardwareManager}
      */
-    public static EunoiaHardwareManager getInstance(Context context) {
+    public static synchronized EunoiaHardwareManager getInstance(Context context) {
         if (sEunoiaHardwareManagerInstance == null) {
             sEunoiaHardwareManagerInstance = new EunoiaHardwareManager(context);
         }
@@ -266,24 +315,38 @@ public final class EunoiaHardwareManager {
         return isSupportedHIDL(feature) || isSupportedHWC2(feature);
     }
 
+    /**
+     * Determine all Eunoia Hardware features supported on this device at once. Apart from
+     * the first call, this is answered from memory.
+     *
+     * @return a bitmask of the supported features, e.g. {@link #FEATURE_ADAPTIVE_BACKLIGHT}
+     */
+    public int getSupportedFeatures() {
+        return mHIDLCapabilities.getSupportedFeatures() | getSupportedHWC2Features();
+    }
+
     private boolean isSupportedHIDL(int feature) {
-        if (!mHIDLMap.containsKey(feature)) {
-            mHIDLMap.put(feature, getHIDLService(feature));
-        }
-        return mHIDLMap.get(feature) != null;
+        return mHIDLCapabilities.getService(feature) != null;
     }
 
     private boolean isSupportedHWC2(int feature) {
-        try {
-            if (checkService()) {
-                return feature == (sService.getSupportedFeatures() & feature);
+        return feature == (getSupportedHWC2Features() & feature);
+    }
+
+    private int getSupportedHWC2Features() {
+        if (!mHWC2FeaturesKnown) {
+            try {
+                if (checkService()) {
+                    mHWC2Features = sService.getSupportedFeatures();
+                    mHWC2FeaturesKnown = true;
+                }
+            } catch (RemoteException e) {
             }
-        } catch (RemoteException e) {
         }
-        return false;
+        return mHWC2Features;
     }
 
-    private IBase getHIDLService(int feature) {
+    private static IBase getHIDLService(int feature) {
         try {
             switch (feature) {
                 case FEATURE_ADAPTIVE_BACKLIGHT:
@@ -330,20 +393,10 @@ public final class EunoiaHardwareManager {
      * @hide
      */
     public boolean isSupported(String feature) {
-        if (!feature.startsWith("FEATURE_")) {
-            return false;
-        }
-        try {
-            Field f = getClass().getField(feature);
-            if (f != null) {
-                return isSupported((int) f.get(null));
-            }
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            Log.d(TAG, e.getMessage(), e);
-        }
-
-        return false;
+        final Integer bit = FEATURE_NAMES.get(feature);
+        return bit != null && isSupported(bit);
     }
+
     /**
      * Determine if the given feature is enabled or disabled.
      *
@@ -354,48 +407,14 @@ public final class EunoiaHardwareManager {
      * @return true if the feature is enabled, false otherwise.
      */
     public boolean get(int feature) {
-        if (!BOOLEAN_FEATURES.contains(feature)) {
+        if (!isBooleanFeature(feature)) {
             throw new IllegalArgumentException(feature + " is not a boolean");
         }
 
         try {
-            if (isSupportedHIDL(feature)) {
-                IBase obj = mHIDLMap.get(feature);
-                switch (feature) {
-                    case FEATURE_ADAPTIVE_BACKLIGHT:
-                        IAdaptiveBacklight adaptiveBacklight = (IAdaptiveBacklight) obj;
-                        return adaptiveBacklight.isEnabled();
-                    case FEATURE_ANTI_FLICKER:
-                        IAntiFlicker antiFlicker = (IAntiFlicker) obj;
-                        return antiFlicker.isEnabled();
-                    case FEATURE_AUTO_CONTRAST:
-                        IAutoContrast autoContrast = (IAutoContrast) obj;
-                        return autoContrast.isEnabled();
-                    case FEATURE_COLOR_ENHANCEMENT:
-                        IColorEnhancement colorEnhancement = (IColorEnhancement) obj;
-                        return colorEnhancement.isEnabled();
-                    case FEATURE_HIGH_TOUCH_POLLING_RATE:
-                        IHighTouchPollingRate highTouchPollingRate = (IHighTouchPollingRate) obj;
-                        return highTouchPollingRate.isEnabled();
-                    case FEATURE_HIGH_TOUCH_SENSITIVITY:
-                        IGloveMode gloveMode = (IGloveMode) obj;
-                        return gloveMode.isEnabled();
-                    case FEATURE_KEY_DISABLE:
-                        IKeyDisabler keyDisabler = (IKeyDisabler) obj;
-                        return keyDisabler.isEnabled();
-                    case FEATURE_KEY_SWAP:
-                        IKeySwapper keySwapper = (IKeySwapper) obj;
-                        return keySwapper.isEnabled();
-                    case FEATURE_SUNLIGHT_ENHANCEMENT:
-                        ISunlightEnhancement sunlightEnhancement = (ISunlightEnhancement) obj;
-                        return sunlightEnhancement.isEnabled();
-                    case FEATURE_TOUCH_HOVERING:
-                        IStylusMode stylusMode = (IStylusMode) obj;
-                        return stylusMode.isEnabled();
-                    case FEATURE_READING_ENHANCEMENT:
-                        IReadingEnhancement readingEnhancement = (IReadingEnhancement) obj;
-                        return readingEnhancement.isEnabled();
-                }
+            final IBase obj = mHIDLCapabilities.getService(feature);
+            if (obj != null) {
+                return getHIDL(feature, obj);
             } else if (checkService()) {
                 return sService.get(feature);
             }
@@ -415,48 +434,14 @@ public final class EunoiaHardwareManager {
      * @return true if the feature is enabled, false otherwise.
      */
     public boolean set(int feature, boolean enable) {
-        if (!BOOLEAN_FEATURES.contains(feature)) {
+        if (!isBooleanFeature(feature)) {
             throw new IllegalArgumentException(feature + " is not a boolean");
         }
 
         try {
-            if (isSupportedHIDL(feature)) {
-                IBase obj = mHIDLMap.get(feature);
-                switch (feature) {
-                    case FEATURE_ADAPTIVE_BACKLIGHT:
-                        IAdaptiveBacklight adaptiveBacklight = (IAdaptiveBacklight) obj;
-                        return adaptiveBacklight.setEnabled(enable);
-                    case FEATURE_ANTI_FLICKER:
-                        IAntiFlicker antiFlicker = (IAntiFlicker) obj;
-                        return antiFlicker.setEnabled(enable);
-                    case FEATURE_AUTO_CONTRAST:
-                        IAutoContrast autoContrast = (IAutoContrast) obj;
-                        return autoContrast.setEnabled(enable);
-                    case FEATURE_COLOR_ENHANCEMENT:
-                        IColorEnhancement colorEnhancement = (IColorEnhancement) obj;
-                        return colorEnhancement.setEnabled(enable);
-                    case FEATURE_HIGH_TOUCH_POLLING_RATE:
-                        IHighTouchPollingRate highTouchPollingRate = (IHighTouchPollingRate) obj;
-                        return highTouchPollingRate.setEnabled(enable);
-                    case FEATURE_HIGH_TOUCH_SENSITIVITY:
-                        IGloveMode gloveMode = (IGloveMode) obj;
-                        return gloveMode.setEnabled(enable);
-                    case FEATURE_KEY_DISABLE:
-                        IKeyDisabler keyDisabler = (IKeyDisabler) obj;
-                        return keyDisabler.setEnabled(enable);
-                    case FEATURE_KEY_SWAP:
-                        IKeySwapper keySwapper = (IKeySwapper) obj;
-                        return keySwapper.setEnabled(enable);
-                    case FEATURE_SUNLIGHT_ENHANCEMENT:
-                        ISunlightEnhancement sunlightEnhancement = (ISunlightEnhancement) obj;
-                        return sunlightEnhancement.setEnabled(enable);
-                    case FEATURE_TOUCH_HOVERING:
-                        IStylusMode stylusMode = (IStylusMode) obj;
-                        return stylusMode.setEnabled(enable);
-                    case FEATURE_READING_ENHANCEMENT:
-                        IReadingEnhancement readingEnhancement = (IReadingEnhancement) obj;
-                        return readingEnhancement.setEnabled(enable);
-                }
+            final IBase obj = mHIDLCapabilities.getService(feature);
+            if (obj != null) {
+                return setHIDL(feature, obj, enable);
             } else if (checkService()) {
                 return sService.set(feature, enable);
             }
@@ -465,6 +450,177 @@ public final class EunoiaHardwareManager {
         return false;
     }
 
+    /**
+     * Determine whether several features are enabled at once. Features which are not
+     * backed by a HIDL hal are all queried with a single call to the hardware service.
+     *
+     * Only used for features which have simple enable/disable controls.
+     *
+     * @param featureMask a bitmask of the Eunoia Hardware features to query
+     *
+     * @return a bitmask of the features in featureMask which are enabled
+     */
+    public int getAll(int featureMask) {
+        if ((featureMask & ~BOOLEAN_FEATURES) != 0) {
+            throw new IllegalArgumentException(
+                    (featureMask & ~BOOLEAN_FEATURES) + " are not booleans");
+        }
+
+        int values = 0;
+        int serviceFeatures = 0;
+        for (int features = featureMask; features != 0; features &= features - 1) {
+            final int feature = Integer.lowestOneBit(features);
+            final IBase obj = mHIDLCapabilities.getService(feature);
+            if (obj == null) {
+                serviceFeatures |= feature;
+                continue;
+            }
+            try {
+                if (getHIDL(feature, obj)) {
+                    values |= feature;
+                }
+            } catch (RemoteException e) {
+            }
+        }
+
+        serviceFeatures &= getSupportedHWC2Features();
+        if (serviceFeatures != 0) {
+            try {
+                values |= sService.getAll(serviceFeatures) & serviceFeatures;
+            } catch (RemoteException e) {
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Enable or disable several features at once. Features which are not backed by a HIDL
+     * hal are all set with a single call to the hardware service.
+     *
+     * Only used for features which have simple enable/disable controls.
+     *
+     * @param featureMask a bitmask of the Eunoia Hardware features to set
+     * @param valueMask a bitmask of the features in featureMask to enable; the others are
+     * disabled
+     *
+     * @return a bitmask of the features in featureMask which were set successfully
+     */
+    public int setAll(int featureMask, int valueMask) {
+        if ((featureMask & ~BOOLEAN_FEATURES) != 0) {
+            throw new IllegalArgumentException(
+                    (featureMask & ~BOOLEAN_FEATURES) + " are not booleans");
+        }
+
+        int result = 0;
+        int serviceFeatures = 0;
+        for (int features = featureMask; features != 0; features &= features - 1) {
+            final int feature = Integer.lowestOneBit(features);
+            final IBase obj = mHIDLCapabilities.getService(feature);
+            if (obj == null) {
+                serviceFeatures |= feature;
+                continue;
+            }
+            try {
+                if (setHIDL(feature, obj, (valueMask & feature) != 0)) {
+                    result |= feature;
+                }
+            } catch (RemoteException e) {
+            }
+        }
+
+        serviceFeatures &= getSupportedHWC2Features();
+        if (serviceFeatures != 0) {
+            try {
+                result |= sService.setAll(serviceFeatures, valueMask) & serviceFeatures;
+            } catch (RemoteException e) {
+            }
+        }
+        return result;
+    }
+
+    private static boolean isBooleanFeature(int feature) {
+        return Integer.bitCount(feature) == 1 && (BOOLEAN_FEATURES & feature) != 0;
+    }
+
+    private static boolean getHIDL(int feature, IBase obj) throws RemoteException {
+        switch (feature) {
+            case FEATURE_ADAPTIVE_BACKLIGHT:
+                IAdaptiveBacklight adaptiveBacklight = (IAdaptiveBacklight) obj;
+                return adaptiveBacklight.isEnabled();
+            case FEATURE_ANTI_FLICKER:
+                IAntiFlicker antiFlicker = (IAntiFlicker) obj;
+                return antiFlicker.isEnabled();
+            case FEATURE_AUTO_CONTRAST:
+                IAutoContrast autoContrast = (IAutoContrast) obj;
+                return autoContrast.isEnabled();
+            case FEATURE_COLOR_ENHANCEMENT:
+                IColorEnhancement colorEnhancement = (IColorEnhancement) obj;
+                return colorEnhancement.isEnabled();
+            case FEATURE_HIGH_TOUCH_POLLING_RATE:
+                IHighTouchPollingRate highTouchPollingRate = (IHighTouchPollingRate) obj;
+                return highTouchPollingRate.isEnabled();
+            case FEATURE_HIGH_TOUCH_SENSITIVITY:
+                IGloveMode gloveMode = (IGloveMode) obj;
+                return gloveMode.isEnabled();
+            case FEATURE_KEY_DISABLE:
+                IKeyDisabler keyDisabler = (IKeyDisabler) obj;
+                return keyDisabler.isEnabled();
+            case FEATURE_KEY_SWAP:
+                IKeySwapper keySwapper = (IKeySwapper) obj;
+                return keySwapper.isEnabled();
+            case FEATURE_SUNLIGHT_ENHANCEMENT:
+                ISunlightEnhancement sunlightEnhancement = (ISunlightEnhancement) obj;
+                return sunlightEnhancement.isEnabled();
+            case FEATURE_TOUCH_HOVERING:
+                IStylusMode stylusMode = (IStylusMode) obj;
+                return stylusMode.isEnabled();
+            case FEATURE_READING_ENHANCEMENT:
+                IReadingEnhancement readingEnhancement = (IReadingEnhancement) obj;
+                return readingEnhancement.isEnabled();
+        }
+        return false;
+    }
+
+    private static boolean setHIDL(int feature, IBase obj, boolean enable)
+            throws RemoteException {
+        switch (feature) {
+            case FEATURE_ADAPTIVE_BACKLIGHT:
+                IAdaptiveBacklight adaptiveBacklight = (IAdaptiveBacklight) obj;
+                return adaptiveBacklight.setEnabled(enable);
+            case FEATURE_ANTI_FLICKER:
+                IAntiFlicker antiFlicker = (IAntiFlicker) obj;
+                return antiFlicker.setEnabled(enable);
+            case FEATURE_AUTO_CONTRAST:
+                IAutoContrast autoContrast = (IAutoContrast) obj;
+                return autoContrast.setEnabled(enable);
+            case FEATURE_COLOR_ENHANCEMENT:
+                IColorEnhancement colorEnhancement = (IColorEnhancement) obj;
+                return colorEnhancement.setEnabled(enable);
+            case FEATURE_HIGH_TOUCH_POLLING_RATE:
+                IHighTouchPollingRate highTouchPollingRate = (IHighTouchPollingRate) obj;
+                return highTouchPollingRate.setEnabled(enable);
+            case FEATURE_HIGH_TOUCH_SENSITIVITY:
+                IGloveMode gloveMode = (IGloveMode) obj;
+                return gloveMode.setEnabled(enable);
+            case FEATURE_KEY_DISABLE:
+                IKeyDisabler keyDisabler = (IKeyDisabler) obj;
+                return keyDisabler.setEnabled(enable);
+            case FEATURE_KEY_SWAP:
+                IKeySwapper keySwapper = (IKeySwapper) obj;
+                return keySwapper.setEnabled(enable);
+            case FEATURE_SUNLIGHT_ENHANCEMENT:
+                ISunlightEnhancement sunlightEnhancement = (ISunlightEnhancement) obj;
+                return sunlightEnhancement.setEnabled(enable);
+            case FEATURE_TOUCH_HOVERING:
+                IStylusMode stylusMode = (IStylusMode) obj;
+                return stylusMode.setEnabled(enable);
+            case FEATURE_READING_ENHANCEMENT:
+                IReadingEnhancement readingEnhancement = (IReadingEnhancement) obj;
+                return readingEnhancement.setEnabled(enable);
+        }
+        return false;
+    }
+
     private int getArrayValue(int[] arr, int idx, int defaultValue) {
         if (arr == null || arr.length <= idx) {
             return defaultValue;
@@ -498,7 +654,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_DISPLAY_COLOR_CALIBRATION)) {
                 IDisplayColorCalibration displayColorCalibration = (IDisplayColorCalibration)
-                        mHIDLMap.get(FEATURE_DISPLAY_COLOR_CALIBRATION);
+                        mHIDLCapabilities.getService(FEATURE_DISPLAY_COLOR_CALIBRATION);
                 return ArrayUtils.convertToIntArray(displayColorCalibration.getCalibration());
             } else if (checkService()) {
                 return sService.getDisplayColorCalibration();
@@ -525,7 +681,7 @@ public final class EunoiaHardwareManager {
     public int getDisplayColorCalibrationMin() {
         if (isSupportedHIDL(FEATURE_DISPLAY_COLOR_CALIBRATION)) {
             IDisplayColorCalibration displayColorCalibration = (IDisplayColorCalibration)
-                    mHIDLMap.get(FEATURE_DISPLAY_COLOR_CALIBRATION);
+                    mHIDLCapabilities.getService(FEATURE_DISPLAY_COLOR_CALIBRATION);
             try {
                 return displayColorCalibration.getMinValue();
             } catch (RemoteException e) {
@@ -542,7 +698,7 @@ public final class EunoiaHardwareManager {
     public int getDisplayColorCalibrationMax() {
         if (isSupportedHIDL(FEATURE_DISPLAY_COLOR_CALIBRATION)) {
             IDisplayColorCalibration displayColorCalibration = (IDisplayColorCalibration)
-                    mHIDLMap.get(FEATURE_DISPLAY_COLOR_CALIBRATION);
+                    mHIDLCapabilities.getService(FEATURE_DISPLAY_COLOR_CALIBRATION);
             try {
                 return displayColorCalibration.getMaxValue();
             } catch (RemoteException e) {
@@ -566,7 +722,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_DISPLAY_COLOR_CALIBRATION)) {
                 IDisplayColorCalibration displayColorCalibration = (IDisplayColorCalibration)
-                        mHIDLMap.get(FEATURE_DISPLAY_COLOR_CALIBRATION);
+                        mHIDLCapabilities.getService(FEATURE_DISPLAY_COLOR_CALIBRATION);
                 return displayColorCalibration.setCalibration(
                        new ArrayList<Integer>(Arrays.asList(rgb[0], rgb[1], rgb[2])));
             } else if (checkService()) {
@@ -584,7 +740,8 @@ public final class EunoiaHardwareManager {
         DisplayMode[] modes = null;
         try {
             if (isSupportedHIDL(FEATURE_DISPLAY_MODES)) {
-                IDisplayModes displayModes = (IDisplayModes) mHIDLMap.get(FEATURE_DISPLAY_MODES);
+                IDisplayModes displayModes = (IDisplayModes)
+                        mHIDLCapabilities.getService(FEATURE_DISPLAY_MODES);
                 modes = HIDLHelper.fromHIDLModes(displayModes.getDisplayModes());
             }
         } catch (RemoteException e) {
@@ -610,7 +767,8 @@ public final class EunoiaHardwareManager {
         DisplayMode mode = null;
         try {
             if (isSupportedHIDL(FEATURE_DISPLAY_MODES)) {
-                IDisplayModes displayModes = (IDisplayModes) mHIDLMap.get(FEATURE_DISPLAY_MODES);
+                IDisplayModes displayModes = (IDisplayModes)
+                        mHIDLCapabilities.getService(FEATURE_DISPLAY_MODES);
                 mode = HIDLHelper.fromHIDLMode(displayModes.getCurrentDisplayMode());
             }
         } catch (RemoteException e) {
@@ -626,7 +784,8 @@ public final class EunoiaHardwareManager {
         DisplayMode mode = null;
         try {
             if (isSupportedHIDL(FEATURE_DISPLAY_MODES)) {
-                IDisplayModes displayModes = (IDisplayModes) mHIDLMap.get(FEATURE_DISPLAY_MODES);
+                IDisplayModes displayModes = (IDisplayModes)
+                        mHIDLCapabilities.getService(FEATURE_DISPLAY_MODES);
                 mode = HIDLHelper.fromHIDLMode(displayModes.getDefaultDisplayMode());
             }
         } catch (RemoteException e) {
@@ -641,7 +800,8 @@ public final class EunoiaHardwareManager {
     public boolean setDisplayMode(DisplayMode mode, boolean makeDefault) {
         try {
             if (isSupportedHIDL(FEATURE_DISPLAY_MODES)) {
-                IDisplayModes displayModes = (IDisplayModes) mHIDLMap.get(FEATURE_DISPLAY_MODES);
+                IDisplayModes displayModes = (IDisplayModes)
+                        mHIDLCapabilities.getService(FEATURE_DISPLAY_MODES);
                 return displayModes.setDisplayMode(mode.id, makeDefault);
             }
         } catch (RemoteException e) {
@@ -668,7 +828,8 @@ public final class EunoiaHardwareManager {
     public Range<Integer> getColorBalanceRange() {
         try {
             if (isSupportedHIDL(FEATURE_COLOR_BALANCE)) {
-                IColorBalance colorBalance = (IColorBalance) mHIDLMap.get(FEATURE_COLOR_BALANCE);
+                IColorBalance colorBalance = (IColorBalance)
+                        mHIDLCapabilities.getService(FEATURE_COLOR_BALANCE);
                 return HIDLHelper.fromHIDLRange(colorBalance.getColorBalanceRange());
             }
         } catch (RemoteException e) {
@@ -682,7 +843,8 @@ public final class EunoiaHardwareManager {
     public int getColorBalance() {
         try {
             if (isSupportedHIDL(FEATURE_COLOR_BALANCE)) {
-                IColorBalance colorBalance = (IColorBalance) mHIDLMap.get(FEATURE_COLOR_BALANCE);
+                IColorBalance colorBalance = (IColorBalance)
+                        mHIDLCapabilities.getService(FEATURE_COLOR_BALANCE);
                 return colorBalance.getColorBalance();
             }
         } catch (RemoteException e) {
@@ -700,7 +862,8 @@ public final class EunoiaHardwareManager {
     public boolean setColorBalance(int value) {
         try {
             if (isSupportedHIDL(FEATURE_COLOR_BALANCE)) {
-                IColorBalance colorBalance = (IColorBalance) mHIDLMap.get(FEATURE_COLOR_BALANCE);
+                IColorBalance colorBalance = (IColorBalance)
+                        mHIDLCapabilities.getService(FEATURE_COLOR_BALANCE);
                 return colorBalance.setColorBalance(value);
             }
         } catch (RemoteException e) {
@@ -717,7 +880,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_PICTURE_ADJUSTMENT)) {
                 IPictureAdjustment pictureAdjustment = (IPictureAdjustment)
-                        mHIDLMap.get(FEATURE_PICTURE_ADJUSTMENT);
+                        mHIDLCapabilities.getService(FEATURE_PICTURE_ADJUSTMENT);
                 return HIDLHelper.fromHIDLHSIC(pictureAdjustment.getPictureAdjustment());
             }
         } catch (RemoteException e) {
@@ -734,7 +897,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_PICTURE_ADJUSTMENT)) {
                 IPictureAdjustment pictureAdjustment = (IPictureAdjustment)
-                        mHIDLMap.get(FEATURE_PICTURE_ADJUSTMENT);
+                        mHIDLCapabilities.getService(FEATURE_PICTURE_ADJUSTMENT);
                 return HIDLHelper.fromHIDLHSIC(pictureAdjustment.getDefaultPictureAdjustment());
             }
         } catch (RemoteException e) {
@@ -752,7 +915,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_PICTURE_ADJUSTMENT)) {
                 IPictureAdjustment pictureAdjustment = (IPictureAdjustment)
-                        mHIDLMap.get(FEATURE_PICTURE_ADJUSTMENT);
+                        mHIDLCapabilities.getService(FEATURE_PICTURE_ADJUSTMENT);
                 return pictureAdjustment.setPictureAdjustment(HIDLHelper.toHIDLHSIC(hsic));
             }
         } catch (RemoteException e) {
@@ -769,7 +932,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_PICTURE_ADJUSTMENT)) {
                 IPictureAdjustment pictureAdjustment = (IPictureAdjustment)
-                        mHIDLMap.get(FEATURE_PICTURE_ADJUSTMENT);
+                        mHIDLCapabilities.getService(FEATURE_PICTURE_ADJUSTMENT);
                 return Arrays.asList(
                         HIDLHelper.fromHIDLRange(pictureAdjustment.getHueRange()),
                         HIDLHelper.fromHIDLRange(pictureAdjustment.getSaturationRange()),
@@ -789,7 +952,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_TOUCHSCREEN_GESTURES)) {
                 ITouchscreenGesture touchscreenGesture = (ITouchscreenGesture)
-                        mHIDLMap.get(FEATURE_TOUCHSCREEN_GESTURES);
+                        mHIDLCapabilities.getService(FEATURE_TOUCHSCREEN_GESTURES);
                 return HIDLHelper.fromHIDLGestures(touchscreenGesture.getSupportedGestures());
             }
         } catch (RemoteException e) {
@@ -805,7 +968,7 @@ public final class EunoiaHardwareManager {
         try {
             if (isSupportedHIDL(FEATURE_TOUCHSCREEN_GESTURES)) {
                 ITouchscreenGesture touchscreenGesture = (ITouchscreenGesture)
-                        mHIDLMap.get(FEATURE_TOUCHSCREEN_GESTURES);
+                        mHIDLCapabilities.getService(FEATURE_TOUCHSCREEN_GESTURES);
                 return touchscreenGesture.setGestureEnabled(
                         HIDLHelper.toHIDLGesture(gesture), state);
             }
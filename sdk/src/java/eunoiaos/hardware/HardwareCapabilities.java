@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eunoiaos.hardware;
+
+import android.hidl.base.V1_0.IBase;
+import android.os.SystemClock;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tracks which hardware features are backed by a HIDL service, and holds those services.
+ * Looking a service up blocks until the HAL is up or known to be absent, so at first use all
+ * features are looked up in parallel. Every feature has at most one lookup in flight, which
+ * concurrent callers wait for, and its result is kept. Missing services are looked up again
+ * in the background after a while, in case their HAL came up late; callers keep seeing them
+ * as missing until that lookup finds them. Thread-safe.
+ */
+final class HardwareCapabilities {
+    /** Looks up the HIDL service of a feature, blocking. */
+    interface ServiceLookup {
+        /**
+         * @return The service, or null if the device has none for the feature.
+         */
+        IBase getService(int feature);
+    }
+
+    // How long the absence of a service is trusted before it is looked up again
+    private static final long NEGATIVE_RESULT_TTL_MS = 60 * 1000;
+
+    private static final int MAX_LOOKUP_THREADS = 4;
+    private static final long LOOKUP_THREAD_KEEP_ALIVE_MS = 1000;
+
+    private final int mFeatures;
+    private final ServiceLookup mServiceLookup;
+
+    // Indexed by the bit of the feature
+    private final AtomicReferenceArray<Lookup> mLookups =
+            new AtomicReferenceArray<Lookup>(Integer.SIZE);
+
+    private final AtomicBoolean mPrefetched = new AtomicBoolean();
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private static final class Lookup extends FutureTask<IBase> {
+        // Whether this looks up a service that an earlier lookup found missing
+        private final boolean mRefresh;
+        private volatile long mDoneTime;
+
+        Lookup(ServiceLookup serviceLookup, int feature, boolean refresh) {
+            super(() -> serviceLookup.getService(feature));
+            mRefresh = refresh;
+        }
+
+        @Override
+        protected void done() {
+            mDoneTime = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Waits for the lookup to finish.
+         * @return The service, or null if there is none.
+         */
+        IBase getService() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        // Someone else may be waiting for the same lookup, so finish it
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        return null;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Whether the lookup found no service long enough ago to try again.
+         */
+        boolean isExpired() {
+            return isDone() && getService() == null
+                    && SystemClock.elapsedRealtime() - mDoneTime > NEGATIVE_RESULT_TTL_MS;
+        }
+
+        /**
+         * Whether this is a repeated lookup of a missing service that has not finished yet.
+         */
+        boolean isRefreshing() {
+            return mRefresh && !isDone();
+        }
+    }
+
+    /**
+     * @param features A bitmask of all features that may have a HIDL service.
+     * @param serviceLookup Looks up the service of one of the features.
+     */
+    HardwareCapabilities(int features, ServiceLookup serviceLookup) {
+        mFeatures = features;
+        mServiceLookup = serviceLookup;
+        mExecutor = new ThreadPoolExecutor(MAX_LOOKUP_THREADS, MAX_LOOKUP_THREADS,
+                LOOKUP_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the HIDL service of a feature, looking it up if it never was. Only the first
+     * lookup of a feature blocks; a missing service is looked up again on the executor.
+     * @param feature A single feature.
+     * @return The service, or null if the device has none for the feature.
+     */
+    IBase getService(int feature) {
+        if (Integer.bitCount(feature) != 1 || (mFeatures & feature) == 0) {
+            return null;
+        }
+        prefetchIfNeeded();
+
+        final int index = Integer.numberOfTrailingZeros(feature);
+        while (true) {
+            final Lookup lookup = mLookups.get(index);
+            if (lookup == null) {
+                final Lookup newLookup = new Lookup(mServiceLookup, feature, false);
+                if (mLookups.compareAndSet(index, null, newLookup)) {
+                    newLookup.run();
+                    return newLookup.getService();
+                }
+                // Another thread started a lookup first; wait for that one
+                continue;
+            }
+            if (lookup.isRefreshing()) {
+                // Until the repeated lookup finishes, the service is still missing
+                return null;
+            }
+            if (lookup.isExpired()) {
+                final Lookup newLookup = new Lookup(mServiceLookup, feature, true);
+                if (mLookups.compareAndSet(index, lookup, newLookup)) {
+                    mExecutor.execute(newLookup);
+                }
+                return null;
+            }
+            return lookup.getService();
+        }
+    }
+
+    /**
+     * Returns all features with a HIDL service, waiting for first lookups still in flight.
+     * @return A bitmask of the features.
+     */
+    int getSupportedFeatures() {
+        int supported = 0;
+        for (int features = mFeatures; features != 0; features &= features - 1) {
+            final int feature = Integer.lowestOneBit(features);
+            if (getService(feature) != null) {
+                supported |= feature;
+            }
+        }
+        return supported;
+    }
+
+    private void prefetchIfNeeded() {
+        if (mPrefetched.get() || mPrefetched.getAndSet(true)) {
+            return;
+        }
+        for (int features = mFeatures; features != 0; features &= features - 1) {
+            final int feature = Integer.lowestOneBit(features);
+            mExecutor.execute(() -> getService(feature));
+        }
+    }
+}
@@ -24,25 +24,31 @@ import android.content.IContentProvider;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SharedMemory;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.Settings;
+import android.system.ErrnoException;
 import android.text.TextUtils;
 import android.util.AndroidException;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.MemoryIntArray;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.ArrayUtils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import eunoiaos.trust.TrustInterface;
@@ -114,6 +120,69 @@ public final class EunoiaSettings {
      */
     public static final String CALL_METHOD_GET_GLOBAL = "GET_global";
 
+    /**
+     * @hide - Private call() method on SettingsProvider to read many keys from 'system' table.
+     */
+    public static final String CALL_METHOD_GET_MANY_SYSTEM = "GET_MANY_system";
+
+    /**
+     * @hide - Private call() method on SettingsProvider to read many keys from 'secure' table.
+     */
+    public static final String CALL_METHOD_GET_MANY_SECURE = "GET_MANY_secure";
+
+    /**
+     * @hide - Private call() method on SettingsProvider to read many keys from 'global' table.
+     */
+    public static final String CALL_METHOD_GET_MANY_GLOBAL = "GET_MANY_global";
+
+    /**
+     * @hide - Private call() method to read the entire system table as a snapshot
+     */
+    public static final String CALL_METHOD_GET_ALL_SYSTEM = "GET_ALL_system";
+
+    /**
+     * @hide - Private call() method to read the entire secure table as a snapshot
+     */
+    public static final String CALL_METHOD_GET_ALL_SECURE = "GET_ALL_secure";
+
+    /**
+     * @hide - Private call() method to read the entire global table as a snapshot
+     */
+    public static final String CALL_METHOD_GET_ALL_GLOBAL = "GET_ALL_global";
+
+    /**
+     * @hide - Private call() method to get the shared memory snapshot of the system table
+     */
+    public static final String CALL_METHOD_GET_SNAPSHOT_SYSTEM = "GET_SNAPSHOT_system";
+
+    /**
+     * @hide - Private call() method to get the shared memory snapshot of the secure table
+     */
+    public static final String CALL_METHOD_GET_SNAPSHOT_SECURE = "GET_SNAPSHOT_secure";
+
+    /**
+     * @hide - Private call() method to get the shared memory snapshot of the global table
+     */
+    public static final String CALL_METHOD_GET_SNAPSHOT_GLOBAL = "GET_SNAPSHOT_global";
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_GET_SNAPSHOT_* methods holding a
+     * {@link android.os.ParcelFileDescriptor} of the {@link SettingsSnapshot} memory
+     */
+    public static final String CALL_METHOD_SNAPSHOT_KEY = "_snapshot";
+
+    /**
+     * @hide - Argument extra holding the keys requested by the CALL_METHOD_GET_MANY_* methods,
+     * and result extra holding the keys returned by the CALL_METHOD_GET_ALL_* methods
+     */
+    public static final String CALL_METHOD_NAMES_KEY = "_names";
+
+    /**
+     * @hide - Result extra holding the values of the CALL_METHOD_GET_MANY_* and
+     * CALL_METHOD_GET_ALL_* methods, in the order of the keys
+     */
+    public static final String CALL_METHOD_VALUES_KEY = "_values";
+
     /**
      * @hide - Private call() method to write to 'system' table
      */
@@ -129,6 +198,31 @@ public final class EunoiaSettings {
      */
     public static final String CALL_METHOD_PUT_GLOBAL= "PUT_global";
 
+    /**
+     * @hide - Private call() method to write and delete several entries of the 'system' table
+     * in one transaction
+     */
+    public static final String CALL_METHOD_PUT_MANY_SYSTEM = "PUT_MANY_system";
+
+    /**
+     * @hide - Private call() method to write and delete several entries of the 'secure' table
+     * in one transaction
+     */
+    public static final String CALL_METHOD_PUT_MANY_SECURE = "PUT_MANY_secure";
+
+    /**
+     * @hide - Private call() method to write and delete several entries of the 'global' table
+     * in one transaction
+     */
+    public static final String CALL_METHOD_PUT_MANY_GLOBAL = "PUT_MANY_global";
+
+    /**
+     * @hide - Argument extra holding the keys to delete with the CALL_METHOD_PUT_MANY_* methods.
+     * The keys to write are held in CALL_METHOD_NAMES_KEY and their values in
+     * CALL_METHOD_VALUES_KEY.
+     */
+    public static final String CALL_METHOD_DELETED_NAMES_KEY = "_deleted_names";
+
     /**
      * @hide - Private call() method on EunoiaSettingsProvider to migrate Eunoia settings
      */
@@ -169,6 +263,120 @@ public final class EunoiaSettings {
      */
     public static final String CALL_METHOD_DELETE_GLOBAL = "DELETE_global";
 
+    /**
+     * @hide - Private call() method to stream the entire system table out of a pipe
+     */
+    public static final String CALL_METHOD_EXPORT_SYSTEM = "EXPORT_system";
+
+    /**
+     * @hide - Private call() method to stream the entire secure table out of a pipe
+     */
+    public static final String CALL_METHOD_EXPORT_SECURE = "EXPORT_secure";
+
+    /**
+     * @hide - Private call() method to stream the entire global table out of a pipe
+     */
+    public static final String CALL_METHOD_EXPORT_GLOBAL = "EXPORT_global";
+
+    /**
+     * @hide - Private call() method to stream settings from a pipe into the system table
+     */
+    public static final String CALL_METHOD_IMPORT_SYSTEM = "IMPORT_system";
+
+    /**
+     * @hide - Private call() method to stream settings from a pipe into the secure table
+     */
+    public static final String CALL_METHOD_IMPORT_SECURE = "IMPORT_secure";
+
+    /**
+     * @hide - Private call() method to stream settings from a pipe into the global table
+     */
+    public static final String CALL_METHOD_IMPORT_GLOBAL = "IMPORT_global";
+
+    /**
+     * @hide - Argument extra of the CALL_METHOD_EXPORT_* methods holding the write end, and
+     * of the CALL_METHOD_IMPORT_* methods holding the read end, of a pipe of
+     * {@link SettingsStream} records
+     */
+    public static final String CALL_METHOD_STREAM_KEY = "_stream";
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_IMPORT_* methods holding the number of settings
+     * that were imported
+     */
+    public static final String CALL_METHOD_IMPORTED_COUNT_KEY = "_imported_count";
+
+    /**
+     * @hide - Argument extra asking the provider to hand back the generation array of the
+     * table, and result extra holding that {@link MemoryIntArray}.
+     */
+    public static final String CALL_METHOD_TRACK_GENERATION_KEY = "_track_generation";
+
+    /**
+     * @hide - Result extra holding the index of the setting in the generation array
+     */
+    public static final String CALL_METHOD_GENERATION_INDEX_KEY = "_generation_index";
+
+    /**
+     * @hide - Result extra holding the generation of the setting at the time it was read
+     */
+    public static final String CALL_METHOD_GENERATION_KEY = "_generation";
+
+    /**
+     * @hide - Argument extra holding the number of reads this client answered from its cache
+     * since it last reported them
+     */
+    public static final String CALL_METHOD_CACHE_HITS_KEY = "_cache_hits";
+
+    /**
+     * @hide - Argument extra holding the number of reads this client had to ask the provider
+     * for since it last reported them
+     */
+    public static final String CALL_METHOD_CACHE_MISSES_KEY = "_cache_misses";
+
+    /**
+     * @hide - Private call() method returning the usage statistics of the provider. Requires
+     * {@link android.Manifest.permission#DUMP}.
+     */
+    public static final String CALL_METHOD_STATS = "STATS";
+
+    /**
+     * @hide - Result extra of CALL_METHOD_STATS: a Bundle mapping each call() method to the
+     * number of times it was called
+     */
+    public static final String CALL_METHOD_STATS_METHODS_KEY = "_stats_methods";
+
+    /**
+     * @hide - Result extra of CALL_METHOD_STATS: a Bundle mapping each table to the number of
+     * call() requests made against it
+     */
+    public static final String CALL_METHOD_STATS_TABLES_KEY = "_stats_tables";
+
+    /**
+     * @hide - Result extra of CALL_METHOD_STATS: a Bundle mapping each of "get", "put", "list"
+     * and "delete" to a long array of the request count followed by the 50th, 90th and 99th
+     * percentile and the maximum latency in microseconds
+     */
+    public static final String CALL_METHOD_STATS_LATENCY_KEY = "_stats_latency";
+
+    /**
+     * @hide - Result extra of CALL_METHOD_STATS: a Bundle mapping the most requested keys to
+     * their approximate request counts
+     */
+    public static final String CALL_METHOD_STATS_TOP_KEYS_KEY = "_stats_top_keys";
+
+    /**
+     * @hide - Result extra of CALL_METHOD_STATS: a Bundle mapping the uids making the most
+     * requests, as strings, to their request counts
+     */
+    public static final String CALL_METHOD_STATS_TOP_UIDS_KEY = "_stats_top_uids";
+
+    /**
+     * @hide - Result extra of CALL_METHOD_STATS: a Bundle mapping the uids that reported on
+     * their client cache, as strings, to a long array of their cache hits and misses
+     */
+    public static final String CALL_METHOD_STATS_CACHE_KEY = "_stats_cache";
+
     // endregion
 
     private static final class ContentProviderHolder {
@@ -193,7 +401,147 @@ public final class EunoiaSettings {
         }
     }
 
-    // Thread-safe.
+    /**
+     * A value held by {@link NameValueCache} along with what is needed to tell whether it is
+     * still current. Entries handed out by the call() fast path are validated against the
+     * per-key generation the provider publishes in shared memory; entries without one fall
+     * back to the table-wide version system property. Immutable, apart from the typed forms
+     * of the value which are parsed once on first use and kept for later typed reads.
+     */
+    private static final class CachedValue {
+        private static final int INT_PARSED = 1 << 0;
+        private static final int INT_VALID = 1 << 1;
+        private static final int LONG_PARSED = 1 << 2;
+        private static final int LONG_VALID = 1 << 3;
+        private static final int FLOAT_PARSED = 1 << 4;
+        private static final int FLOAT_VALID = 1 << 5;
+
+        final String mValue;
+        final MemoryIntArray mGenerationArray;
+        final int mGenerationIndex;
+        final int mGeneration;
+        final long mTableVersion;
+
+        // Each typed value is written before its flags are published through mParsed. Racing
+        // parses can drop each other's flags, which only means parsing again later.
+        private int mIntValue;
+        private long mLongValue;
+        private float mFloatValue;
+        private volatile int mParsed;
+
+        CachedValue(String value, MemoryIntArray generationArray, int generationIndex,
+                int generation, long tableVersion) {
+            mValue = value;
+            mGenerationArray = generationArray;
+            mGenerationIndex = generationIndex;
+            mGeneration = generation;
+            mTableVersion = tableVersion;
+        }
+
+        /** Whether the value is set and an integer; if so it is in {@link #mIntValue}. */
+        boolean hasInt() {
+            int parsed = mParsed;
+            if ((parsed & INT_PARSED) == 0) {
+                parsed |= INT_PARSED;
+                if (mValue != null) {
+                    try {
+                        mIntValue = Integer.parseInt(mValue);
+                        parsed |= INT_VALID;
+                    } catch (NumberFormatException e) {
+                        // Remembered as invalid
+                    }
+                }
+                mParsed |= parsed;
+            }
+            return (parsed & INT_VALID) != 0;
+        }
+
+        /** Whether the value is set and a long; if so it is in {@link #mLongValue}. */
+        boolean hasLong() {
+            int parsed = mParsed;
+            if ((parsed & LONG_PARSED) == 0) {
+                parsed |= LONG_PARSED;
+                if (mValue != null) {
+                    try {
+                        mLongValue = Long.parseLong(mValue);
+                        parsed |= LONG_VALID;
+                    } catch (NumberFormatException e) {
+                        // Remembered as invalid
+                    }
+                }
+                mParsed |= parsed;
+            }
+            return (parsed & LONG_VALID) != 0;
+        }
+
+        /** Whether the value is set and a float; if so it is in {@link #mFloatValue}. */
+        boolean hasFloat() {
+            int parsed = mParsed;
+            if ((parsed & FLOAT_PARSED) == 0) {
+                parsed |= FLOAT_PARSED;
+                if (mValue != null) {
+                    try {
+                        mFloatValue = Float.parseFloat(mValue);
+                        parsed |= FLOAT_VALID;
+                    } catch (NumberFormatException e) {
+                        // Remembered as invalid
+                    }
+                }
+                mParsed |= parsed;
+            }
+            return (parsed & FLOAT_VALID) != 0;
+        }
+    }
+
+    /**
+     * All values of a table for our own user, as of a table version. Immutable.
+     */
+    private static final class TableSnapshot {
+        final long mVersion;
+        final ArrayMap<String, String> mValues;
+
+        TableSnapshot(long version, ArrayMap<String, String> values) {
+            mVersion = version;
+            mValues = values;
+        }
+    }
+
+    /**
+     * A table mapped from the shared memory snapshot published by the provider, with the
+     * entries handed out so far. Lookups are lock-free and, once an entry was handed out,
+     * allocation-free. Valid while {@link #isCurrent} holds.
+     */
+    private static final class SharedTable {
+        final SettingsSnapshot mSnapshot;
+        // Entries are immutable but for their typed values, so racing creations are harmless
+        private final CachedValue[] mEntries;
+        private final CachedValue mAbsent = new CachedValue(null, null, -1, 0, 0);
+
+        SharedTable(SettingsSnapshot snapshot) {
+            mSnapshot = snapshot;
+            mEntries = new CachedValue[snapshot.size()];
+        }
+
+        boolean isCurrent() {
+            return mSnapshot.isCurrent();
+        }
+
+        CachedValue get(String name) {
+            final int index = mSnapshot.indexOf(name);
+            if (index < 0) {
+                return mAbsent;
+            }
+            CachedValue entry = mEntries[index];
+            if (entry == null) {
+                entry = new CachedValue(mSnapshot.getValue(index), null, -1, 0, 0);
+                mEntries[index] = entry;
+            }
+            return entry;
+        }
+    }
+
+    // Thread-safe. Reads of cached values never take a lock. Only our own user is cached, so
+    // reads for the current user should name its id rather than USER_CURRENT.
     private static class NameValueCache {
         private final String mVersionSystemProperty;
         private final Uri mUri;
@@ -203,24 +551,81 @@ public final class EunoiaSettings {
                 new String[] { Settings.NameValueTable.VALUE };
         private static final String NAME_EQ_PLACEHOLDER = "name=?";
 
-        // Must synchronize on 'this' to access mValues and mValuesVersion.
-        private final HashMap<String, String> mValues = new HashMap<String, String>();
-        private long mValuesVersion = 0;
+        private final ConcurrentHashMap<String, CachedValue> mValues =
+                new ConcurrentHashMap<String, CachedValue>();
+
+        // Reads of our own user's values answered locally, and those that had to go to the
+        // provider, since they were last reported to it.
+        private final AtomicLong mCacheHits = new AtomicLong();
+        private final AtomicLong mCacheMisses = new AtomicLong();
+
+        // Per-key generation counters of this table for our own user, shared by the provider.
+        // Requested with the first call() that finds it missing.
+        private volatile MemoryIntArray mGenerationArray;
+
+        // When prefetching is enabled, misses are answered from a snapshot of the whole table
+        // which is pulled again on the first miss after the table version changed.
+        private volatile boolean mPrefetchEnabled;
+        private volatile TableSnapshot mSnapshot;
+
+        // When the shared snapshot is enabled, all reads of our own user are answered from
+        // the table mapped from the provider's shared memory, which is mapped again on the
+        // first read after the table changed.
+        private volatile boolean mSharedSnapshotEnabled;
+        private volatile SharedTable mSharedTable;
+        private final Object mSharedTableLock = new Object();
 
         // The method we'll call (or null, to not use) on the provider
         // for the fast path of retrieving settings.
         private final String mCallGetCommand;
+        private final String mCallGetManyCommand;
+        private final String mCallGetAllCommand;
+        private final String mCallGetSnapshotCommand;
         private final String mCallSetCommand;
+        private final String mCallSetManyCommand;
+        private final String mCallExportCommand;
+        private final String mCallImportCommand;
 
         public NameValueCache(String versionSystemProperty, Uri uri,
-                String getCommand, String setCommand, ContentProviderHolder providerHolder) {
+                String getCommand, String getManyCommand, String getAllCommand,
+                String getSnapshotCommand, String setCommand, String setManyCommand,
+                String exportCommand, String importCommand,
+                ContentProviderHolder providerHolder) {
             mVersionSystemProperty = versionSystemProperty;
             mUri = uri;
             mCallGetCommand = getCommand;
+            mCallGetManyCommand = getManyCommand;
+            mCallGetAllCommand = getAllCommand;
+            mCallGetSnapshotCommand = getSnapshotCommand;
             mCallSetCommand = setCommand;
+            mCallSetManyCommand = setManyCommand;
+            mCallExportCommand = exportCommand;
+            mCallImportCommand = importCommand;
             mProviderHolder = providerHolder;
         }
 
+        /**
+         * Enables or disables answering misses from a snapshot of the whole table.
+         * @param enabled Whether to prefetch the table.
+         */
+        public void setPrefetchEnabled(boolean enabled) {
+            mPrefetchEnabled = enabled;
+            if (!enabled) {
+                mSnapshot = null;
+            }
+        }
+
+        /**
+         * Enables or disables answering reads from the shared memory snapshot of the table.
+         * @param enabled Whether to read the table from shared memory.
+         */
+        public void setSharedSnapshotEnabled(boolean enabled) {
+            mSharedSnapshotEnabled = enabled;
+            if (!enabled) {
+                mSharedTable = null;
+            }
+        }
+
         /**
          * Puts a string name/value pair into the content provider for the specified user.
          * @param cr The content resolver to use.
@@ -245,35 +650,264 @@ public final class EunoiaSettings {
             return true;
         }
 
+        /**
+         * Puts and deletes several settings for the specified user with a single request. The
+         * provider applies them in one transaction.
+         * @param cr The content resolver to use.
+         * @param values The names and values to put into the content provider.
+         * @param deletedNames The names to delete from the content provider.
+         * @param userId The user id to use for the content provider.
+         * @return Whether the batch was applied.
+         */
+        public boolean putStringsForUser(ContentResolver cr, ArrayMap<String, String> values,
+                ArraySet<String> deletedNames, final int userId) {
+            final int count = values.size();
+            final String[] names = new String[count];
+            final String[] newValues = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = values.keyAt(i);
+                newValues[i] = values.valueAt(i);
+            }
+            try {
+                Bundle arg = new Bundle();
+                arg.putStringArray(CALL_METHOD_NAMES_KEY, names);
+                arg.putStringArray(CALL_METHOD_VALUES_KEY, newValues);
+                arg.putStringArray(CALL_METHOD_DELETED_NAMES_KEY,
+                        deletedNames.toArray(new String[deletedNames.size()]));
+                arg.putInt(CALL_METHOD_USER_KEY, userId);
+                IContentProvider cp = mProviderHolder.getProvider(cr);
+                cp.call(cr.getAttributionSource(),
+                        mProviderHolder.mUri.getAuthority(), mCallSetManyCommand, null, arg);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Can't apply " + (count + deletedNames.size()) + " changes in "
+                        + mUri, e);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Asks the provider to stream the whole table of a user through a pipe. Requires the
+         * BACKUP or DUMP permission.
+         * @param cr The content resolver to use.
+         * @param userId The user id of the table to export.
+         * @return The read end of the pipe, or null if the provider failed.
+         */
+        public ParcelFileDescriptor exportForUser(ContentResolver cr, final int userId) {
+            ParcelFileDescriptor[] pipe = null;
+            try {
+                pipe = ParcelFileDescriptor.createPipe();
+                Bundle arg = new Bundle();
+                arg.putParcelable(CALL_METHOD_STREAM_KEY, pipe[1]);
+                arg.putInt(CALL_METHOD_USER_KEY, userId);
+                IContentProvider cp = mProviderHolder.getProvider(cr);
+                cp.call(cr.getAttributionSource(),
+                        mProviderHolder.mUri.getAuthority(), mCallExportCommand, null, arg);
+                return pipe[0];
+            } catch (IOException | RemoteException e) {
+                Log.w(TAG, "Can't export " + mUri, e);
+                if (pipe != null) {
+                    closeQuietly(pipe[0]);
+                }
+                return null;
+            } catch (RuntimeException e) {
+                // e.g. a SecurityException for a caller without BACKUP or DUMP
+                if (pipe != null) {
+                    closeQuietly(pipe[0]);
+                }
+                throw e;
+            } finally {
+                // The provider writes to its own copy of the write end
+                if (pipe != null) {
+                    closeQuietly(pipe[1]);
+                }
+            }
+        }
+
+        /**
+         * Hands the provider a pipe to read settings of a user from, and waits for it to
+         * apply all of them.
+         * @param cr The content resolver to use.
+         * @param in The read end of the pipe, which is closed before returning.
+         * @param userId The user id of the table to import into.
+         * @return The number of settings imported, or -1 if the import failed.
+         */
+        public int importForUser(ContentResolver cr, ParcelFileDescriptor in, final int userId) {
+            try {
+                Bundle arg = new Bundle();
+                arg.putParcelable(CALL_METHOD_STREAM_KEY, in);
+                arg.putInt(CALL_METHOD_USER_KEY, userId);
+                IContentProvider cp = mProviderHolder.getProvider(cr);
+                Bundle b = cp.call(cr.getAttributionSource(),
+                        mProviderHolder.mUri.getAuthority(), mCallImportCommand, null, arg);
+                return b != null ? b.getInt(CALL_METHOD_IMPORTED_COUNT_KEY, -1) : -1;
+            } catch (RemoteException e) {
+                Log.w(TAG, "Can't import into " + mUri, e);
+                return -1;
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        private static void closeQuietly(ParcelFileDescriptor fd) {
+            try {
+                fd.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
         /**
          * Gets a string value with the specified name from the name/value cache if possible. If
          * not, it will use the content resolver and perform a query.
          * @param cr Content resolver to use if name/value cache does not contain the name or if
-         *           the cache version is older than the current version.
+         *           the cached value is older than the current one.
          * @param name The name of the key to search for.
          * @param userId The user id of the cache to look in.
          * @return The string value of the specified key.
          */
         public String getStringForUser(ContentResolver cr, String name, final int userId) {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            return value != null ? value.mValue : null;
+        }
+
+        /**
+         * Gets an integer value with the specified name, parsing it only if it was not parsed
+         * since it was last fetched.
+         * @param cr The content resolver to use.
+         * @param name The name of the key to search for.
+         * @param def The value to return if the key is not set or not an integer.
+         * @param userId The user id of the cache to look in.
+         * @return The integer value of the specified key, or def.
+         */
+        public int getIntForUser(ContentResolver cr, String name, int def, final int userId) {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            return value != null && value.hasInt() ? value.mIntValue : def;
+        }
+
+        /**
+         * Gets an integer value with the specified name, parsing it only if it was not parsed
+         * since it was last fetched.
+         * @param cr The content resolver to use.
+         * @param name The name of the key to search for.
+         * @param userId The user id of the cache to look in.
+         * @return The integer value of the specified key.
+         * @throws EunoiaSettingNotFoundException If the key is not set or not an integer.
+         */
+        public int getIntForUser(ContentResolver cr, String name, final int userId)
+                throws EunoiaSettingNotFoundException {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            if (value == null || !value.hasInt()) {
+                throw new EunoiaSettingNotFoundException(name);
+            }
+            return value.mIntValue;
+        }
+
+        /**
+         * Gets a long value with the specified name, parsing it only if it was not parsed
+         * since it was last fetched.
+         * @param cr The content resolver to use.
+         * @param name The name of the key to search for.
+         * @param def The value to return if the key is not set or not a long.
+         * @param userId The user id of the cache to look in.
+         * @return The long value of the specified key, or def.
+         */
+        public long getLongForUser(ContentResolver cr, String name, long def, final int userId) {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            return value != null && value.hasLong() ? value.mLongValue : def;
+        }
+
+        /**
+         * Gets a long value with the specified name, parsing it only if it was not parsed
+         * since it was last fetched.
+         * @param cr The content resolver to use.
+         * @param name The name of the key to search for.
+         * @param userId The user id of the cache to look in.
+         * @return The long value of the specified key.
+         * @throws EunoiaSettingNotFoundException If the key is not set or not a long.
+         */
+        public long getLongForUser(ContentResolver cr, String name, final int userId)
+                throws EunoiaSettingNotFoundException {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            if (value == null || !value.hasLong()) {
+                throw new EunoiaSettingNotFoundException(name);
+            }
+            return value.mLongValue;
+        }
+
+        /**
+         * Gets a float value with the specified name, parsing it only if it was not parsed
+         * since it was last fetched.
+         * @param cr The content resolver to use.
+         * @param name The name of the key to search for.
+         * @param def The value to return if the key is not set or not a float.
+         * @param userId The user id of the cache to look in.
+         * @return The float value of the specified key, or def.
+         */
+        public float getFloatForUser(ContentResolver cr, String name, float def,
+                final int userId) {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            return value != null && value.hasFloat() ? value.mFloatValue : def;
+        }
+
+        /**
+         * Gets a float value with the specified name, parsing it only if it was not parsed
+         * since it was last fetched.
+         * @param cr The content resolver to use.
+         * @param name The name of the key to search for.
+         * @param userId The user id of the cache to look in.
+         * @return The float value of the specified key.
+         * @throws EunoiaSettingNotFoundException If the key is not set or not a float.
+         */
+        public float getFloatForUser(ContentResolver cr, String name, final int userId)
+                throws EunoiaSettingNotFoundException {
+            final CachedValue value = getValueForUser(cr, name, userId);
+            if (value == null || !value.hasFloat()) {
+                throw new EunoiaSettingNotFoundException(name);
+            }
+            return value.mFloatValue;
+        }
+
+        /**
+         * Gets the entry for a key, from the cache if it is current. Entries for other users
+         * are not cached, and are only handed out for the caller to parse.
+         * @return The entry, or null if the provider could not be reached.
+         */
+        private CachedValue getValueForUser(ContentResolver cr, String name, final int userId) {
             final boolean isSelf = (userId == UserHandle.myUserId());
+            long tableVersion = 0;
             if (isSelf) {
                 if (LOCAL_LOGV) Log.d(TAG, "get setting for self");
-                long newValuesVersion = SystemProperties.getLong(mVersionSystemProperty, 0);
+
+                if (mSharedSnapshotEnabled) {
+                    final SharedTable table = getCurrentSharedTable(cr);
+                    if (table != null) {
+                        return table.get(name);
+                    }
+                }
 
                 // Our own user's settings data uses a client-side cache
-                synchronized (NameValueCache.this) {
-                    if (mValuesVersion != newValuesVersion) {
-                        if (LOCAL_LOGV || false) {
-                            Log.v(TAG, "invalidate [" + mUri.getLastPathSegment() + "]: current "
-                                    + newValuesVersion + " != cached " + mValuesVersion);
-                        }
+                final CachedValue cached = mValues.get(name);
+                if (cached != null && isCurrent(cached)) {
+                    mCacheHits.incrementAndGet();
+                    return cached;  // Value could be null, that's OK -- negative caching
+                }
+                if (LOCAL_LOGV && cached != null) {
+                    Log.v(TAG, "invalidate [" + mUri.getLastPathSegment() + "]: " + name);
+                }
 
-                        mValues.clear();
-                        mValuesVersion = newValuesVersion;
-                    } else if (mValues.containsKey(name)) {
-                        return mValues.get(name);  // Could be null, that's OK -- negative caching
-                    }
+                // Sample the table version before asking the provider, so that a racing
+                // write can only make the entry we store look stale, never fresh.
+                tableVersion = SystemProperties.getLong(mVersionSystemProperty, 0);
+
+                final TableSnapshot snapshot = getCurrentSnapshot(cr, tableVersion);
+                if (snapshot != null) {
+                    // Absent keys are negative hits
+                    mCacheHits.incrementAndGet();
+                    return cacheValue(name, snapshot.mValues.get(name), null, -1, 0,
+                            snapshot.mVersion);
                 }
+                mCacheMisses.incrementAndGet();
             } else {
                 if (LOCAL_LOGV) Log.v(TAG, "get setting for user " + userId
                         + " by user " + UserHandle.myUserId() + " so skipping cache");
@@ -287,61 +921,436 @@ public final class EunoiaSettings {
             // interface.
             if (mCallGetCommand != null) {
                 try {
-                    Bundle args = null;
+                    Bundle args = new Bundle();
                     if (!isSelf) {
-                        args = new Bundle();
                         args.putInt(CALL_METHOD_USER_KEY, userId);
+                    } else {
+                        if (mGenerationArray == null) {
+                            args.putString(CALL_METHOD_TRACK_GENERATION_KEY, null);
+                        }
+                        putCacheStats(args);
                     }
                     Bundle b = cp.call(cr.getAttributionSource(),
                             mProviderHolder.mUri.getAuthority(), mCallGetCommand, name, args);
                     if (b != null) {
-                        String value = b.getPairValue();
+                        String value = b.getString(Settings.NameValueTable.VALUE);
                         // Don't update our cache for reads of other users' data
                         if (isSelf) {
-                            synchronized (NameValueCache.this) {
-                                mValues.put(name, value);
+                            return cacheValue(name, value, getGenerationArray(b),
+                                    b.getInt(CALL_METHOD_GENERATION_INDEX_KEY, -1),
+                                    b.getInt(CALL_METHOD_GENERATION_KEY, 0), tableVersion);
+                        }
+                        if (LOCAL_LOGV) Log.i(TAG, "call-query of user " + userId
+                                + " by " + UserHandle.myUserId()
+                                + " so not updating cache");
+                        return new CachedValue(value, null, -1, 0, 0);
+                    }
+                    // If the response Bundle is null, we fall through
+                    // to the query interface below.
+                } catch (RemoteException e) {
+                    // Not supported by the remote side?  Fall through
+                    // to query().
+                }
+            }
+
+            Cursor c = null;
+            try {
+                Bundle queryArgs = ContentResolver.createSqlQueryBundle(
+                        NAME_EQ_PLACEHOLDER, new String[]{name}, null);
+                c = cp.query(cr.getAttributionSource(), mUri,
+                        SELECT_VALUE_PROJECTION, queryArgs, null);
+                if (c == null) {
+                    Log.w(TAG, "Can't get key " + name + " from " + mUri);
+                    return null;
+                }
+
+                String value = c.moveToNext() ? c.getString(0) : null;
+                if (LOCAL_LOGV) {
+                    Log.v(TAG, "cache miss [" + mUri.getLastPathSegment() + "]: " +
+                            name + " = " + (value == null ? "(null)" : value));
+                }
+                if (isSelf) {
+                    return cacheValue(name, value, null, -1, 0, tableVersion);
+                }
+                return new CachedValue(value, null, -1, 0, 0);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Can't get key " + name + " from " + mUri, e);
+                return null;  // Return null, but don't cache it.
+            } finally {
+                if (c != null) c.close();
+            }
+        }
+
+        /**
+         * Gets the string values of several keys with a single call to the provider. Values
+         * that are cached and current are not requested again, and the values fetched for our
+         * own user are added to the cache.
+         * @param cr The content resolver to use.
+         * @param names The names of the keys to search for.
+         * @param userId The user id of the cache to look in.
+         * @return A map of every requested key to its value, or to null if it is not set.
+         */
+        public Map<String, String> getStringsForUser(ContentResolver cr, String[] names,
+                final int userId) {
+            final ArrayMap<String, String> values = new ArrayMap<String, String>(names.length);
+            final boolean isSelf = (userId == UserHandle.myUserId());
+            String[] toFetch = names;
+            long tableVersion = 0;
+            if (isSelf) {
+                if (mSharedSnapshotEnabled) {
+                    final SharedTable table = getCurrentSharedTable(cr);
+                    if (table != null) {
+                        for (String name : names) {
+                            values.put(name, table.get(name).mValue);
+                        }
+                        return values;
+                    }
+                }
+
+                int missing = 0;
+                final String[] misses = new String[names.length];
+                for (String name : names) {
+                    final CachedValue cached = mValues.get(name);
+                    if (cached != null && isCurrent(cached)) {
+                        values.put(name, cached.mValue);
+                    } else {
+                        misses[missing++] = name;
+                    }
+                }
+                mCacheHits.addAndGet(names.length - missing);
+                if (missing == 0) {
+                    return values;
+                }
+                toFetch = Arrays.copyOf(misses, missing);
+                tableVersion = SystemProperties.getLong(mVersionSystemProperty, 0);
+
+                final TableSnapshot snapshot = getCurrentSnapshot(cr, tableVersion);
+                if (snapshot != null) {
+                    for (String name : toFetch) {
+                        values.put(name, snapshot.mValues.get(name));
+                    }
+                    mCacheHits.addAndGet(missing);
+                    return values;
+                }
+                mCacheMisses.addAndGet(missing);
+            }
+
+            if (mCallGetManyCommand != null) {
+                try {
+                    Bundle args = new Bundle();
+                    args.putStringArray(CALL_METHOD_NAMES_KEY, toFetch);
+                    if (!isSelf) {
+                        args.putInt(CALL_METHOD_USER_KEY, userId);
+                    } else {
+                        if (mGenerationArray == null) {
+                            args.putString(CALL_METHOD_TRACK_GENERATION_KEY, null);
+                        }
+                        putCacheStats(args);
+                    }
+                    IContentProvider cp = mProviderHolder.getProvider(cr);
+                    Bundle b = cp.call(cr.getAttributionSource(),
+                            mProviderHolder.mUri.getAuthority(), mCallGetManyCommand, null, args);
+                    String[] fetched = b != null ? b.getStringArray(CALL_METHOD_VALUES_KEY) : null;
+                    if (fetched != null && fetched.length == toFetch.length) {
+                        final MemoryIntArray array = isSelf ? getGenerationArray(b) : null;
+                        final int[] indices = b.getIntArray(CALL_METHOD_GENERATION_INDEX_KEY);
+                        final int[] generations = b.getIntArray(CALL_METHOD_GENERATION_KEY);
+                        final boolean hasGenerations = indices != null && generations != null
+                                && indices.length == toFetch.length
+                                && generations.length == toFetch.length;
+                        for (int i = 0; i < toFetch.length; i++) {
+                            values.put(toFetch[i], fetched[i]);
+                            if (isSelf) {
+                                cacheValue(toFetch[i], fetched[i], array,
+                                        hasGenerations ? indices[i] : -1,
+                                        hasGenerations ? generations[i] : 0, tableVersion);
                             }
-                        } else {
-                            if (LOCAL_LOGV) Log.i(TAG, "call-query of user " + userId
-                                    + " by " + UserHandle.myUserId()
-                                    + " so not updating cache");
                         }
-                        return value;
+                        return values;
                     }
-                    // If the response Bundle is null, we fall through
-                    // to the query interface below.
+                    // If the response is missing the values, we fall through
+                    // to reading one key at a time below.
                 } catch (RemoteException e) {
                     // Not supported by the remote side?  Fall through
-                    // to query().
+                    // to reading one key at a time.
                 }
             }
 
-            Cursor c = null;
+            for (String name : toFetch) {
+                values.put(name, getStringForUser(cr, name, userId));
+            }
+            return values;
+        }
+
+        /**
+         * Returns a snapshot of the whole table for our own user matching the given table
+         * version, pulling a new one from the provider if the one we hold is outdated.
+         * @param cr The content resolver to use.
+         * @param tableVersion The table version sampled before this call.
+         * @return The snapshot, or null if prefetching is disabled or failed.
+         */
+        private TableSnapshot getCurrentSnapshot(ContentResolver cr, long tableVersion) {
+            if (!mPrefetchEnabled || mCallGetAllCommand == null) {
+                return null;
+            }
+            TableSnapshot snapshot = mSnapshot;
+            if (snapshot != null && snapshot.mVersion == tableVersion) {
+                return snapshot;
+            }
+
             try {
-                Bundle queryArgs = ContentResolver.createSqlQueryBundle(
-                        NAME_EQ_PLACEHOLDER, new String[]{name}, null);
-                c = cp.query(cr.getAttributionSource(), mUri,
-                        SELECT_VALUE_PROJECTION, queryArgs, null);
-                if (c == null) {
-                    Log.w(TAG, "Can't get key " + name + " from " + mUri);
+                IContentProvider cp = mProviderHolder.getProvider(cr);
+                Bundle b = cp.call(cr.getAttributionSource(),
+                        mProviderHolder.mUri.getAuthority(), mCallGetAllCommand, null, null);
+                String[] names = b != null ? b.getStringArray(CALL_METHOD_NAMES_KEY) : null;
+                String[] values = b != null ? b.getStringArray(CALL_METHOD_VALUES_KEY) : null;
+                if (names == null || values == null || names.length != values.length) {
                     return null;
                 }
-
-                String value = c.moveToNext() ? c.getString(0) : null;
-                synchronized (NameValueCache.this) {
-                    mValues.put(name, value);
+                final ArrayMap<String, String> map = new ArrayMap<String, String>(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    map.put(names[i], values[i]);
                 }
+                snapshot = new TableSnapshot(tableVersion, map);
+                mSnapshot = snapshot;
                 if (LOCAL_LOGV) {
-                    Log.v(TAG, "cache miss [" + mUri.getLastPathSegment() + "]: " +
-                            name + " = " + (value == null ? "(null)" : value));
+                    Log.v(TAG, "prefetched [" + mUri.getLastPathSegment() + "]: "
+                            + names.length + " values at version " + tableVersion);
                 }
-                return value;
+                return snapshot;
             } catch (RemoteException e) {
-                Log.w(TAG, "Can't get key " + name + " from " + mUri, e);
-                return null;  // Return null, but don't cache it.
-            } finally {
-                if (c != null) c.close();
+                Log.w(TAG, "Can't prefetch " + mUri, e);
+                return null;
+            }
+        }
+
+        /**
+         * Returns the shared memory table for our own user if it is current, mapping the
+         * provider's latest snapshot if it is not. Counts a hit if no request was needed.
+         * @param cr The content resolver to use.
+         * @return The table, or null if the provider could not hand out a snapshot.
+         */
+        private SharedTable getCurrentSharedTable(ContentResolver cr) {
+            SharedTable table = mSharedTable;
+            if (table != null && table.isCurrent()) {
+                mCacheHits.incrementAndGet();
+                return table;
+            }
+            if (mCallGetSnapshotCommand == null) {
+                return null;
+            }
+
+            synchronized (mSharedTableLock) {
+                // Another thread may have mapped it meanwhile
+                table = mSharedTable;
+                if (table != null && table.isCurrent()) {
+                    return table;
+                }
+                mCacheMisses.incrementAndGet();
+                ParcelFileDescriptor fd = null;
+                try {
+                    final Bundle args = new Bundle();
+                    putCacheStats(args);
+                    IContentProvider cp = mProviderHolder.getProvider(cr);
+                    Bundle b = cp.call(cr.getAttributionSource(),
+                            mProviderHolder.mUri.getAuthority(), mCallGetSnapshotCommand,
+                            null, args);
+                    fd = b != null ? b.getParcelable(CALL_METHOD_SNAPSHOT_KEY,
+                            ParcelFileDescriptor.class) : null;
+                    if (fd == null) {
+                        return null;
+                    }
+                    // The mapping outlives the descriptor; it is released once the table
+                    // is unreachable, as other threads may still be reading it.
+                    final SharedMemory memory = SharedMemory.fromFileDescriptor(fd);
+                    final SettingsSnapshot snapshot = SettingsSnapshot.map(memory);
+                    memory.close();
+                    if (snapshot == null) {
+                        return null;
+                    }
+                    table = new SharedTable(snapshot);
+                    if (mSharedSnapshotEnabled) {
+                        mSharedTable = table;
+                    }
+                    if (LOCAL_LOGV) {
+                        Log.v(TAG, "mapped [" + mUri.getLastPathSegment() + "]: "
+                                + snapshot.size() + " values");
+                    }
+                    return table;
+                } catch (RemoteException | ErrnoException e) {
+                    Log.w(TAG, "Can't map snapshot of " + mUri, e);
+                    return null;
+                } finally {
+                    if (fd != null) {
+                        try {
+                            fd.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the generation array found in a call() result, remembering it for later
+         * requests, or the one we already hold if the provider didn't send one.
+         */
+        private MemoryIntArray getGenerationArray(Bundle result) {
+            final MemoryIntArray array = result.getParcelable(CALL_METHOD_TRACK_GENERATION_KEY,
+                    MemoryIntArray.class);
+            if (array != null) {
+                mGenerationArray = array;
+                return array;
+            }
+            return mGenerationArray;
+        }
+
+        /**
+         * Stores a value read from the provider, tagged with its generation if there is one,
+         * or with the table version otherwise.
+         * @return The stored entry.
+         */
+        private CachedValue cacheValue(String name, String value, MemoryIntArray array,
+                int index, int generation, long tableVersion) {
+            if (array == null || index < 0) {
+                array = null;
+                index = -1;
+            }
+            final CachedValue cached =
+                    new CachedValue(value, array, index, generation, tableVersion);
+            mValues.put(name, cached);
+            return cached;
+        }
+
+        /**
+         * Hands the cache hits and misses counted since the last report to the provider along
+         * with a request that goes there anyway.
+         */
+        private void putCacheStats(Bundle args) {
+            args.putLong(CALL_METHOD_CACHE_HITS_KEY, mCacheHits.getAndSet(0));
+            args.putLong(CALL_METHOD_CACHE_MISSES_KEY, mCacheMisses.getAndSet(0));
+        }
+
+        private boolean isCurrent(CachedValue cached) {
+            if (cached.mGenerationArray == null) {
+                return SystemProperties.getLong(mVersionSystemProperty, 0)
+                        == cached.mTableVersion;
+            }
+            try {
+                return cached.mGenerationArray.get(cached.mGenerationIndex)
+                        == cached.mGeneration;
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading generation of " + mUri.getLastPathSegment(), e);
+                if (mGenerationArray == cached.mGenerationArray) {
+                    mGenerationArray = null;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Collects puts and deletes of settings in one table so that the provider applies them in a
+     * single transaction, with a single version bump and change notification for the table.
+     * Later changes of a name replace earlier ones. Obtained from {@link System#edit},
+     * {@link Secure#edit} or {@link Global#edit}. Not thread-safe.
+     * @hide
+     */
+    public static final class Editor {
+        private final NameValueCache mNameValueCache;
+        private final ArraySet<String> mMovedNames;
+        private final ContentResolver mResolver;
+        private final int mUserId;
+
+        private final ArrayMap<String, String> mValues = new ArrayMap<String, String>();
+        private final ArraySet<String> mDeletedNames = new ArraySet<String>();
+
+        private Editor(NameValueCache nameValueCache, ArraySet<String> movedNames,
+                ContentResolver resolver, int userId) {
+            mNameValueCache = nameValueCache;
+            mMovedNames = movedNames;
+            mResolver = resolver;
+            mUserId = userId;
+        }
+
+        /**
+         * Store a name/value pair on {@link #commit}.
+         * @param name to store
+         * @param value to associate with the name
+         * @return this editor
+         */
+        public Editor putString(String name, String value) {
+            if (mMovedNames.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved to another table,"
+                        + " value is unchanged.");
+                return this;
+            }
+            mDeletedNames.remove(name);
+            mValues.put(name, value);
+            return this;
+        }
+
+        /**
+         * Store a name/value pair as an integer on {@link #commit}.
+         * @param name to store
+         * @param value to associate with the name
+         * @return this editor
+         */
+        public Editor putInt(String name, int value) {
+            return putString(name, Integer.toString(value));
+        }
+
+        /**
+         * Store a name/value pair as a long on {@link #commit}.
+         * @param name to store
+         * @param value to associate with the name
+         * @return this editor
+         */
+        public Editor putLong(String name, long value) {
+            return putString(name, Long.toString(value));
+        }
+
+        /**
+         * Store a name/value pair as a float on {@link #commit}.
+         * @param name to store
+         * @param value to associate with the name
+         * @return this editor
+         */
+        public Editor putFloat(String name, float value) {
+            return putString(name, Float.toString(value));
+        }
+
+        /**
+         * Delete a name on {@link #commit}.
+         * @param name to delete
+         * @return this editor
+         */
+        public Editor remove(String name) {
+            if (mMovedNames.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved to another table,"
+                        + " value is unchanged.");
+                return this;
+            }
+            mValues.remove(name);
+            mDeletedNames.add(name);
+            return this;
+        }
+
+        /**
+         * Apply all collected changes with a single request and clear them. Either all
+         * changes are applied or none, an invalid value fails the whole batch.
+         * @return true if the changes were applied, false on database errors
+         */
+        public boolean commit() {
+            if (mValues.isEmpty() && mDeletedNames.isEmpty()) {
+                return true;
             }
+            final boolean result = mNameValueCache.putStringsForUser(mResolver, mValues,
+                    mDeletedNames, mUserId);
+            mValues.clear();
+            mDeletedNames.clear();
+            return result;
         }
     }
 
@@ -352,17 +1361,21 @@ public final class EunoiaSettings {
         public boolean validate(String value);
     }
 
-    private static final Validator sBooleanValidator =
-            new DiscreteValueValidator(new String[] {"0", "1"});
+    // Returned by parseInt() for anything Integer.parseInt() would reject
+    private static final long INVALID_INT = Long.MIN_VALUE;
+
+    private static final Validator sBooleanValidator = new Validator() {
+        @Override
+        public boolean validate(String value) {
+            return value != null && value.length() == 1
+                    && (value.charAt(0) == '0' || value.charAt(0) == '1');
+        }
+    };
 
     private static final Validator sNonNegativeIntegerValidator = new Validator() {
         @Override
         public boolean validate(String value) {
-            try {
-                return Integer.parseInt(value) >= 0;
-            } catch (NumberFormatException e) {
-                return false;
-            }
+            return parseInt(value) >= 0;
         }
     };
 
@@ -398,19 +1411,6 @@ public final class EunoiaSettings {
         }
     };
 
-    private static final class DiscreteValueValidator implements Validator {
-        private final String[] mValues;
-
-        public DiscreteValueValidator(String[] values) {
-            mValues = values;
-        }
-
-        @Override
-        public boolean validate(String value) {
-            return ArrayUtils.contains(mValues, value);
-        }
-    }
-
     private static final class InclusiveIntegerRangeValidator implements Validator {
         private final int mMin;
         private final int mMax;
@@ -422,12 +1422,8 @@ public final class EunoiaSettings {
 
         @Override
         public boolean validate(String value) {
-            try {
-                final int intValue = Integer.parseInt(value);
-                return intValue >= mMin && intValue <= mMax;
-            } catch (NumberFormatException e) {
-                return false;
-            }
+            final long intValue = parseInt(value);
+            return intValue != INVALID_INT && intValue >= mMin && intValue <= mMax;
         }
     }
 
@@ -452,41 +1448,219 @@ public final class EunoiaSettings {
     }
 
     private static final class DelimitedListValidator implements Validator {
-        private final ArraySet<String> mValidValueSet;
+        private final String[] mValidValues;
         private final String mDelimiter;
         private final boolean mAllowEmptyList;
 
         public DelimitedListValidator(String[] validValues, String delimiter,
                                       boolean allowEmptyList) {
-            mValidValueSet = new ArraySet<String>(Arrays.asList(validValues));
+            if (TextUtils.isEmpty(delimiter)) {
+                throw new IllegalArgumentException("Delimiter cannot be empty");
+            }
+            mValidValues = validValues.clone();
             mDelimiter = delimiter;
             mAllowEmptyList = allowEmptyList;
         }
 
         @Override
         public boolean validate(String value) {
-            ArraySet<String> values = new ArraySet<String>();
-            if (!TextUtils.isEmpty(value)) {
-                final String[] array = TextUtils.split(value, Pattern.quote(mDelimiter));
-                for (String item : array) {
-                    if (TextUtils.isEmpty(item)) {
-                        continue;
+            // Walk the items in place rather than splitting, empty items are skipped
+            boolean isEmptyList = true;
+            if (value != null) {
+                final int length = value.length();
+                int start = 0;
+                while (start < length) {
+                    int end = value.indexOf(mDelimiter, start);
+                    if (end < 0) {
+                        end = length;
+                    }
+                    if (end > start) {
+                        if (!isValidItem(value, start, end - start)) {
+                            return false;
+                        }
+                        isEmptyList = false;
                     }
-                    values.add(item);
+                    start = end + mDelimiter.length();
                 }
             }
-            if (values.size() > 0) {
-                values.removeAll(mValidValueSet);
-                // values.size() will be non-zero if it contains any values not in
-                // mValidValueSet
-                return values.size() == 0;
-            } else if (mAllowEmptyList) {
-                return true;
-            }
+            return !isEmptyList || mAllowEmptyList;
+        }
 
+        private boolean isValidItem(String value, int start, int length) {
+            for (String validValue : mValidValues) {
+                if (validValue.length() == length
+                        && value.regionMatches(start, validValue, 0, length)) {
+                    return true;
+                }
+            }
             return false;
         }
     }
+
+    /**
+     * Parses a decimal int the way {@link Integer#parseInt(String)} does, but reports invalid
+     * input through the return value instead of allocating an exception.
+     * @param value the string to parse, may be null
+     * @return the parsed value, or {@link #INVALID_INT}
+     */
+    private static long parseInt(String value) {
+        if (value == null) {
+            return INVALID_INT;
+        }
+        final int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i++;
+        }
+        if (i == length) {
+            return INVALID_INT;
+        }
+        long result = 0;
+        for (; i < length; i++) {
+            final int digit = Character.digit(value.charAt(i), 10);
+            if (digit < 0) {
+                return INVALID_INT;
+            }
+            result = result * 10 + digit;
+            if (result > (long) Integer.MAX_VALUE + 1) {
+                return INVALID_INT;
+            }
+        }
+        if (negative) {
+            return -result;
+        }
+        return result <= Integer.MAX_VALUE ? result : INVALID_INT;
+    }
+
+    /**
+     * Reads an int out of the values returned by one of the getStringsForUser() methods.
+     * @param values the values, keyed by setting name
+     * @param name the name of the setting
+     * @param def the value to return if the setting is not present or not a valid int
+     * @return the setting's value as an int, or def
+     * @hide
+     */
+    public static int getInt(Map<String, String> values, String name, int def) {
+        final long value = parseInt(values.get(name));
+        return value != INVALID_INT ? (int) value : def;
+    }
+
+    /**
+     * Immutable lookup table from setting name to {@link Validator}, compiled once from the
+     * VALIDATORS of a table. The table size is picked so that no two names share a slot, which
+     * makes a lookup a single hash and at most one equals(). Falls back to linear probing for
+     * key sets that would need an unreasonably large table.
+     */
+    private static final class ValidatorTable {
+        // Stop looking for a collision free table beyond this many slots per name
+        private static final int MAX_SLOTS_PER_NAME = 32;
+
+        private final String[] mNames;
+        private final Validator[] mValidators;
+        private final int mMask;
+        private final boolean mProbe;
+        private final boolean mRequireValidator;
+
+        /**
+         * @param validators the validators to compile
+         * @param requireValidator whether names without a validator are invalid
+         */
+        ValidatorTable(Map<String, Validator> validators, boolean requireValidator) {
+            final String[] names = validators.keySet().toArray(new String[validators.size()]);
+            final int minSize = Math.max(2, Integer.highestOneBit(Math.max(1, names.length)) << 2);
+            int size = minSize;
+            while (size <= names.length * MAX_SLOTS_PER_NAME && !isCollisionFree(names, size)) {
+                size <<= 1;
+            }
+            mProbe = size > names.length * MAX_SLOTS_PER_NAME;
+            if (mProbe) {
+                size = minSize;
+            }
+
+            mNames = new String[size];
+            mValidators = new Validator[size];
+            mMask = size - 1;
+            mRequireValidator = requireValidator;
+            for (String name : names) {
+                int slot = spread(name.hashCode()) & mMask;
+                while (mNames[slot] != null) {
+                    slot = (slot + 1) & mMask;
+                }
+                mNames[slot] = name;
+                mValidators[slot] = validators.get(name);
+            }
+        }
+
+        /**
+         * @param name the name of the setting
+         * @return the validator of the setting, or null if it has none
+         */
+        Validator get(String name) {
+            if (name == null) {
+                return null;
+            }
+            int slot = spread(name.hashCode()) & mMask;
+            while (true) {
+                final String candidate = mNames[slot];
+                if (candidate == null) {
+                    return null;
+                }
+                if (candidate.equals(name)) {
+                    return mValidators[slot];
+                }
+                if (!mProbe) {
+                    return null;
+                }
+                slot = (slot + 1) & mMask;
+            }
+        }
+
+        /**
+         * @param name the name of the setting
+         * @param value the value to check
+         * @return whether the value may be stored for the setting
+         */
+        boolean validate(String name, String value) {
+            final Validator validator = get(name);
+            if (validator == null) {
+                return !mRequireValidator;
+            }
+            return validator.validate(value);
+        }
+
+        /**
+         * @param names the names of the settings
+         * @param values the values to check, in the order of the names
+         * @return the index of the first invalid name/value pair, or -1 if all are valid
+         */
+        int validateBatch(String[] names, String[] values) {
+            for (int i = 0; i < names.length; i++) {
+                if (!validate(names[i], values[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean isCollisionFree(String[] names, int size) {
+            final boolean[] used = new boolean[size];
+            final int mask = size - 1;
+            for (String name : names) {
+                final int slot = spread(name.hashCode()) & mask;
+                if (used[slot]) {
+                    return false;
+                }
+                used[slot] = true;
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
     // endregion Validators
 
     /**
@@ -504,7 +1678,13 @@ public final class EunoiaSettings {
                 SYS_PROP_EuNOIA_SETTING_VERSION,
                 CONTENT_URI,
                 CALL_METHOD_GET_SYSTEM,
+                CALL_METHOD_GET_MANY_SYSTEM,
+                CALL_METHOD_GET_ALL_SYSTEM,
+                CALL_METHOD_GET_SNAPSHOT_SYSTEM,
                 CALL_METHOD_PUT_SYSTEM,
+                CALL_METHOD_PUT_MANY_SYSTEM,
+                CALL_METHOD_EXPORT_SYSTEM,
+                CALL_METHOD_IMPORT_SYSTEM,
                 sProviderHolder);
 
         /** @hide */
@@ -566,34 +1746,126 @@ public final class EunoiaSettings {
         /**
          * Look up a name in the database.
          * @param resolver to access the database with
-         * @param name to look up in the table
-         * @return the corresponding value, or null if not present
+         * @param name to look up in the table
+         * @return the corresponding value, or null if not present
+         */
+        public static String getString(ContentResolver resolver, String name) {
+            return getStringForUser(resolver, name, resolver.getUserId());
+        }
+
+        /**
+         * Look up a name in the database.
+         * @param resolver to access the database with
+         * @param name to look up in the table
+         * @param def Value to return if the setting is not defined.
+         * @return the corresponding value, or null if not present
+         */
+        public static String getString(ContentResolver resolver, String name, String def) {
+            String str = getStringForUser(resolver, name, resolver.getUserId());
+            return str == null ? def : str;
+        }
+
+        /** @hide */
+        public static String getStringForUser(ContentResolver resolver, String name,
+                int userId) {
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getStringForUser(resolver, name, userId);
+            }
+            return sNameValueCache.getStringForUser(resolver, name, userId);
+        }
+
+        /**
+         * Look up several names in the database with a single request.
+         * @param resolver to access the database with
+         * @param names to look up in the table
+         * @param userId the user to look up the names for
+         * @return a map of every name to its value, or to null if not present
+         * @hide
+         */
+        public static Map<String, String> getStringsForUser(ContentResolver resolver,
+                String[] names, int userId) {
+            final Map<String, String> values =
+                    sNameValueCache.getStringsForUser(resolver, names, userId);
+            for (String name : names) {
+                if (MOVED_TO_SECURE.contains(name)) {
+                    Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                            + " to EunoiaSettings.Secure, value is unchanged.");
+                    values.put(name,
+                            EunoiaSettings.Secure.getStringForUser(resolver, name, userId));
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Makes lookups in this process answer misses from a snapshot of the whole table,
+         * which is pulled with a single request on the first miss after any change to the
+         * table. Worth it for processes reading many settings of the table.
+         * @param enabled whether to prefetch the table
+         * @hide
+         */
+        public static void setTablePrefetchEnabled(boolean enabled) {
+            sNameValueCache.setPrefetchEnabled(enabled);
+        }
+
+        /**
+         * Makes lookups in this process read a shared memory snapshot of the whole table,
+         * which the provider publishes and which is mapped again after any change to the
+         * table. Lookups of an unchanged table then need no IPC at all.
+         * @param enabled whether to read the table from shared memory
+         * @hide
+         */
+        public static void setTableSharedSnapshotEnabled(boolean enabled) {
+            sNameValueCache.setSharedSnapshotEnabled(enabled);
+        }
+
+        /**
+         * Streams the whole table out of the provider, for backup. Requires the BACKUP or
+         * DUMP permission. Read the settings promptly with a {@link SettingsStream.Reader}:
+         * the provider breaks the stream off if the pipe is left full for a while. Close the
+         * descriptor when done.
+         * @param resolver to access the database with
+         * @param userId the user whose settings to export
+         * @return the read end of a pipe of the settings, or null if the provider failed
+         * @hide
+         */
+        public static ParcelFileDescriptor exportForUser(ContentResolver resolver, int userId) {
+            return sNameValueCache.exportForUser(resolver, userId);
+        }
+
+        /**
+         * Streams settings into the table, for restore. The provider applies them in chunks
+         * as they arrive, skipping any that are invalid, and returns once the stream ends.
+         * Write the settings with a {@link SettingsStream.Writer} on another thread. There is
+         * no timeout: the call holds a binder thread of the provider until the write end is
+         * closed, so close it when done or on failure.
+         * @param resolver to access the database with
+         * @param in the read end of a pipe of the settings, closed by this call
+         * @param userId the user whose settings to import
+         * @return the number of settings imported, or -1 if the import failed
+         * @hide
          */
-        public static String getString(ContentResolver resolver, String name) {
-            return getStringForUser(resolver, name, resolver.getUserId());
+        public static int importForUser(ContentResolver resolver, ParcelFileDescriptor in,
+                int userId) {
+            return sNameValueCache.importForUser(resolver, in, userId);
         }
 
         /**
-         * Look up a name in the database.
+         * Start a batch of changes to this table, applied with a single request on
+         * {@link Editor#commit}.
          * @param resolver to access the database with
-         * @param name to look up in the table
-         * @param def Value to return if the setting is not defined.
-         * @return the corresponding value, or null if not present
+         * @return an editor for this table
+         * @hide
          */
-        public static String getString(ContentResolver resolver, String name, String def) {
-            String str = getStringForUser(resolver, name, resolver.getUserId());
-            return str == null ? def : str;
+        public static Editor edit(ContentResolver resolver) {
+            return editForUser(resolver, resolver.getUserId());
         }
 
         /** @hide */
-        public static String getStringForUser(ContentResolver resolver, String name,
-                int userId) {
-            if (MOVED_TO_SECURE.contains(name)) {
-                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
-                        + " to EunoiaSettings.Secure, value is unchanged.");
-                return EunoiaSettings.Secure.getStringForUser(resolver, name, userId);
-            }
-            return sNameValueCache.getStringForUser(resolver, name, userId);
+        public static Editor editForUser(ContentResolver resolver, int userId) {
+            return new Editor(sNameValueCache, MOVED_TO_SECURE, resolver, userId);
         }
 
         /**
@@ -638,12 +1910,28 @@ public final class EunoiaSettings {
 
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int def, int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Integer.parseInt(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getIntForUser(cr, name, def, userId);
             }
+            return sNameValueCache.getIntForUser(cr, name, def, userId);
+        }
+
+        /**
+         * Convenience function for retrieving a single settings value as a boolean, stored as
+         * an integer that is 1 when true. Any other integer is false.
+         * @param cr The ContentResolver to access.
+         * @param name The name of the setting to retrieve.
+         * @param def Value to return if the setting is not defined or not an integer.
+         * @param userId The user to retrieve the setting for.
+         * @return The setting's current value, or 'def' if it is not defined
+         * or not a valid integer.
+         * @hide
+         */
+        public static boolean getBooleanForUser(ContentResolver cr, String name, boolean def,
+                int userId) {
+            return getIntForUser(cr, name, def ? 1 : 0, userId) == 1;
         }
 
         /**
@@ -672,12 +1960,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return Integer.parseInt(v);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getIntForUser(cr, name, userId);
             }
+            return sNameValueCache.getIntForUser(cr, name, userId);
         }
 
         /**
@@ -724,14 +2012,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, long def,
                 int userId) {
-            String valString = getStringForUser(cr, name, userId);
-            long value;
-            try {
-                value = valString != null ? Long.parseLong(valString) : def;
-            } catch (NumberFormatException e) {
-                value = def;
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getLongForUser(cr, name, def, userId);
             }
-            return value;
+            return sNameValueCache.getLongForUser(cr, name, def, userId);
         }
 
         /**
@@ -759,12 +2045,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String valString = getStringForUser(cr, name, userId);
-            try {
-                return Long.parseLong(valString);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getLongForUser(cr, name, userId);
             }
+            return sNameValueCache.getLongForUser(cr, name, userId);
         }
 
         /**
@@ -811,12 +2097,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, float def,
                 int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Float.parseFloat(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getFloatForUser(cr, name, def, userId);
             }
+            return sNameValueCache.getFloatForUser(cr, name, def, userId);
         }
 
         /**
@@ -845,15 +2131,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            if (v == null) {
-                throw new EunoiaSettingNotFoundException(name);
-            }
-            try {
-                return Float.parseFloat(v);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
+            if (MOVED_TO_SECURE.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.System"
+                        + " to EunoiaSettings.Secure, value is unchanged.");
+                return EunoiaSettings.Secure.getFloatForUser(cr, name, userId);
             }
+            return sNameValueCache.getFloatForUser(cr, name, userId);
         }
 
         /**
@@ -2347,6 +3630,31 @@ public final class EunoiaSettings {
             VALIDATORS.put(__MAGICAL_TEST_PASSING_ENABLER,
                     __MAGICAL_TEST_PASSING_ENABLER_VALIDATOR);
         };
+
+        private static final ValidatorTable sValidatorTable =
+                new ValidatorTable(VALIDATORS, true);
+
+        /**
+         * Looks up the validator of a system setting in a table compiled from {@link #VALIDATORS}.
+         * @param name the name of the setting
+         * @return the validator, or null if the setting has none
+         * @hide
+         */
+        public static Validator getValidator(String name) {
+            return sValidatorTable.get(name);
+        }
+
+        /**
+         * Validates several name/value pairs at once, e.g. for a batch of writes. Settings
+         * without a validator are invalid.
+         * @param names the names of the settings
+         * @param values the values to check, in the order of the names
+         * @return the index of the first invalid name/value pair, or -1 if all are valid
+         * @hide
+         */
+        public static int validateBatch(String[] names, String[] values) {
+            return sValidatorTable.validateBatch(names, values);
+        }
         // endregion
     }
 
@@ -2367,7 +3675,13 @@ public final class EunoiaSettings {
                 SYS_PROP_EuNOIA_SETTING_VERSION,
                 CONTENT_URI,
                 CALL_METHOD_GET_SECURE,
+                CALL_METHOD_GET_MANY_SECURE,
+                CALL_METHOD_GET_ALL_SECURE,
+                CALL_METHOD_GET_SNAPSHOT_SECURE,
                 CALL_METHOD_PUT_SECURE,
+                CALL_METHOD_PUT_MANY_SECURE,
+                CALL_METHOD_EXPORT_SECURE,
+                CALL_METHOD_IMPORT_SECURE,
                 sProviderHolder);
 
         /** @hide */
@@ -2459,6 +3773,98 @@ public final class EunoiaSettings {
             return sNameValueCache.getStringForUser(resolver, name, userId);
         }
 
+        /**
+         * Look up several names in the database with a single request.
+         * @param resolver to access the database with
+         * @param names to look up in the table
+         * @param userId the user to look up the names for
+         * @return a map of every name to its value, or to null if not present
+         * @hide
+         */
+        public static Map<String, String> getStringsForUser(ContentResolver resolver,
+                String[] names, int userId) {
+            final Map<String, String> values =
+                    sNameValueCache.getStringsForUser(resolver, names, userId);
+            for (String name : names) {
+                if (MOVED_TO_GLOBAL.contains(name)) {
+                    Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                            + " to EunoiaSettings.Global, value is unchanged.");
+                    values.put(name,
+                            EunoiaSettings.Global.getStringForUser(resolver, name, userId));
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Makes lookups in this process answer misses from a snapshot of the whole table,
+         * which is pulled with a single request on the first miss after any change to the
+         * table. Worth it for processes reading many settings of the table.
+         * @param enabled whether to prefetch the table
+         * @hide
+         */
+        public static void setTablePrefetchEnabled(boolean enabled) {
+            sNameValueCache.setPrefetchEnabled(enabled);
+        }
+
+        /**
+         * Makes lookups in this process read a shared memory snapshot of the whole table,
+         * which the provider publishes and which is mapped again after any change to the
+         * table. Lookups of an unchanged table then need no IPC at all.
+         * @param enabled whether to read the table from shared memory
+         * @hide
+         */
+        public static void setTableSharedSnapshotEnabled(boolean enabled) {
+            sNameValueCache.setSharedSnapshotEnabled(enabled);
+        }
+
+        /**
+         * Streams the whole table out of the provider, for backup. Requires the BACKUP or
+         * DUMP permission. Read the settings promptly with a {@link SettingsStream.Reader}:
+         * the provider breaks the stream off if the pipe is left full for a while. Close the
+         * descriptor when done.
+         * @param resolver to access the database with
+         * @param userId the user whose settings to export
+         * @return the read end of a pipe of the settings, or null if the provider failed
+         * @hide
+         */
+        public static ParcelFileDescriptor exportForUser(ContentResolver resolver, int userId) {
+            return sNameValueCache.exportForUser(resolver, userId);
+        }
+
+        /**
+         * Streams settings into the table, for restore. The provider applies them in chunks
+         * as they arrive, skipping any that are invalid, and returns once the stream ends.
+         * Write the settings with a {@link SettingsStream.Writer} on another thread. There is
+         * no timeout: the call holds a binder thread of the provider until the write end is
+         * closed, so close it when done or on failure.
+         * @param resolver to access the database with
+         * @param in the read end of a pipe of the settings, closed by this call
+         * @param userId the user whose settings to import
+         * @return the number of settings imported, or -1 if the import failed
+         * @hide
+         */
+        public static int importForUser(ContentResolver resolver, ParcelFileDescriptor in,
+                int userId) {
+            return sNameValueCache.importForUser(resolver, in, userId);
+        }
+
+        /**
+         * Start a batch of changes to this table, applied with a single request on
+         * {@link Editor#commit}.
+         * @param resolver to access the database with
+         * @return an editor for this table
+         * @hide
+         */
+        public static Editor edit(ContentResolver resolver) {
+            return editForUser(resolver, resolver.getUserId());
+        }
+
+        /** @hide */
+        public static Editor editForUser(ContentResolver resolver, int userId) {
+            return new Editor(sNameValueCache, MOVED_TO_GLOBAL, resolver, userId);
+        }
+
         /**
          * Store a name/value pair into the database.
          * @param resolver to access the database with
@@ -2501,12 +3907,28 @@ public final class EunoiaSettings {
 
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int def, int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Integer.parseInt(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
+            if (MOVED_TO_GLOBAL.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                        + " to EunoiaSettings.Global, value is unchanged.");
+                return EunoiaSettings.Global.getIntForUser(cr, name, def, userId);
             }
+            return sNameValueCache.getIntForUser(cr, name, def, userId);
+        }
+
+        /**
+         * Convenience function for retrieving a single settings value as a boolean, stored as
+         * an integer that is 1 when true. Any other integer is false.
+         * @param cr The ContentResolver to access.
+         * @param name The name of the setting to retrieve.
+         * @param def Value to return if the setting is not defined or not an integer.
+         * @param userId The user to retrieve the setting for.
+         * @return The setting's current value, or 'def' if it is not defined
+         * or not a valid integer.
+         * @hide
+         */
+        public static boolean getBooleanForUser(ContentResolver cr, String name, boolean def,
+                int userId) {
+            return getIntForUser(cr, name, def ? 1 : 0, userId) == 1;
         }
 
         /**
@@ -2535,12 +3957,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return Integer.parseInt(v);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
+            if (MOVED_TO_GLOBAL.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                        + " to EunoiaSettings.Global, value is unchanged.");
+                return EunoiaSettings.Global.getIntForUser(cr, name, userId);
             }
+            return sNameValueCache.getIntForUser(cr, name, userId);
         }
 
         /**
@@ -2587,14 +4009,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, long def,
                 int userId) {
-            String valString = getStringForUser(cr, name, userId);
-            long value;
-            try {
-                value = valString != null ? Long.parseLong(valString) : def;
-            } catch (NumberFormatException e) {
-                value = def;
+            if (MOVED_TO_GLOBAL.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                        + " to EunoiaSettings.Global, value is unchanged.");
+                return EunoiaSettings.Global.getLongForUser(cr, name, def, userId);
             }
-            return value;
+            return sNameValueCache.getLongForUser(cr, name, def, userId);
         }
 
         /**
@@ -2622,12 +4042,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String valString = getStringForUser(cr, name, userId);
-            try {
-                return Long.parseLong(valString);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
+            if (MOVED_TO_GLOBAL.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                        + " to EunoiaSettings.Global, value is unchanged.");
+                return EunoiaSettings.Global.getLongForUser(cr, name, userId);
             }
+            return sNameValueCache.getLongForUser(cr, name, userId);
         }
 
         /**
@@ -2674,12 +4094,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, float def,
                 int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Float.parseFloat(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
+            if (MOVED_TO_GLOBAL.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                        + " to EunoiaSettings.Global, value is unchanged.");
+                return EunoiaSettings.Global.getFloatForUser(cr, name, def, userId);
             }
+            return sNameValueCache.getFloatForUser(cr, name, def, userId);
         }
 
         /**
@@ -2708,15 +4128,12 @@ public final class EunoiaSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            if (v == null) {
-                throw new EunoiaSettingNotFoundException(name);
-            }
-            try {
-                return Float.parseFloat(v);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
+            if (MOVED_TO_GLOBAL.contains(name)) {
+                Log.w(TAG, "Setting " + name + " has moved from EunoiaSettings.Secure"
+                        + " to EunoiaSettings.Global, value is unchanged.");
+                return EunoiaSettings.Global.getFloatForUser(cr, name, userId);
             }
+            return sNameValueCache.getFloatForUser(cr, name, userId);
         }
 
         /**
@@ -3112,6 +4529,31 @@ public final class EunoiaSettings {
             VALIDATORS.put(TRUST_WARNINGS, TRUST_WARNINGS_VALIDATOR);
             VALIDATORS.put(VOLUME_PANEL_ON_LEFT, VOLUME_PANEL_ON_LEFT_VALIDATOR);
         }
+
+        private static final ValidatorTable sValidatorTable =
+                new ValidatorTable(VALIDATORS, false);
+
+        /**
+         * Looks up the validator of a secure setting in a table compiled from {@link #VALIDATORS}.
+         * @param name the name of the setting
+         * @return the validator, or null if the setting has none
+         * @hide
+         */
+        public static Validator getValidator(String name) {
+            return sValidatorTable.get(name);
+        }
+
+        /**
+         * Validates several name/value pairs at once, e.g. for a batch of writes. Settings
+         * without a validator accept any value.
+         * @param names the names of the settings
+         * @param values the values to check, in the order of the names
+         * @return the index of the first invalid name/value pair, or -1 if all are valid
+         * @hide
+         */
+        public static int validateBatch(String[] names, String[] values) {
+            return sValidatorTable.validateBatch(names, values);
+        }
     }
 
     /**
@@ -3131,7 +4573,13 @@ public final class EunoiaSettings {
                 SYS_PROP_EuNOIA_SETTING_VERSION,
                 CONTENT_URI,
                 CALL_METHOD_GET_GLOBAL,
+                CALL_METHOD_GET_MANY_GLOBAL,
+                CALL_METHOD_GET_ALL_GLOBAL,
+                CALL_METHOD_GET_SNAPSHOT_GLOBAL,
                 CALL_METHOD_PUT_GLOBAL,
+                CALL_METHOD_PUT_MANY_GLOBAL,
+                CALL_METHOD_EXPORT_GLOBAL,
+                CALL_METHOD_IMPORT_GLOBAL,
                 sProviderHolder);
 
         // region Methods
@@ -3213,6 +4661,88 @@ public final class EunoiaSettings {
             return sNameValueCache.getStringForUser(resolver, name, userId);
         }
 
+        /**
+         * Look up several names in the database with a single request.
+         * @param resolver to access the database with
+         * @param names to look up in the table
+         * @param userId the user to look up the names for
+         * @return a map of every name to its value, or to null if not present
+         * @hide
+         */
+        public static Map<String, String> getStringsForUser(ContentResolver resolver,
+                String[] names, int userId) {
+            return sNameValueCache.getStringsForUser(resolver, names, userId);
+        }
+
+        /**
+         * Makes lookups in this process answer misses from a snapshot of the whole table,
+         * which is pulled with a single request on the first miss after any change to the
+         * table. Worth it for processes reading many settings of the table.
+         * @param enabled whether to prefetch the table
+         * @hide
+         */
+        public static void setTablePrefetchEnabled(boolean enabled) {
+            sNameValueCache.setPrefetchEnabled(enabled);
+        }
+
+        /**
+         * Makes lookups in this process read a shared memory snapshot of the whole table,
+         * which the provider publishes and which is mapped again after any change to the
+         * table. Lookups of an unchanged table then need no IPC at all.
+         * @param enabled whether to read the table from shared memory
+         * @hide
+         */
+        public static void setTableSharedSnapshotEnabled(boolean enabled) {
+            sNameValueCache.setSharedSnapshotEnabled(enabled);
+        }
+
+        /**
+         * Streams the whole table out of the provider, for backup. Requires the BACKUP or
+         * DUMP permission. Read the settings promptly with a {@link SettingsStream.Reader}:
+         * the provider breaks the stream off if the pipe is left full for a while. Close the
+         * descriptor when done.
+         * @param resolver to access the database with
+         * @param userId the user whose settings to export
+         * @return the read end of a pipe of the settings, or null if the provider failed
+         * @hide
+         */
+        public static ParcelFileDescriptor exportForUser(ContentResolver resolver, int userId) {
+            return sNameValueCache.exportForUser(resolver, userId);
+        }
+
+        /**
+         * Streams settings into the table, for restore. The provider applies them in chunks
+         * as they arrive, skipping any that are invalid, and returns once the stream ends.
+         * Write the settings with a {@link SettingsStream.Writer} on another thread. There is
+         * no timeout: the call holds a binder thread of the provider until the write end is
+         * closed, so close it when done or on failure.
+         * @param resolver to access the database with
+         * @param in the read end of a pipe of the settings, closed by this call
+         * @param userId the user whose settings to import
+         * @return the number of settings imported, or -1 if the import failed
+         * @hide
+         */
+        public static int importForUser(ContentResolver resolver, ParcelFileDescriptor in,
+                int userId) {
+            return sNameValueCache.importForUser(resolver, in, userId);
+        }
+
+        /**
+         * Start a batch of changes to this table, applied with a single request on
+         * {@link Editor#commit}.
+         * @param resolver to access the database with
+         * @return an editor for this table
+         * @hide
+         */
+        public static Editor edit(ContentResolver resolver) {
+            return editForUser(resolver, resolver.getUserId());
+        }
+
+        /** @hide */
+        public static Editor editForUser(ContentResolver resolver, int userId) {
+            return new Editor(sNameValueCache, new ArraySet<String>(), resolver, userId);
+        }
+
         /**
          * Store a name/value pair into the database.
          * @param resolver to access the database with
@@ -3250,12 +4780,23 @@ public final class EunoiaSettings {
 
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int def, int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Integer.parseInt(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            return sNameValueCache.getIntForUser(cr, name, def, userId);
+        }
+
+        /**
+         * Convenience function for retrieving a single settings value as a boolean, stored as
+         * an integer that is 1 when true. Any other integer is false.
+         * @param cr The ContentResolver to access.
+         * @param name The name of the setting to retrieve.
+         * @param def Value to return if the setting is not defined or not an integer.
+         * @param userId The user to retrieve the setting for.
+         * @return The setting's current value, or 'def' if it is not defined
+         * or not a valid integer.
+         * @hide
+         */
+        public static boolean getBooleanForUser(ContentResolver cr, String name, boolean def,
+                int userId) {
+            return getIntForUser(cr, name, def ? 1 : 0, userId) == 1;
         }
 
         /**
@@ -3284,12 +4825,7 @@ public final class EunoiaSettings {
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return Integer.parseInt(v);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
-            }
+            return sNameValueCache.getIntForUser(cr, name, userId);
         }
 
         /**
@@ -3336,14 +4872,7 @@ public final class EunoiaSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, long def,
                 int userId) {
-            String valString = getStringForUser(cr, name, userId);
-            long value;
-            try {
-                value = valString != null ? Long.parseLong(valString) : def;
-            } catch (NumberFormatException e) {
-                value = def;
-            }
-            return value;
+            return sNameValueCache.getLongForUser(cr, name, def, userId);
         }
 
         /**
@@ -3371,12 +4900,7 @@ public final class EunoiaSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String valString = getStringForUser(cr, name, userId);
-            try {
-                return Long.parseLong(valString);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
-            }
+            return sNameValueCache.getLongForUser(cr, name, userId);
         }
 
         /**
@@ -3423,12 +4947,7 @@ public final class EunoiaSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, float def,
                 int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Float.parseFloat(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            return sNameValueCache.getFloatForUser(cr, name, def, userId);
         }
 
         /**
@@ -3457,15 +4976,7 @@ public final class EunoiaSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, int userId)
                 throws EunoiaSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            if (v == null) {
-                throw new EunoiaSettingNotFoundException(name);
-            }
-            try {
-                return Float.parseFloat(v);
-            } catch (NumberFormatException e) {
-                throw new EunoiaSettingNotFoundException(name);
-            }
+            return sNameValueCache.getFloatForUser(cr, name, userId);
         }
 
         /**
@@ -3578,5 +5089,30 @@ public final class EunoiaSettings {
             VALIDATORS.put(__MAGICAL_TEST_PASSING_ENABLER,
                     __MAGICAL_TEST_PASSING_ENABLER_VALIDATOR);
         };
+
+        private static final ValidatorTable sValidatorTable =
+                new ValidatorTable(VALIDATORS, false);
+
+        /**
+         * Looks up the validator of a global setting in a table compiled from {@link #VALIDATORS}.
+         * @param name the name of the setting
+         * @return the validator, or null if the setting has none
+         * @hide
+         */
+        public static Validator getValidator(String name) {
+            return sValidatorTable.get(name);
+        }
+
+        /**
+         * Validates several name/value pairs at once, e.g. for a batch of writes. Settings
+         * without a validator accept any value.
+         * @param names the names of the settings
+         * @param values the values to check, in the order of the names
+         * @return the index of the first invalid name/value pair, or -1 if all are valid
+         * @hide
+         */
+        public static int validateBatch(String[] names, String[] values) {
+            return sValidatorTable.validateBatch(names, values);
+        }
     }
 }
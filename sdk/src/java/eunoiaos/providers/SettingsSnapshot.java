@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eunoiaos.providers;
+
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An immutable copy of a settings table in shared memory, published by the settings provider
+ * and mapped read-only by {@link EunoiaSettings} clients, which look values up in it without
+ * any IPC.
+ * <p>
+ * The memory holds a header, an index of all names sorted by {@link String#compareTo} and
+ * the UTF-16 characters of the names and values. The only word that ever changes after
+ * publishing is the table sequence in the header, which the provider bumps on every write to
+ * the table. A snapshot is current while that sequence still equals the sequence it was
+ * built at.
+ * @hide
+ */
+public final class SettingsSnapshot {
+    private static final int MAGIC = 0x45535331; // "ESS1"
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int SNAPSHOT_SEQUENCE_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int HEADER_SIZE = 16;
+
+    // Name offset, name length, value offset and value length (-1 for null) of every entry
+    private static final int ENTRY_SIZE = 16;
+
+    private final SharedMemory mMemory;
+    private final ByteBuffer mBuffer;
+    private final int mSnapshotSequence;
+    private final int mCount;
+
+    private SettingsSnapshot(SharedMemory memory, ByteBuffer buffer) {
+        mMemory = memory;
+        mBuffer = buffer.order(ByteOrder.nativeOrder());
+        mSnapshotSequence = mBuffer.getInt(SNAPSHOT_SEQUENCE_OFFSET);
+        mCount = mBuffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * Writes a table into a new snapshot. Only the settings provider does this.
+     * @param name The name of the shared memory region, for debugging.
+     * @param names The names of the settings, sorted by {@link String#compareTo}.
+     * @param values The values of the settings, in the order of the names.
+     * @param sequence The sequence of the table the values were read at.
+     * @return A snapshot which can still change its table sequence, see
+     *     {@link #setTableSequence}.
+     */
+    public static SettingsSnapshot create(String name, String[] names, String[] values,
+            int sequence) throws ErrnoException {
+        int chars = 0;
+        for (int i = 0; i < names.length; i++) {
+            chars += names[i].length() + (values[i] != null ? values[i].length() : 0);
+        }
+        final int size = HEADER_SIZE + names.length * ENTRY_SIZE + chars * 2;
+
+        final SharedMemory memory = SharedMemory.create(name, Math.max(size, HEADER_SIZE));
+        final ByteBuffer buffer = memory.mapReadWrite().order(ByteOrder.nativeOrder());
+        int entry = HEADER_SIZE;
+        int data = HEADER_SIZE + names.length * ENTRY_SIZE;
+        for (int i = 0; i < names.length; i++) {
+            buffer.putInt(entry, data);
+            buffer.putInt(entry + 4, names[i].length());
+            data = putChars(buffer, data, names[i]);
+            buffer.putInt(entry + 8, data);
+            buffer.putInt(entry + 12, values[i] != null ? values[i].length() : -1);
+            if (values[i] != null) {
+                data = putChars(buffer, data, values[i]);
+            }
+            entry += ENTRY_SIZE;
+        }
+        buffer.putInt(SNAPSHOT_SEQUENCE_OFFSET, sequence);
+        buffer.putInt(SEQUENCE_OFFSET, sequence);
+        buffer.putInt(COUNT_OFFSET, names.length);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+
+        // Our own mapping stays writable for the table sequence; nobody else can write
+        memory.setProtect(OsConstants.PROT_READ);
+        return new SettingsSnapshot(memory, buffer);
+    }
+
+    /**
+     * Maps a snapshot handed out by the settings provider read-only. The shared memory can be
+     * closed afterwards; the mapping stays valid until {@link #close} or until the snapshot is
+     * no longer reachable.
+     * @return The snapshot, or null if the memory does not hold one.
+     */
+    public static SettingsSnapshot map(SharedMemory memory) throws ErrnoException {
+        final ByteBuffer buffer = memory.mapReadOnly();
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.order(ByteOrder.nativeOrder()).getInt(MAGIC_OFFSET) != MAGIC) {
+            SharedMemory.unmap(buffer);
+            return null;
+        }
+        return new SettingsSnapshot(null, buffer);
+    }
+
+    /**
+     * Returns the shared memory to hand out to clients, or null for a mapped snapshot.
+     */
+    public SharedMemory getSharedMemory() {
+        return mMemory;
+    }
+
+    /**
+     * Publishes the current sequence of the table. Only the settings provider does this.
+     */
+    public void setTableSequence(int sequence) {
+        mBuffer.putInt(SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * Whether the table is unchanged since the snapshot was built.
+     */
+    public boolean isCurrent() {
+        return mBuffer.getInt(SEQUENCE_OFFSET) == mSnapshotSequence;
+    }
+
+    /**
+     * @return The number of settings in the snapshot.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Finds a setting with a binary search over the sorted names, without allocating.
+     * @return The index of the setting, or -1 if the table has no such setting.
+     */
+    public int indexOf(String name) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareName(mid, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The value of the setting at an index, which may be null.
+     */
+    public String getValue(int index) {
+        final int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        final int length = mBuffer.getInt(entry + 12);
+        if (length < 0) {
+            return null;
+        }
+        final int offset = mBuffer.getInt(entry + 8);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = mBuffer.getChar(offset + i * 2);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Unmaps the snapshot, and for the provider also releases the shared memory. Lookups
+     * must not be made afterwards.
+     */
+    public void close() {
+        SharedMemory.unmap(mBuffer);
+        if (mMemory != null) {
+            mMemory.close();
+        }
+    }
+
+    private int compareName(int index, String name) {
+        final int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        final int offset = mBuffer.getInt(entry);
+        final int length = mBuffer.getInt(entry + 4);
+        final int common = Math.min(length, name.length());
+        for (int i = 0; i < common; i++) {
+            final char c = mBuffer.getChar(offset + i * 2);
+            if (c != name.charAt(i)) {
+                return c - name.charAt(i);
+            }
+        }
+        return length - name.length();
+    }
+
+    private static int putChars(ByteBuffer buffer, int offset, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.putChar(offset, s.charAt(i));
+            offset += 2;
+        }
+        return offset;
+    }
+}
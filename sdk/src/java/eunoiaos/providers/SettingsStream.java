@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eunoiaos.providers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The format in which settings tables are streamed through a pipe for backup and restore, so
+ * that neither side ever holds more than one setting of the table in memory.
+ * <p>
+ * Every setting is a record of the length of its name, the UTF-8 bytes of the name, the length
+ * of its value, or -1 for null, and the UTF-8 bytes of the value. Lengths are big-endian ints.
+ * The stream ends with a length of -1 in place of a name, so that a reader can tell a complete
+ * stream from one that broke off.
+ * @hide
+ */
+public final class SettingsStream {
+    // Longer names or values are taken for a corrupt stream, rather than allocated
+    private static final int MAX_LENGTH = 1 << 20;
+
+    private static final int END = -1;
+    private static final int NULL_VALUE = -1;
+
+    private SettingsStream() {
+    }
+
+    /**
+     * Writes settings into a stream.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream mOut;
+
+        public Writer(OutputStream out) {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+        }
+
+        /**
+         * Writes a setting.
+         * @param name The name of the setting.
+         * @param value The value of the setting, which may be null.
+         */
+        public void write(String name, String value) throws IOException {
+            writeBytes(name.getBytes(StandardCharsets.UTF_8));
+            if (value != null) {
+                writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            } else {
+                mOut.writeInt(NULL_VALUE);
+            }
+        }
+
+        /**
+         * Marks the stream as complete and flushes it. Nothing can be written afterwards.
+         */
+        public void finish() throws IOException {
+            mOut.writeInt(END);
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            mOut.writeInt(bytes.length);
+            mOut.write(bytes);
+        }
+    }
+
+    /**
+     * Reads settings from a stream, one at a time.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream mIn;
+
+        // Reused for every name and value
+        private byte[] mBuffer = new byte[256];
+
+        private String mName;
+        private String mValue;
+
+        public Reader(InputStream in) {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+        }
+
+        /**
+         * Moves to the next setting.
+         * @return Whether there is one, or false at the end of the stream.
+         * @throws EOFException If the stream broke off before its end.
+         * @throws IOException If the stream could not be read or is corrupt.
+         */
+        public boolean next() throws IOException {
+            final int nameLength = mIn.readInt();
+            if (nameLength == END) {
+                mName = null;
+                mValue = null;
+                return false;
+            }
+            mName = readString(nameLength);
+            final int valueLength = mIn.readInt();
+            mValue = valueLength != NULL_VALUE ? readString(valueLength) : null;
+            return true;
+        }
+
+        /**
+         * @return The name of the current setting.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return The value of the current setting, which may be null.
+         */
+        public String getValue() {
+            return mValue;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private String readString(int length) throws IOException {
+            if (length < 0 || length > MAX_LENGTH) {
+                throw new IOException("Invalid length " + length);
+            }
+            if (length > mBuffer.length) {
+                mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+            }
+            mIn.readFully(mBuffer, 0, length);
+            return new String(mBuffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -317,15 +317,30 @@ public class ColorUtils {
      * @return array of floats representing rgb values 0->1
      */
     public static float[] temperatureToRGB(int degreesK) {
+        return temperatureToRGB(degreesK, new float[3]);
+    }
+
+    /**
+     * Convert a color temperature value (in Kelvin) to a RGB units as floats,
+     * writing them to the given array instead of allocating a new one.
+     *
+     * @param degreesK
+     * @param out array of at least 3 floats to receive the rgb values 0->1
+     * @return out
+     */
+    public static float[] temperatureToRGB(int degreesK, float[] out) {
         int k = MathUtils.constrain(degreesK, 1000, 20000);
         float a = (k % 100) / 100.0f;
         int i = ((k - 1000)/ 100) * 3;
 
-        return new float[] { interp(i, a), interp(i+1, a), interp(i+2, a) };
+        out[0] = interp(i, a);
+        out[1] = interp(i+1, a);
+        out[2] = interp(i+2, a);
+        return out;
     }
 
     private static float interp(int i, float a) {
-        return MathUtils.lerp((float)sColorTable[i], (float)sColorTable[i+3], a);
+        return MathUtils.lerp(sFloatColorTable[i], sFloatColorTable[i+3], a);
     }
 
     /**
@@ -529,4 +544,15 @@ public class ColorUtils {
             0.64937392, 0.76836326, 1.00000000
     };
 
+    // The table narrowed to floats once, for the interpolation in temperatureToRGB()
+    private static final float[] sFloatColorTable = toFloats(sColorTable);
+
+    private static float[] toFloats(double[] values) {
+        final float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
 }
@@ -23,6 +23,8 @@ import eunoiaos.app.EunoiaContextConstants;
 import eunoiaos.hardware.EunoiaHardwareManager;
 import eunoiaos.hardware.IEunoiaHardwareService;
 
+import java.lang.reflect.Field;
+
 /**
  * Created by adnan on 9/1/15.
  */
@@ -47,4 +49,51 @@ public class EunoiaHardwareManagerTest extends AndroidTestCase {
         IEunoiaHardwareService ieunoia.tatusBarManager = mEunoiaHardwareManager.getService();
         assertNotNull(ieunoia.tatusBarManager);
     }
+
+    @SmallTest
+    public void testSupportedFeaturesMatchIsSupported() {
+        final int supported = mEunoiaHardwareManager.getSupportedFeatures();
+        for (int i = 0; i < Integer.SIZE; i++) {
+            final int feature = 1 << i;
+            assertEquals("feature " + feature, (supported & feature) != 0,
+                    mEunoiaHardwareManager.isSupported(feature));
+        }
+    }
+
+    @SmallTest
+    public void testGetAllMatchesGet() {
+        final int features = mEunoiaHardwareManager.getSupportedFeatures()
+                & EunoiaHardwareManager.BOOLEAN_FEATURES;
+        final int values = mEunoiaHardwareManager.getAll(features);
+        assertEquals(0, values & ~features);
+        for (int i = 0; i < Integer.SIZE; i++) {
+            final int feature = 1 << i;
+            if ((features & feature) != 0) {
+                assertEquals("feature " + feature, mEunoiaHardwareManager.get(feature),
+                        (values & feature) != 0);
+            }
+        }
+    }
+
+    @SmallTest
+    public void testGetAllRejectsNonBooleanFeatures() {
+        try {
+            mEunoiaHardwareManager.getAll(EunoiaHardwareManager.FEATURE_DISPLAY_MODES);
+            fail("getAll accepted a non-boolean feature");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @SmallTest
+    public void testIsSupportedStringCoversAllFeatures() throws Exception {
+        for (Field f : EunoiaHardwareManager.class.getFields()) {
+            if (!f.getName().startsWith("FEATURE_")) {
+                continue;
+            }
+            assertEquals(f.getName(), mEunoiaHardwareManager.isSupported(f.getInt(null)),
+                    mEunoiaHardwareManager.isSupported(f.getName()));
+        }
+        assertFalse(mEunoiaHardwareManager.isSupported("FEATURE_UNKNOWN"));
+        assertFalse(mEunoiaHardwareManager.isSupported("BOOLEAN_FEATURES"));
+    }
 }
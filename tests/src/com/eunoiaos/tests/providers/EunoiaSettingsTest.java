@@ -20,17 +20,24 @@ import android.content.ContentResolver;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
 import eunoiaos.providers.EunoiaSettings;
 
+import java.util.Map;
+
 public class EunoiaSettingsTest extends AndroidTestCase{
     private ContentResolver mContentResolver;
     private EunoiaSettingsTestObserver mTestObserver;
 
-    private static boolean sIsOnChangedCalled = false;
+    // Change notifications are delivered asynchronously, after a short coalescing delay
+    private static final long ON_CHANGE_TIMEOUT_MS = 1000;
+
+    private static volatile boolean sIsOnChangedCalled = false;
     private static Uri sExpectedUriChange = null;
 
     @Override
@@ -77,7 +84,7 @@ public class EunoiaSettingsTest extends AndroidTestCase{
                 Settings.NameValueTable.NAME + " = ?", new String[]{ key });
         assertEquals(1, rowsAffected);
 
-        if (!sIsOnChangedCalled) {
+        if (!waitForOnChange()) {
             fail("On change was never called or was called with the wrong uri");
         }
     }
@@ -116,7 +123,7 @@ public class EunoiaSettingsTest extends AndroidTestCase{
                 Settings.NameValueTable.NAME + " = ?", new String[]{ key });
         assertEquals(1, rowsAffected);
 
-        if (!sIsOnChangedCalled) {
+        if (!waitForOnChange()) {
             fail("On change was never called or was called with the wrong uri");
         } */
     }
@@ -154,11 +161,211 @@ public class EunoiaSettingsTest extends AndroidTestCase{
                 Settings.NameValueTable.NAME + " = ?", new String[]{ key });
         assertEquals(1, rowsAffected);
 
-        if (!sIsOnChangedCalled) {
+        if (!waitForOnChange()) {
             fail("On change was never called or was called with the wrong uri");
         }
     }
 
+    @MediumTest
+    public void testCachedGlobalStringInvalidatedPerKey() {
+        final String key = "key";
+        final String otherKey = "otherKey";
+
+        // populate the cache for both keys
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "globalTestValue1"));
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, otherKey, "otherValue"));
+        assertEquals("globalTestValue1", EunoiaSettings.Global.getString(mContentResolver, key));
+        assertEquals("otherValue", EunoiaSettings.Global.getString(mContentResolver, otherKey));
+
+        // writes through the resolver must invalidate the cached value of that key
+        int rowsAffected = mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+        assertEquals(1, rowsAffected);
+        assertNull(EunoiaSettings.Global.getString(mContentResolver, key));
+        assertEquals("otherValue", EunoiaSettings.Global.getString(mContentResolver, otherKey));
+
+        // a negatively cached key must pick up a later insert
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "globalTestValue2"));
+        assertEquals("globalTestValue2", EunoiaSettings.Global.getString(mContentResolver, key));
+
+        // delete to clean up
+        mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+        mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                Settings.NameValueTable.NAME + " = ?", new String[]{ otherKey });
+    }
+
+    @MediumTest
+    public void testGetGlobalStrings() {
+        final String[] keys = new String[] { "key", "otherKey", "missingKey" };
+
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, keys[0], "value1"));
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, keys[1], "value2"));
+
+        Map<String, String> values = EunoiaSettings.Global.getStringsForUser(mContentResolver,
+                keys, UserHandle.myUserId());
+        assertEquals(keys.length, values.size());
+        assertEquals("value1", values.get(keys[0]));
+        assertEquals("value2", values.get(keys[1]));
+        assertTrue(values.containsKey(keys[2]));
+        assertNull(values.get(keys[2]));
+
+        // the batch read must agree with single reads served from the cache it filled
+        assertEquals("value1", EunoiaSettings.Global.getString(mContentResolver, keys[0]));
+        assertNull(EunoiaSettings.Global.getString(mContentResolver, keys[2]));
+
+        // delete to clean up
+        for (String key : keys) {
+            mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                    Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+        }
+    }
+
+    @MediumTest
+    public void testEditGlobalStrings() {
+        final String key = "key";
+        final String otherKey = "otherKey";
+
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, otherKey, "otherValue"));
+
+        // setup observer
+        sIsOnChangedCalled = false;
+        sExpectedUriChange = EunoiaSettings.Global.getUriFor(key);
+        mContentResolver.registerContentObserver(sExpectedUriChange, false, mTestObserver,
+                UserHandle.USER_SYSTEM);
+
+        // put one key and delete the other in a single batch
+        boolean isCommitSuccessful = EunoiaSettings.Global.edit(mContentResolver)
+                .putString(key, "globalTestValue1")
+                .remove(otherKey)
+                .commit();
+        assertTrue(isCommitSuccessful);
+        assertEquals("globalTestValue1", EunoiaSettings.Global.getString(mContentResolver, key));
+        assertNull(EunoiaSettings.Global.getString(mContentResolver, otherKey));
+
+        // later changes of a key replace earlier ones within a batch
+        isCommitSuccessful = EunoiaSettings.Global.edit(mContentResolver)
+                .putInt(key, 1)
+                .remove(key)
+                .putInt(key, 2)
+                .commit();
+        assertTrue(isCommitSuccessful);
+        assertEquals(2, EunoiaSettings.Global.getInt(mContentResolver, key, 0));
+
+        // delete to clean up
+        int rowsAffected = mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+        assertEquals(1, rowsAffected);
+
+        if (!waitForOnChange()) {
+            fail("On change was never called or was called with the wrong uri");
+        }
+    }
+
+    @MediumTest
+    public void testGetTypedGlobalValues() {
+        final String key = "key";
+        final int userId = UserHandle.myUserId();
+
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "12"));
+        assertEquals(12, EunoiaSettings.Global.getInt(mContentResolver, key, 0));
+        // a second read is served from the parsed value of the cached entry
+        assertEquals(12, EunoiaSettings.Global.getInt(mContentResolver, key, 0));
+        assertEquals(12L, EunoiaSettings.Global.getLong(mContentResolver, key, 0L));
+        assertEquals(12f, EunoiaSettings.Global.getFloat(mContentResolver, key, 0f));
+        // only 1 is true
+        assertFalse(EunoiaSettings.Global.getBooleanForUser(mContentResolver, key, true,
+                userId));
+
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "1"));
+        assertTrue(EunoiaSettings.Global.getBooleanForUser(mContentResolver, key, false,
+                userId));
+
+        // parsed values must not outlive the string they were parsed from
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "notAnInt"));
+        assertEquals(-1, EunoiaSettings.Global.getInt(mContentResolver, key, -1));
+        assertFalse(EunoiaSettings.Global.getBooleanForUser(mContentResolver, key, false,
+                userId));
+        try {
+            EunoiaSettings.Global.getInt(mContentResolver, key);
+            fail("Expected EunoiaSettingNotFoundException for a non-integer value");
+        } catch (EunoiaSettings.EunoiaSettingNotFoundException e) {
+            // expected
+        }
+
+        assertTrue(EunoiaSettings.Global.putString(mContentResolver, key, "0"));
+        assertFalse(EunoiaSettings.Global.getBooleanForUser(mContentResolver, key, true,
+                userId));
+
+        // delete to clean up
+        mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+        assertTrue(EunoiaSettings.Global.getBooleanForUser(mContentResolver, key, true,
+                userId));
+    }
+
+    @MediumTest
+    public void testSharedSnapshotGlobalStrings() {
+        final String key = "key";
+        EunoiaSettings.Global.setTableSharedSnapshotEnabled(true);
+        try {
+            assertTrue(EunoiaSettings.Global.putString(mContentResolver, key,
+                    "globalTestValue1"));
+            assertEquals("globalTestValue1",
+                    EunoiaSettings.Global.getString(mContentResolver, key));
+            assertNull(EunoiaSettings.Global.getString(mContentResolver, "missingKey"));
+
+            // a write must make the mapped snapshot stale
+            assertTrue(EunoiaSettings.Global.putString(mContentResolver, key,
+                    "globalTestValue2"));
+            assertEquals("globalTestValue2",
+                    EunoiaSettings.Global.getString(mContentResolver, key));
+            assertEquals(-1, EunoiaSettings.Global.getInt(mContentResolver, key, -1));
+
+            mContentResolver.delete(EunoiaSettings.Global.CONTENT_URI,
+                    Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+            assertNull(EunoiaSettings.Global.getString(mContentResolver, key));
+        } finally {
+            EunoiaSettings.Global.setTableSharedSnapshotEnabled(false);
+        }
+    }
+
+    @SmallTest
+    public void testSystemValidators() {
+        final EunoiaSettings.Validator clock =
+                EunoiaSettings.System.getValidator(EunoiaSettings.System.STATUS_BAR_CLOCK);
+        assertSame(EunoiaSettings.System.STATUS_BAR_CLOCK_VALIDATOR, clock);
+        assertTrue(clock.validate("2"));
+        assertTrue(clock.validate("+1"));
+        assertFalse(clock.validate("3"));
+        assertFalse(clock.validate("-"));
+        assertFalse(clock.validate("99999999999"));
+        assertFalse(clock.validate(null));
+
+        final EunoiaSettings.Validator navButtons =
+                EunoiaSettings.System.getValidator(EunoiaSettings.System.NAV_BUTTONS);
+        assertTrue(navButtons.validate(""));
+        assertTrue(navButtons.validate("home||back|"));
+        assertFalse(navButtons.validate("home|backs"));
+
+        assertNull(EunoiaSettings.System.getValidator("notASetting"));
+
+        // unknown system settings are invalid, unknown global settings are not
+        final String[] names = new String[] {
+                EunoiaSettings.System.STATUS_BAR_CLOCK, "notASetting" };
+        final String[] values = new String[] { "1", "1" };
+        assertEquals(1, EunoiaSettings.System.validateBatch(names, values));
+        assertEquals(-1, EunoiaSettings.Global.validateBatch(names, values));
+    }
+
+    private static boolean waitForOnChange() {
+        final long deadline = SystemClock.uptimeMillis() + ON_CHANGE_TIMEOUT_MS;
+        while (!sIsOnChangedCalled && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        return sIsOnChangedCalled;
+    }
+
     private class EunoiaSettingsTestObserver extends ContentObserver {
 
         public EunoiaSettingsTestObserver(Handler handler) {
@@ -108,6 +108,17 @@ public class ColorUtilTest extends AndroidTestCase {
         bitmap.recycle();
     }
 
+    public void testTemperatureToRGBIntoArray() {
+        final float[] out = new float[3];
+        for (int k = 1000; k <= 20000; k += 37) {
+            final float[] expected = mColorUtils.temperatureToRGB(k);
+            assertSame(out, mColorUtils.temperatureToRGB(k, out));
+            assertEquals(expected[0], out[0]);
+            assertEquals(expected[1], out[1]);
+            assertEquals(expected[2], out[2]);
+        }
+    }
+
     private ColorDrawable getColorDrawableFromBitmapDrawable(final BitmapDrawable bitmapDrawable) {
         ColorDrawable colorDrawable = Mockito.mock(ColorDrawable.class);
         Mockito.doAnswer(new Answer() {